@@ -0,0 +1,54 @@
+package com.example.currency_exchange.mapper;
+
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccountMapperBenchmark {
+
+    private final AccountMapper accountMapper = new AccountMapper();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Account account;
+    private AccountResponse accountResponse;
+    private ExchangeRequest exchangeRequest;
+
+    @Setup
+    public void setUp() {
+        account = new Account("Jan", "Kowalski", new BigDecimal("1000.00"));
+        account.getBalances().put("USD", new BigDecimal("250.00"));
+        accountResponse = accountMapper.toResponse(account);
+        exchangeRequest = new ExchangeRequest(new BigDecimal("100.00"), "PLN");
+    }
+
+    @Benchmark
+    public AccountResponse toResponse() {
+        return accountMapper.toResponse(account);
+    }
+
+    @Benchmark
+    public AccountResponse accountResponseJsonRoundTrip() throws JsonProcessingException {
+        var json = objectMapper.writeValueAsString(accountResponse);
+        return objectMapper.readValue(json, AccountResponse.class);
+    }
+
+    @Benchmark
+    public ExchangeRequest exchangeRequestJsonRoundTrip() throws JsonProcessingException {
+        var json = objectMapper.writeValueAsString(exchangeRequest);
+        return objectMapper.readValue(json, ExchangeRequest.class);
+    }
+}
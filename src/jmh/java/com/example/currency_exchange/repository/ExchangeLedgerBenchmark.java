@@ -0,0 +1,81 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.CurrencyExchangeApplication;
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording the ledger entry on top of the balance transfer itself, against an in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExchangeLedgerBenchmark {
+    private static final BigDecimal DEBIT = new BigDecimal("0.04");
+    private static final BigDecimal CREDIT = new BigDecimal("0.01");
+    private static final BigDecimal USD_RATE = new BigDecimal("3.9871");
+
+    private ConfigurableApplicationContext context;
+    private AccountRepository accountRepository;
+    private ExchangeLedgerRepository ledgerRepository;
+    private TransactionTemplate transactionTemplate;
+    private BalanceTransfer transfer;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(CurrencyExchangeApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:ledger-benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false",
+                        "--nbp.cache.warm-up=false",
+                        "--logging.level.root=WARN");
+        accountRepository = context.getBean(AccountRepository.class);
+        ledgerRepository = context.getBean(ExchangeLedgerRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        var account = accountRepository.save(new Account("Jan", "Kowalski", new BigDecimal("1000000000.00")));
+        transfer = new BalanceTransfer(account.getId(), "PLN", DEBIT, "USD", CREDIT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int[] transferOnly() {
+        return transactionTemplate.execute(status -> {
+            accountRepository.findByIdForUpdate(transfer.getAccountId());
+            return accountRepository.applyTransfers(List.of(transfer));
+        });
+    }
+
+    @Benchmark
+    public int[] transferWithLedger() {
+        return transactionTemplate.execute(status -> {
+            accountRepository.findByIdForUpdate(transfer.getAccountId());
+            var counts = accountRepository.applyTransfers(List.of(transfer));
+            ledgerRepository.save(new ExchangeLedgerEntry(transfer.getAccountId(),
+                    transfer.getDebitCurrency(), transfer.getDebit(),
+                    transfer.getCreditCurrency(), transfer.getCredit(),
+                    BigDecimal.ONE, USD_RATE, 1, "001/A/NBP/2024", Instant.now()));
+            return counts;
+        });
+    }
+}
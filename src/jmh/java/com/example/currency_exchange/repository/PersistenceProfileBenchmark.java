@@ -0,0 +1,109 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.CurrencyExchangeApplication;
+import com.example.currency_exchange.model.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Create, get and exchange throughput from 8 threads on the default in-memory H2 database against the prod
+ * profile: a file-backed database with the Flyway schema, a fixed Hikari pool and statement caching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class PersistenceProfileBenchmark {
+    private static final int ACCOUNTS = 1024;
+    private static final BigDecimal DEBIT = new BigDecimal("0.04");
+    private static final BigDecimal CREDIT = new BigDecimal("0.01");
+    private static final Path DATABASE_DIRECTORY = Path.of("target", "persistence-benchmark");
+
+    @Param({"default", "prod"})
+    public String profile;
+
+    private ConfigurableApplicationContext context;
+    private AccountRepository accountRepository;
+    private TransactionTemplate transactionTemplate;
+    private List<BalanceTransfer> transfers;
+
+    @Setup
+    public void setUp() throws IOException {
+        FileSystemUtils.deleteRecursively(DATABASE_DIRECTORY);
+        var builder = new SpringApplicationBuilder(CurrencyExchangeApplication.class)
+                .web(WebApplicationType.NONE);
+        if (profile.equals("prod")) {
+            builder.profiles("prod");
+        }
+        context = builder.run("--spring.datasource.url=" + datasourceUrl(),
+                "--spring.jpa.show-sql=false",
+                "--nbp.cache.warm-up=false",
+                "--logging.level.root=WARN");
+        accountRepository = context.getBean(AccountRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        transfers = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            var account = accountRepository.save(new Account("Jan", "Kowalski", new BigDecimal("1000000000.00")));
+            transfers.add(new BalanceTransfer(account.getId(), "PLN", DEBIT, "USD", CREDIT));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(DATABASE_DIRECTORY);
+    }
+
+    @Benchmark
+    public Account create() {
+        return accountRepository.save(new Account("Jan", "Kowalski", new BigDecimal("1000.00")));
+    }
+
+    @Benchmark
+    public Optional<Account> get() {
+        return accountRepository.findById(randomTransfer().getAccountId());
+    }
+
+    @Benchmark
+    public int[] exchange() {
+        var transfer = randomTransfer();
+        return transactionTemplate.execute(status -> {
+            accountRepository.findByIdForUpdate(transfer.getAccountId());
+            return accountRepository.applyTransfers(List.of(transfer));
+        });
+    }
+
+    private BalanceTransfer randomTransfer() {
+        return transfers.get(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+
+    private String datasourceUrl() {
+        if (profile.equals("prod")) {
+            return "jdbc:h2:file:./" + DATABASE_DIRECTORY.resolve("currencydb")
+                    + ";AUTO_SERVER=TRUE;DB_CLOSE_ON_EXIT=FALSE;QUERY_CACHE_SIZE=64";
+        }
+        return "jdbc:h2:mem:persistence-benchmark;DB_CLOSE_DELAY=-1";
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.CurrencyExchangeApplication;
+import com.example.currency_exchange.model.BulkCreateAccountsResponse;
+import com.example.currency_exchange.model.CreateAccountRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to create {@code accounts} accounts from one NDJSON body through {@link AccountService#createAccounts},
+ * one transaction per {@code chunkSize} accounts, against the same accounts created by as many
+ * {@link AccountService#createAccount} calls, one transaction each. Chunk size does not apply to the latter,
+ * so its rows only repeat the baseline. Runs against in-memory H2, emptied before every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AccountBulkCreateBenchmark {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+
+    @Param({"50", "1000", "10000"})
+    public int chunkSize;
+
+    @Param({"10000"})
+    public int accounts;
+
+    private ConfigurableApplicationContext context;
+    private AccountService accountService;
+    private JdbcTemplate jdbcTemplate;
+    private CreateAccountRequest request;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(CurrencyExchangeApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:bulk-create-benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false",
+                        "--nbp.cache.warm-up=false",
+                        "--accounts.bulk.chunk-size=" + chunkSize,
+                        "--logging.level.root=WARN");
+        accountService = context.getBean(AccountService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        request = new CreateAccountRequest("Jan", "Kowalski", INITIAL_BALANCE);
+        var ndjson = new StringBuilder();
+        for (int i = 0; i < accounts; i++) {
+            ndjson.append("{\"firstName\":\"Jan\",\"lastName\":\"Kowalski\",\"initialBalance\":1000.00}\n");
+        }
+        body = ndjson.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Setup(Level.Iteration)
+    public void deleteAccounts() {
+        jdbcTemplate.update("delete from account_balance");
+        jdbcTemplate.update("delete from account");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BulkCreateAccountsResponse createAccounts() throws IOException {
+        return accountService.createAccounts(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public long createAccountOneByOne() {
+        var created = 0L;
+        for (int i = 0; i < accounts; i++) {
+            accountService.createAccount(request);
+            created++;
+        }
+        return created;
+    }
+}
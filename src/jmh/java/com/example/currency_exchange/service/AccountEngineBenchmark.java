@@ -0,0 +1,90 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.CurrencyExchangeApplication;
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.BalanceTransfer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange throughput of the row-locking JPA path against the sharded in-memory engine, from 8 threads over
+ * {@code accounts} accounts; a single account shows the fully contended case. Both run against in-memory H2;
+ * {@code sharded-journal} also waits for the group fsync of the balance journal before acknowledging.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class AccountEngineBenchmark {
+    private static final BigDecimal DEBIT = new BigDecimal("0.04");
+    private static final BigDecimal CREDIT = new BigDecimal("0.01");
+
+    @Param({"jpa", "sharded", "sharded-journal"})
+    public String engine;
+
+    @Param({"1", "1024"})
+    public int accounts;
+
+    private ConfigurableApplicationContext context;
+    private AccountRepository accountRepository;
+    private TransactionTemplate transactionTemplate;
+    private ShardedAccountEngine accountEngine;
+    private List<BalanceTransfer> transfers;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(CurrencyExchangeApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:engine-benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false",
+                        "--nbp.cache.warm-up=false",
+                        "--exchange.engine.mode=" + (engine.startsWith("sharded") ? "sharded" : engine),
+                        "--exchange.engine.journal.enabled=" + engine.equals("sharded-journal"),
+                        "--exchange.engine.journal.directory=target/engine-benchmark-journal",
+                        "--logging.level.root=WARN");
+        accountRepository = context.getBean(AccountRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        accountEngine = context.getBean(ShardedAccountEngine.class);
+        transfers = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            var account = accountRepository.save(new Account("Jan", "Kowalski", new BigDecimal("1000000000.00")));
+            transfers.add(new BalanceTransfer(account.getId(), "PLN", DEBIT, "USD", CREDIT));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object exchange() {
+        var transfer = transfers.get(ThreadLocalRandom.current().nextInt(accounts));
+        if (accountEngine.isEnabled()) {
+            return accountEngine.exchange(transfer);
+        }
+        return transactionTemplate.execute(status -> {
+            accountRepository.findByIdForUpdate(transfer.getAccountId());
+            return accountRepository.applyTransfers(List.of(transfer));
+        });
+    }
+}
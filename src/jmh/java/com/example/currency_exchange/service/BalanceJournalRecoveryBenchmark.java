@@ -0,0 +1,124 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.model.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restart time with {@code accounts} journaled accounts: one snapshot per shard plus {@code tail} records appended
+ * after it. Recovery reads the snapshots sequentially, so it grows with the account count while the tail stays
+ * bounded by {@code snapshot-interval}. The measured restart includes writing the new generation's snapshot.
+ * Run the 10M case with a heap of at least 8 GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BalanceJournalRecoveryBenchmark {
+    private static final int SHARDS = 8;
+
+    @Param({"1000000", "10000000"})
+    public int accounts;
+
+    @Param({"100000"})
+    public int tail;
+
+    private ExchangeProperties.Journal properties;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, InterruptedException {
+        properties = new ExchangeProperties.Journal();
+        properties.setDirectory(Files.createTempDirectory("journal-recovery").toString());
+        properties.setSnapshotInterval(Duration.ofHours(1));
+        var journal = new BalanceJournal(properties);
+        journal.recover(SHARDS, BalanceJournalRecoveryBenchmark::shardOf);
+        journal.start(this::generated);
+        journal.snapshotAll(this::generated);
+        CompletableFuture<Long> last = null;
+        for (int i = 0; i < tail; i++) {
+            var account = account(i % accounts);
+            last = journal.append(shardOf(account.getId()), account);
+        }
+        if (last != null) {
+            last.join();
+        }
+        journal.close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        new BalanceJournal(properties).delete();
+        Files.deleteIfExists(Path.of(properties.getDirectory()));
+    }
+
+    @Benchmark
+    public Map<UUID, Account> recover() throws IOException {
+        return new BalanceJournal(properties).recover(SHARDS, BalanceJournalRecoveryBenchmark::shardOf);
+    }
+
+    /**
+     * The shard's accounts, generated while the snapshot is written so setup needs no heap for them.
+     */
+    private Collection<Account> generated(int shard) {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Account> iterator() {
+                return new Iterator<>() {
+                    private int next = shard;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < accounts;
+                    }
+
+                    @Override
+                    public Account next() {
+                        var account = account(next);
+                        next += SHARDS;
+                        return account;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return (accounts - shard + SHARDS - 1) / SHARDS;
+            }
+        };
+    }
+
+    /**
+     * Account {@code n} lives on shard {@code n % SHARDS}, matching {@link #shardOf(UUID)}.
+     */
+    private static Account account(int n) {
+        var account = new Account("Jan", "Kowalski", BigDecimal.valueOf(100_000 + n, 2));
+        account.setId(new UUID(n, n % SHARDS));
+        account.getBalances().put("USD", BigDecimal.valueOf(n, 2));
+        return account;
+    }
+
+    private static int shardOf(UUID accountId) {
+        return (int) accountId.getLeastSignificantBits();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.NbpProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import javax.naming.ServiceUnavailableException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExchangeRateServiceBenchmark {
+
+    private ExchangeRateService exchangeRateService;
+    private byte[] tableBody;
+
+    @Setup
+    public void setUp() throws ServiceUnavailableException {
+        tableBody = tableA().getBytes(StandardCharsets.UTF_8);
+        var restTemplate = new StubRestTemplate(tableBody);
+
+        var nbpProperties = new NbpProperties();
+        var clock = Clock.systemUTC();
+        exchangeRateService = new ExchangeRateService(
+                restTemplate, nbpProperties, clock, new NbpCircuitBreaker(nbpProperties, clock),
+                new ExchangeMetrics(new SimpleMeterRegistry()));
+        exchangeRateService.getCurrentRate("USD");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BigDecimal cachedRate() throws ServiceUnavailableException {
+        return exchangeRateService.getCurrentRate("USD");
+    }
+
+    @Benchmark
+    public BigDecimal refreshedRate() throws ServiceUnavailableException {
+        exchangeRateService.evictAll();
+        return exchangeRateService.getCurrentRate("USD");
+    }
+
+    @Benchmark
+    public RateTable parseTable() throws IOException {
+        return NbpTableParser.parse(new ByteArrayInputStream(tableBody));
+    }
+
+    // same shape and size as a real table A: one object with ~33 rates
+    private static String tableA() {
+        var rates = new StringJoiner(",");
+        for (int i = 0; i < 33; i++) {
+            var code = "" + (char) ('A' + i / 26) + (char) ('A' + i % 26) + "X";
+            rates.add("{\"currency\":\"waluta " + code + "\",\"code\":\"" + (i == 0 ? "USD" : code)
+                    + "\",\"mid\":" + (3 + i / 10.0) + "}");
+        }
+        return "[{\"table\":\"A\",\"no\":\"001/A/NBP/2024\",\"effectiveDate\":\"2024-01-02\",\"rates\":["
+                + rates + "]}]";
+    }
+
+    private static class StubRestTemplate extends RestTemplate {
+        private final byte[] body;
+
+        StubRestTemplate(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+                             ResponseExtractor<T> responseExtractor, Object... uriVariables) {
+            try {
+                return (T) NbpTableParser.parse(new ByteArrayInputStream(body));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.model.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code *FixedPoint} variants price through {@link FixedPointMoney}; compare allocation per operation
+ * with {@code -Djmh.args="-f 1 -wi 3 -i 5 -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExchangeServiceBenchmark {
+    private static final BigDecimal USD_RATE = new BigDecimal("3.9871");
+    private static final BigDecimal EUR_RATE = new BigDecimal("4.3215");
+
+    private final AccountBalanceValidator validator = new AccountBalanceValidator();
+    private Account account;
+    private BigDecimal amount;
+    private RateSnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        account = new Account("Jan", "Kowalski", new BigDecimal("1000.00"));
+        account.getBalances().put("USD", new BigDecimal("250.00"));
+        amount = new BigDecimal("123.45");
+        var table = new RateTable("001/A/NBP/2024", LocalDate.of(2024, 1, 2), Map.of("USD", USD_RATE, "EUR", EUR_RATE));
+        var fetchedAt = Instant.parse("2024-01-02T12:00:00Z");
+        snapshot = new RateSnapshot(1, table, fetchedAt, fetchedAt.plusSeconds(3600));
+    }
+
+    @Benchmark
+    public BigDecimal convertPlnToUsd() {
+        return ExchangeService.convert(amount, BigDecimal.ONE, USD_RATE);
+    }
+
+    @Benchmark
+    public BigDecimal convertUsdToPln() {
+        return ExchangeService.convert(amount, USD_RATE, BigDecimal.ONE);
+    }
+
+    @Benchmark
+    public BigDecimal convertEurToUsd() {
+        return ExchangeService.convert(amount, EUR_RATE, USD_RATE);
+    }
+
+    @Benchmark
+    public BigDecimal convertPlnToUsdFixedPoint() {
+        return ExchangeService.convert(amount, snapshot, "PLN", "USD");
+    }
+
+    @Benchmark
+    public BigDecimal convertUsdToPlnFixedPoint() {
+        return ExchangeService.convert(amount, snapshot, "USD", "PLN");
+    }
+
+    @Benchmark
+    public BigDecimal convertEurToUsdFixedPoint() {
+        return ExchangeService.convert(amount, snapshot, "EUR", "USD");
+    }
+
+    @Benchmark
+    public Account validateBalance() {
+        validator.validateBalance(account, amount, "PLN");
+        return account;
+    }
+}
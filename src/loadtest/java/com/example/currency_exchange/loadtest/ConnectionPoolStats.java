@@ -0,0 +1,82 @@
+package com.example.currency_exchange.loadtest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.ApplicationContext;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hikari's {@code hikaricp.connections.usage} (how long a connection stays borrowed) and
+ * {@code hikaricp.connections.acquire} (how long a request waits to borrow one) timers of the in-process
+ * application. Timers are cumulative, so a window is the difference of two captures; max is the timer's own
+ * recent maximum and is not windowed.
+ */
+class ConnectionPoolStats {
+    private static final String USAGE = "hikaricp.connections.usage";
+    private static final String ACQUIRE = "hikaricp.connections.acquire";
+
+    private final TimerTotals usage;
+    private final TimerTotals acquire;
+
+    private ConnectionPoolStats(TimerTotals usage, TimerTotals acquire) {
+        this.usage = usage;
+        this.acquire = acquire;
+    }
+
+    static ConnectionPoolStats capture(ApplicationContext application) {
+        var registry = application.getBean(MeterRegistry.class);
+        return new ConnectionPoolStats(read(registry, USAGE), read(registry, ACQUIRE));
+    }
+
+    ConnectionPoolStats since(ConnectionPoolStats start) {
+        return new ConnectionPoolStats(usage.minus(start.usage), acquire.minus(start.acquire));
+    }
+
+    void print() {
+        System.out.printf(Locale.ROOT, "%-10s %10s %10s %10s%n", "pool", "count", "mean ms", "max ms");
+        usage.print("usage");
+        acquire.print("acquire");
+    }
+
+    String toJson() {
+        return "{\"usage\":" + usage.toJson() + ",\"acquire\":" + acquire.toJson() + "}";
+    }
+
+    private static TimerTotals read(MeterRegistry registry, String name) {
+        var timer = registry.find(name).timer();
+        if (timer == null) {
+            throw new IllegalStateException(name + " is not registered, Hikari metrics need a MeterRegistry");
+        }
+        return new TimerTotals(timer.count(), timer.totalTime(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS));
+    }
+
+    private static class TimerTotals {
+        private final long count;
+        private final double totalMillis;
+        private final double maxMillis;
+
+        private TimerTotals(long count, double totalMillis, double maxMillis) {
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        TimerTotals minus(TimerTotals start) {
+            return new TimerTotals(count - start.count, totalMillis - start.totalMillis, maxMillis);
+        }
+
+        double meanMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        void print(String name) {
+            System.out.printf(Locale.ROOT, "%-10s %10d %10.3f %10.3f%n", name, count, meanMillis(), maxMillis);
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"count\":%d,\"meanMs\":%.3f,\"maxMs\":%.3f}",
+                    count, meanMillis(), maxMillis);
+        }
+    }
+}
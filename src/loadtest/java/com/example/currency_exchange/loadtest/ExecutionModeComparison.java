@@ -0,0 +1,33 @@
+package com.example.currency_exchange.loadtest;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs the same open-model load against the platform and the virtual thread execution mode while
+ * {@link StubNbpServer} answers slowly and the rate cache expires immediately, so every exchange waits
+ * on NBP. Accepts the {@link LoadTestRunner} arguments; results go to
+ * {@code target/loadtest-platform.json} and {@code target/loadtest-virtual.json}. The virtual mode needs JDK 21.
+ */
+public class ExecutionModeComparison {
+
+    public static void main(String[] args) throws Exception {
+        var passed = true;
+        for (var mode : List.of("platform", "virtual")) {
+            var settings = new HashMap<String, String>();
+            settings.put("nbp-latency", "PT0.5S");
+            settings.put("nbp-cache-ttl", "PT0S");
+            settings.put("mix", "exchange=100");
+            settings.put("rps", "400");
+            // a small pool makes the platform mode's ceiling (threads / NBP latency = 100 req/s) visible
+            settings.put("tomcat-threads", "50");
+            settings.putAll(LoadTestRunner.parseArgs(args));
+            settings.put("execution-mode", mode);
+            settings.put("output", "target/loadtest-" + mode + ".json");
+
+            System.out.println("== execution.mode=" + mode);
+            passed &= new LoadTestRunner(settings).run();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.currency_exchange.loadtest;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects raw latency samples so percentiles are exact rather than bucketed.
+ */
+class LatencyStats {
+    private long[] samples = new long[1024];
+    private int count;
+    private long errors;
+
+    synchronized void record(long latencyNanos, boolean error) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = latencyNanos;
+        if (error) {
+            errors++;
+        }
+    }
+
+    synchronized Snapshot snapshot() {
+        var sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new Snapshot(sorted, errors);
+    }
+
+    static class Snapshot {
+        private final long[] sorted;
+        private final long errors;
+
+        private Snapshot(long[] sorted, long errors) {
+            this.sorted = sorted;
+            this.errors = errors;
+        }
+
+        static Snapshot merge(Collection<Snapshot> snapshots) {
+            var merged = snapshots.stream().flatMapToLong(snapshot -> Arrays.stream(snapshot.sorted)).sorted().toArray();
+            var errors = snapshots.stream().mapToLong(Snapshot::errors).sum();
+            return new Snapshot(merged, errors);
+        }
+
+        long count() {
+            return sorted.length;
+        }
+
+        long errors() {
+            return errors;
+        }
+
+        double errorRate() {
+            return sorted.length == 0 ? 0 : (double) errors / sorted.length;
+        }
+
+        double percentileMillis(double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            var index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        String toJson(double elapsedSeconds) {
+            return String.format(Locale.ROOT,
+                    "{\"requests\":%d,\"errors\":%d,\"errorRate\":%.5f,\"throughput\":%.2f,"
+                            + "\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"p999Ms\":%.3f,\"maxMs\":%.3f}",
+                    count(), errors, errorRate(), count() / elapsedSeconds,
+                    percentileMillis(50), percentileMillis(99), percentileMillis(99.9), percentileMillis(100));
+        }
+    }
+}
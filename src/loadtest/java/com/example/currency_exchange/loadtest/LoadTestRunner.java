@@ -0,0 +1,295 @@
+package com.example.currency_exchange.loadtest;
+
+import com.example.currency_exchange.CurrencyExchangeApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Open-model load generator: requests are fired on a fixed schedule regardless of how fast
+ * earlier ones complete, and latency is measured from the scheduled start so queueing is not hidden.
+ *
+ * <p>Arguments are {@code --key=value}: {@code target}, {@code rps}, {@code duration}, {@code warmup},
+ * {@code accounts}, {@code mix}, {@code nbp-latency}, {@code nbp-error-rate}, {@code nbp-cache-ttl},
+ * {@code execution-mode}, {@code tomcat-threads}, {@code pool-size}, {@code rate-lookup}, {@code output},
+ * {@code max-p99-ms}, {@code max-error-rate}. Without {@code target} the application is started in-process
+ * against {@link StubNbpServer}, and the report adds its {@link ConnectionPoolStats} for the measured window.
+ */
+public class LoadTestRunner {
+    private static final String CREATE = "create";
+    private static final String GET = "get";
+    private static final String EXCHANGE = "exchange";
+    private static final String RATE_INSIDE_TX = "inside-tx";
+
+    private final Map<String, String> settings;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<UUID> accountIds = new ArrayList<>();
+    private String baseUrl;
+
+    LoadTestRunner(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(new LoadTestRunner(parseArgs(args)).run() ? 0 : 1);
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        var settings = new HashMap<String, String>();
+        for (var arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                settings.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        return settings;
+    }
+
+    boolean run() throws Exception {
+        StubNbpServer stub = null;
+        ConfigurableApplicationContext application = null;
+        try {
+            if (settings.containsKey("target")) {
+                baseUrl = settings.get("target");
+            } else {
+                stub = new StubNbpServer(duration("nbp-latency", "PT0.05S"), number("nbp-error-rate", "0.0"));
+                application = startApplication(stub);
+                baseUrl = "http://127.0.0.1:" + ((ServletWebServerApplicationContext) application).getWebServer().getPort();
+            }
+            seedAccounts((int) number("accounts", "100"));
+
+            var mix = parseMix(settings.getOrDefault("mix", "create=10,get=45,exchange=45"));
+            var rps = number("rps", "200");
+            drive(mix, rps, duration("warmup", "PT5S"), new HashMap<>());
+            var stats = new LinkedHashMap<String, LatencyStats>();
+            mix.keySet().forEach(operation -> stats.put(operation, new LatencyStats()));
+            var measured = duration("duration", "PT30S");
+            var poolBefore = application != null ? ConnectionPoolStats.capture(application) : null;
+            var elapsedSeconds = drive(mix, rps, measured, stats);
+            var pool = poolBefore != null ? ConnectionPoolStats.capture(application).since(poolBefore) : null;
+
+            return report(stats, elapsedSeconds, rps, stub, pool);
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+
+    private ConfigurableApplicationContext startApplication(StubNbpServer stub) {
+        var builder = new SpringApplicationBuilder(CurrencyExchangeApplication.class);
+        var rateLookup = settings.getOrDefault("rate-lookup", "before-tx");
+        if (RATE_INSIDE_TX.equals(rateLookup)) {
+            builder.sources(RateInsideTransactionFilter.class);
+        } else if (!"before-tx".equals(rateLookup)) {
+            throw new IllegalArgumentException("Unknown rate-lookup " + rateLookup);
+        }
+        return builder.run(
+                "--server.port=0",
+                "--nbp.api.url=" + stub.tableUrl(),
+                "--nbp.cache.ttl=" + settings.getOrDefault("nbp-cache-ttl", "PT5S"),
+                "--nbp.cache.refresh-ahead=PT0S",
+                "--execution.mode=" + settings.getOrDefault("execution-mode", "platform"),
+                "--server.tomcat.threads.max=" + settings.getOrDefault("tomcat-threads", "200"),
+                "--spring.datasource.hikari.maximum-pool-size=" + settings.getOrDefault("pool-size", "10"),
+                "--spring.jpa.show-sql=false",
+                "--spring.h2.console.enabled=false",
+                "--logging.level.root=WARN");
+    }
+
+    private void seedAccounts(int count) throws IOException, InterruptedException {
+        for (int i = 0; i < count; i++) {
+            var response = httpClient.send(createRequest(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding accounts failed with HTTP " + response.statusCode());
+            }
+            accountIds.add(UUID.fromString(objectMapper.readTree(response.body()).get("id").asText()));
+        }
+    }
+
+    private double drive(Map<String, Integer> mix, double rps, Duration duration, Map<String, LatencyStats> stats)
+            throws InterruptedException {
+        var intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+        var total = (long) (rps * duration.toMillis() / 1000.0);
+        var inFlight = new ArrayList<CompletableFuture<?>>();
+        var start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            var intended = start + i * intervalNanos;
+            var wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            var operation = pickOperation(mix);
+            var recorder = stats.get(operation);
+            inFlight.add(httpClient.sendAsync(request(operation), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (recorder != null) {
+                            var failed = error != null || response.statusCode() >= 500;
+                            recorder.record(System.nanoTime() - intended, failed);
+                        }
+                    }));
+        }
+        try {
+            CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new))
+                    .exceptionally(error -> null)
+                    .get(1, TimeUnit.MINUTES);
+        } catch (TimeoutException | ExecutionException ex) {
+            System.err.println("Some requests did not complete: " + ex);
+        }
+        return (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private HttpRequest request(String operation) {
+        var accountId = accountIds.get(ThreadLocalRandom.current().nextInt(accountIds.size()));
+        switch (operation) {
+            case CREATE:
+                return createRequest();
+            case GET:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/api/accounts/" + accountId))
+                        .timeout(Duration.ofSeconds(30))
+                        .GET()
+                        .build();
+            case EXCHANGE:
+                var body = ThreadLocalRandom.current().nextInt(10) < 7
+                        ? "{\"amount\":10,\"sourceCurrency\":\"PLN\"}"
+                        : "{\"amount\":1,\"sourceCurrency\":\"USD\"}";
+                return jsonPost("/api/accounts/" + accountId + "/exchange", body);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private HttpRequest createRequest() {
+        return jsonPost("/api/accounts", "{\"firstName\":\"Load\",\"lastName\":\"Test\",\"initialBalance\":100000}");
+    }
+
+    private HttpRequest jsonPost(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private boolean report(Map<String, LatencyStats> stats, double elapsedSeconds, double rps, StubNbpServer stub,
+                           ConnectionPoolStats pool) throws IOException {
+        var operations = new LinkedHashMap<String, LatencyStats.Snapshot>();
+        stats.forEach((operation, recorder) -> operations.put(operation, recorder.snapshot()));
+
+        System.out.printf(Locale.ROOT, "%-10s %10s %8s %10s %10s %10s %10s%n",
+                "operation", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms");
+        var json = new StringBuilder("{\"targetRps\":").append(rps)
+                .append(",\"elapsedSeconds\":").append(String.format(Locale.ROOT, "%.3f", elapsedSeconds))
+                .append(",\"operations\":{");
+        var first = true;
+        for (var entry : operations.entrySet()) {
+            var snapshot = entry.getValue();
+            print(entry.getKey(), snapshot, elapsedSeconds);
+            json.append(first ? "" : ",").append('"').append(entry.getKey()).append("\":")
+                    .append(snapshot.toJson(elapsedSeconds));
+            first = false;
+        }
+        var total = LatencyStats.Snapshot.merge(operations.values());
+        print("total", total, elapsedSeconds);
+        json.append("},\"total\":").append(total.toJson(elapsedSeconds));
+        if (stub != null) {
+            json.append(",\"nbp\":{\"requests\":").append(stub.getRequestCount())
+                    .append(",\"failures\":").append(stub.getFailureCount()).append('}');
+        }
+        if (pool != null) {
+            pool.print();
+            json.append(",\"connectionPool\":").append(pool.toJson());
+        }
+        json.append('}');
+
+        var output = Path.of(settings.getOrDefault("output", "target/loadtest-result.json"));
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.writeString(output, json);
+        System.out.println("Results written to " + output.toAbsolutePath());
+
+        return checkGates(total);
+    }
+
+    private boolean checkGates(LatencyStats.Snapshot total) {
+        var passed = true;
+        if (settings.containsKey("max-p99-ms") && total.percentileMillis(99) > number("max-p99-ms", "0")) {
+            System.err.printf(Locale.ROOT, "FAIL: p99 %.3f ms exceeds %s ms%n",
+                    total.percentileMillis(99), settings.get("max-p99-ms"));
+            passed = false;
+        }
+        if (settings.containsKey("max-error-rate") && total.errorRate() > number("max-error-rate", "0")) {
+            System.err.printf(Locale.ROOT, "FAIL: error rate %.5f exceeds %s%n",
+                    total.errorRate(), settings.get("max-error-rate"));
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static void print(String operation, LatencyStats.Snapshot snapshot, double elapsedSeconds) {
+        System.out.printf(Locale.ROOT, "%-10s %10d %8d %10.1f %10.3f %10.3f %10.3f%n",
+                operation, snapshot.count(), snapshot.errors(), snapshot.count() / elapsedSeconds,
+                snapshot.percentileMillis(50), snapshot.percentileMillis(99), snapshot.percentileMillis(99.9));
+    }
+
+    private static String pickOperation(Map<String, Integer> mix) {
+        var total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        var roll = ThreadLocalRandom.current().nextInt(total);
+        for (var entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty traffic mix");
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        return Arrays.stream(mix.split(","))
+                .map(part -> part.split("="))
+                .collect(Collectors.toMap(
+                        part -> part[0].trim(),
+                        part -> Integer.parseInt(part[1].trim()),
+                        (a, b) -> b,
+                        LinkedHashMap::new));
+    }
+
+    private Duration duration(String key, String defaultValue) {
+        return Duration.parse(settings.getOrDefault(key, defaultValue));
+    }
+
+    private double number(String key, String defaultValue) {
+        return Double.parseDouble(settings.getOrDefault(key, defaultValue));
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.currency_exchange.loadtest;
+
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Puts back the shape exchanges had while the rate was resolved inside the transaction: every exchange request
+ * runs in a transaction opened before {@code ExchangeService} looks the rate up, and the service's own
+ * transaction joins it. Hibernate disables auto-commit as the transaction begins, so the connection stays
+ * borrowed across any NBP round trip. Only registered by {@link LoadTestRunner} with {@code rate-lookup=inside-tx}.
+ */
+class RateInsideTransactionFilter extends OncePerRequestFilter {
+    private final TransactionTemplate transactionTemplate;
+
+    RateInsideTransactionFilter(TransactionTemplate transactionTemplate) {
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !("POST".equals(request.getMethod()) && request.getRequestURI().endsWith("/exchange"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try {
+                    chain.doFilter(request, response);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } catch (ServletException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                // a rejected exchange already marked the transaction; rolling back here keeps commit from failing
+                if (response.getStatus() >= 400) {
+                    status.setRollbackOnly();
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+}
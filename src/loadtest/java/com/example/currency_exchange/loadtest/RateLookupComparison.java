@@ -0,0 +1,34 @@
+package com.example.currency_exchange.loadtest;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs the same open-model exchange load with the rate resolved before the transaction opens, as
+ * {@code ExchangeService} does, and inside it, as it used to. {@link StubNbpServer} answers slowly and the rate
+ * cache expires immediately, so inside the transaction every exchange keeps a pooled connection for the whole
+ * NBP round trip. Accepts the {@link LoadTestRunner} arguments; throughput, latency and Hikari usage and acquire
+ * times go to {@code target/loadtest-before-tx.json} and {@code target/loadtest-inside-tx.json}.
+ */
+public class RateLookupComparison {
+
+    public static void main(String[] args) throws Exception {
+        var passed = true;
+        for (var rateLookup : List.of("before-tx", "inside-tx")) {
+            var settings = new HashMap<String, String>();
+            settings.put("nbp-latency", "PT0.2S");
+            settings.put("nbp-cache-ttl", "PT0S");
+            settings.put("mix", "exchange=100");
+            settings.put("rps", "200");
+            // ten connections held for 200 ms each cap the inside-tx mode at about 50 exchanges per second
+            settings.put("pool-size", "10");
+            settings.putAll(LoadTestRunner.parseArgs(args));
+            settings.put("rate-lookup", rateLookup);
+            settings.put("output", "target/loadtest-" + rateLookup + ".json");
+
+            System.out.println("== rate-lookup=" + rateLookup);
+            passed &= new LoadTestRunner(settings).run();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.currency_exchange.loadtest;
+
+import com.example.currency_exchange.CurrencyExchangeApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Cold start of the application in a fresh JVM per run: time from process launch to the first successful
+ * exchange, the startup time Spring Boot reports, and the resident set size right after that exchange.
+ * Variants are {@code default}, {@code fast-startup} (lazy initialization, deferred JPA bootstrap) and
+ * {@code fast-startup-cds} (the same plus the archive built by the {@code fast-startup} Maven profile), all on
+ * the prod profile with a fresh file database, so Flyway migrations are part of every start.
+ *
+ * <p>Arguments are {@code --key=value}: {@code variants}, {@code runs}, {@code jvm-args}, {@code output},
+ * {@code max-first-exchange-ms}. All variants share the thin class path of the {@code fast-startup} Maven
+ * profile when it was built, and this JVM's class path otherwise (then without the CDS variant).
+ * RSS is read from {@code /proc} and reported as -1 elsewhere.
+ * <pre>
+ * ./mvnw -Pfast-startup,loadtest -DskipTests verify -Dloadtest.main=com.example.currency_exchange.loadtest.StartupTimeBenchmark
+ * </pre>
+ */
+public class StartupTimeBenchmark {
+    private static final Path CDS_DIRECTORY = Path.of("target", "cds");
+    private static final Path DATA_DIRECTORY = Path.of("target", "startup-benchmark");
+    private static final Pattern STARTED = Pattern.compile("Started \\S+ in ([0-9.]+) seconds");
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(2);
+
+    private final Map<String, String> settings;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    StartupTimeBenchmark(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(new StartupTimeBenchmark(LoadTestRunner.parseArgs(args)).run() ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        var classPath = thinClassPath();
+        var archive = CDS_DIRECTORY.resolve("app.jsa");
+        var results = new LinkedHashMap<String, List<Run>>();
+        FileSystemUtils.deleteRecursively(DATA_DIRECTORY);
+        try (var stub = new StubNbpServer(Duration.ZERO, 0.0)) {
+            for (var variant : settings.getOrDefault("variants", "default,fast-startup,fast-startup-cds").split(",")) {
+                if (variant.endsWith("-cds") && (classPath == null || !Files.exists(archive))) {
+                    System.out.println("Skipping " + variant + ": build with -Pfast-startup first");
+                    continue;
+                }
+                var runs = new ArrayList<Run>();
+                for (int i = 0; i < (int) number("runs", "5"); i++) {
+                    runs.add(start(variant, i, classPath == null ? System.getProperty("java.class.path") : classPath,
+                            archive, stub));
+                }
+                results.put(variant, runs);
+            }
+        }
+        return report(results);
+    }
+
+    private Run start(String variant, int run, String classPath, Path archive, StubNbpServer stub)
+            throws IOException, InterruptedException {
+        var port = freePort();
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (settings.containsKey("jvm-args")) {
+            command.addAll(Arrays.asList(settings.get("jvm-args").split(" ")));
+        }
+        if (variant.endsWith("-cds")) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.addAll(List.of("-cp", classPath, CurrencyExchangeApplication.class.getName(),
+                "--spring.profiles.active=" + (variant.startsWith("fast-startup") ? "prod,fast-startup" : "prod"),
+                "--server.port=" + port,
+                "--spring.datasource.url=jdbc:h2:file:./" + DATA_DIRECTORY.resolve(variant + "-" + run)
+                        + "/currencydb;DB_CLOSE_ON_EXIT=FALSE",
+                "--nbp.api.url=" + stub.tableUrl(),
+                "--nbp.cache.warm-up=false",
+                "--logging.level.root=WARN",
+                // keeps the "Started ... in ... seconds" line
+                "--logging.level." + CurrencyExchangeApplication.class.getName() + "=INFO"));
+
+        var launched = System.nanoTime();
+        var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        var startedSeconds = new AtomicReference<>(-1.0);
+        var output = new Thread(() -> readOutput(process, startedSeconds), "startup-output");
+        output.setDaemon(true);
+        output.start();
+        try {
+            var baseUrl = "http://127.0.0.1:" + port;
+            var account = awaitSuccess(process, post(baseUrl + "/api/accounts",
+                    "{\"firstName\":\"Jan\",\"lastName\":\"Kowalski\",\"initialBalance\":1000}"));
+            var accountId = objectMapper.readTree(account).get("id").asText();
+            awaitSuccess(process, post(baseUrl + "/api/accounts/" + accountId + "/exchange",
+                    "{\"amount\":100,\"sourceCurrency\":\"PLN\"}"));
+            var firstExchange = System.nanoTime() - launched;
+            var result = new Run(TimeUnit.NANOSECONDS.toMillis(firstExchange), startedSeconds.get() * 1000,
+                    residentSetMegabytes(process.pid()));
+            System.out.printf(Locale.ROOT, "%-18s run %d: first exchange %6d ms, started %8.1f ms, rss %6d MB%n",
+                    variant, run, result.firstExchangeMillis, result.startedMillis, result.rssMegabytes);
+            return result;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Sends the request until it succeeds; connection failures mean the server is not listening yet.
+     */
+    private String awaitSuccess(Process process, HttpRequest request) throws IOException, InterruptedException {
+        var deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue());
+            }
+            try {
+                var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    return response.body();
+                }
+            } catch (IOException ex) {
+                // not accepting connections yet
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("No successful response within " + START_TIMEOUT);
+    }
+
+    private static HttpRequest post(String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static void readOutput(Process process, AtomicReference<Double> startedSeconds) {
+        try (var lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                var started = STARTED.matcher(line);
+                if (started.find()) {
+                    startedSeconds.set(Double.parseDouble(started.group(1)));
+                } else if (line.contains("ERROR")) {
+                    System.err.println(line);
+                }
+            }
+        } catch (IOException ex) {
+            // the process was destroyed
+        }
+    }
+
+    private static long residentSetMegabytes(long pid) {
+        var status = Path.of("/proc", String.valueOf(pid), "status");
+        try {
+            for (var line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024;
+                }
+            }
+        } catch (IOException ex) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * The thin jar plus the dependencies copied by the {@code fast-startup} Maven profile; a CDS archive only
+     * applies to the class path it was dumped with.
+     */
+    private static String thinClassPath() throws IOException {
+        var dependencies = CDS_DIRECTORY.resolve("classpath");
+        if (!Files.exists(dependencies)) {
+            return null;
+        }
+        try (var jars = Files.newDirectoryStream(Path.of("target"), "*-cds.jar")) {
+            for (var jar : jars) {
+                return jar + File.pathSeparator + Files.readString(dependencies).trim();
+            }
+        }
+        return null;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private boolean report(Map<String, List<Run>> results) throws IOException {
+        System.out.printf(Locale.ROOT, "%-18s %6s %22s %18s %10s%n",
+                "variant", "runs", "first exchange p50 ms", "started p50 ms", "rss p50 MB");
+        var json = new StringBuilder("{");
+        var passed = true;
+        var first = true;
+        for (var entry : results.entrySet()) {
+            var runs = entry.getValue();
+            var firstExchange = median(runs.stream().mapToDouble(run -> run.firstExchangeMillis).toArray());
+            var started = median(runs.stream().mapToDouble(run -> run.startedMillis).toArray());
+            var rss = median(runs.stream().mapToDouble(run -> run.rssMegabytes).toArray());
+            System.out.printf(Locale.ROOT, "%-18s %6d %22.0f %18.0f %10.0f%n",
+                    entry.getKey(), runs.size(), firstExchange, started, rss);
+            json.append(first ? "" : ",").append('"').append(entry.getKey()).append("\":")
+                    .append(String.format(Locale.ROOT,
+                            "{\"runs\":%d,\"firstExchangeMs\":%.0f,\"startedMs\":%.0f,\"rssMb\":%.0f}",
+                            runs.size(), firstExchange, started, rss));
+            first = false;
+            if (settings.containsKey("max-first-exchange-ms") && firstExchange > number("max-first-exchange-ms", "0")) {
+                System.err.printf(Locale.ROOT, "FAIL: %s first exchange %.0f ms exceeds %s ms%n",
+                        entry.getKey(), firstExchange, settings.get("max-first-exchange-ms"));
+                passed = false;
+            }
+        }
+        json.append('}');
+
+        var output = Path.of(settings.getOrDefault("output", "target/startup-result.json"));
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.writeString(output, json);
+        System.out.println("Results written to " + output.toAbsolutePath());
+        return passed;
+    }
+
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        var middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    private double number(String key, String defaultValue) {
+        return Double.parseDouble(settings.getOrDefault(key, defaultValue));
+    }
+
+    private static final class Run {
+        private final long firstExchangeMillis;
+        private final double startedMillis;
+        private final long rssMegabytes;
+
+        private Run(long firstExchangeMillis, double startedMillis, long rssMegabytes) {
+            this.firstExchangeMillis = firstExchangeMillis;
+            this.startedMillis = startedMillis;
+            this.rssMegabytes = rssMegabytes;
+        }
+    }
+}
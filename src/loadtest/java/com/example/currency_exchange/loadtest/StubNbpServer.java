@@ -0,0 +1,90 @@
+package com.example.currency_exchange.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the NBP table A endpoint with configurable latency and error rate.
+ */
+class StubNbpServer implements AutoCloseable {
+    private static final String TABLE_PATH = "/api/exchangerates/tables/A";
+    private static final String TABLE_BODY = "[{\"table\":\"A\",\"no\":\"001/A/NBP/2024\",\"effectiveDate\":\"2024-01-02\","
+            + "\"rates\":["
+            + "{\"currency\":\"dolar amerykański\",\"code\":\"USD\",\"mid\":3.9871},"
+            + "{\"currency\":\"euro\",\"code\":\"EUR\",\"mid\":4.3215},"
+            + "{\"currency\":\"funt szterling\",\"code\":\"GBP\",\"mid\":5.0612},"
+            + "{\"currency\":\"frank szwajcarski\",\"code\":\"CHF\",\"mid\":4.6834}]}]";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Duration latency;
+    private final double errorRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    StubNbpServer(Duration latency, double errorRate) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext(TABLE_PATH, this::handleTable);
+        server.start();
+    }
+
+    String tableUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + TABLE_PATH;
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getFailureCount() {
+        return failures.get();
+    }
+
+    private void handleTable(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            sleep(latency);
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            var body = TABLE_BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
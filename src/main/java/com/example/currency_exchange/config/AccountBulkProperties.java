@@ -0,0 +1,12 @@
+package com.example.currency_exchange.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "accounts.bulk")
+public class AccountBulkProperties {
+
+    private int chunkSize = 1000;
+    private int maxReportedErrors = 100;
+}
@@ -0,0 +1,15 @@
+package com.example.currency_exchange.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "accounts.cache")
+public class AccountCacheProperties {
+
+    private long maximumSize = 100_000;
+    // entries are evicted on every write, so the TTL only bounds how long writes made outside this service stay hidden
+    private Duration ttl = Duration.ofMinutes(5);
+}
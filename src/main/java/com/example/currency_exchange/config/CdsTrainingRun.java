@@ -0,0 +1,29 @@
+package com.example.currency_exchange.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code startup.training-run=true}: exits as soon as the application is ready. The {@code fast-startup} Maven
+ * profile starts the application this way to record which classes startup loads, then archives them for Class
+ * Data Sharing.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "startup.training-run", havingValue = "true")
+@RequiredArgsConstructor
+public class CdsTrainingRun {
+    private final ConfigurableApplicationContext context;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void exit() {
+        log.info("Training run complete, shutting down");
+        System.exit(SpringApplication.exit(context));
+    }
+}
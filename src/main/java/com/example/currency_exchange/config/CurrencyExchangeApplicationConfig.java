@@ -1,14 +1,69 @@
 package com.example.currency_exchange.config;
 
+import com.example.currency_exchange.service.ExchangeRateService;
+import com.example.currency_exchange.service.IdempotentExchangeService;
+import com.example.currency_exchange.service.ShardedAccountEngine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
+@EnableScheduling
+@EnableConfigurationProperties({NbpProperties.class, ExchangeProperties.class, AccountBulkProperties.class,
+        AccountCacheProperties.class})
 public class CurrencyExchangeApplicationConfig {
 
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public CloseableHttpClient nbpHttpClient(NbpProperties nbpProperties) {
+        var http = nbpProperties.getHttp();
+        var connectionManager = new PoolingHttpClientConnectionManager(
+                http.getTimeToLive().toMillis(), TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(http.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(http.getMaxConnectionsPerRoute());
+
+        var requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) http.getConnectTimeout().toMillis())
+                .setSocketTimeout((int) http.getReadTimeout().toMillis())
+                .setConnectionRequestTimeout((int) http.getConnectionRequestTimeout().toMillis())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(http.getIdleTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient nbpHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(nbpHttpClient));
+    }
+
+    @Bean
+    public Clock clock() {
+        return Clock.systemUTC();
+    }
+
+    /**
+     * Beans that work on their own schedule or must run at startup (rate warm-up, journal recovery, key
+     * cleanup) stay eager when {@code spring.main.lazy-initialization} is on; everything else is created on
+     * first use.
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter eagerBackgroundBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(ExchangeRateService.class, ShardedAccountEngine.class,
+                IdempotentExchangeService.class);
     }
 }
@@ -0,0 +1,99 @@
+package com.example.currency_exchange.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "exchange")
+public class ExchangeProperties {
+
+    // target used when a PLN exchange request names no target currency
+    private String defaultTargetCurrency = "USD";
+    private final Ledger ledger = new Ledger();
+    private final Engine engine = new Engine();
+    private final Idempotency idempotency = new Idempotency();
+
+    public enum LedgerMode {
+        /**
+         * Entry is inserted in the exchange's own transaction: it commits or rolls back with the balances.
+         */
+        SYNC,
+        /**
+         * Entry is queued after the exchange commits and written by a background group commit within
+         * {@code max-delay}. Queued entries survive a graceful shutdown but are lost if the process dies.
+         */
+        ASYNC
+    }
+
+    public enum EngineMode {
+        /**
+         * Every exchange is its own transaction that locks the account row.
+         */
+        JPA,
+        /**
+         * Exchanges are applied in memory by the account's shard and the balances written back within
+         * {@code flush-interval}. Unwritten balances survive a graceful shutdown but are lost if the process dies.
+         */
+        SHARDED
+    }
+
+    @Data
+    public static class Ledger {
+        private LedgerMode mode = LedgerMode.ASYNC;
+        private int queueCapacity = 10_000;
+        private int batchSize = 500;
+        private Duration maxDelay = Duration.ofMillis(50);
+        // how long a producer waits for queue space before writing its entry itself
+        private Duration offerTimeout = Duration.ofMillis(100);
+        // batch attempts before its entries are written one by one
+        private int maxAttempts = 3;
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        // entries that failed on their own are appended here instead of the table, counted as exchange.ledger.dropped
+        private String deadLetterFile = "ledger-dead-letters.csv";
+        private Duration shutdownTimeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Engine {
+        private EngineMode mode = EngineMode.JPA;
+        private int shards = Runtime.getRuntime().availableProcessors();
+        // exchanges waiting per shard before submitters block
+        private int queueCapacity = 10_000;
+        // accounts written back per transaction
+        private int batchSize = 500;
+        // threads reading accounts a shard does not hold yet
+        private int loaderThreads = 4;
+        // across all shards; only accounts whose balances are written back are evicted
+        private int maxResidentAccounts = 1_000_000;
+        private Duration flushInterval = Duration.ofMillis(50);
+        // write-back attempts per batch before it is written account by account
+        private int maxAttempts = 3;
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        private Duration shutdownTimeout = Duration.ofSeconds(30);
+        private final Journal journal = new Journal();
+    }
+
+    @Data
+    public static class Journal {
+        // the journal outlives the process, so it needs a database that does too
+        private boolean enabled = false;
+        private String directory = "journal";
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        // exchanges are acknowledged once forced to disk, so this bounds the fsync wait they add
+        private Duration syncInterval = Duration.ofMillis(2);
+        // bounds the log replayed on restart on top of the latest snapshot
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Idempotency {
+        // keys kept in memory; evicted ones are still found in the exchange_idempotency table
+        private long maximumSize = 100_000;
+        // how long a key replays its response; clients must not retry later than this
+        private Duration ttl = Duration.ofHours(24);
+        private Duration cleanupInterval = Duration.ofMinutes(10);
+    }
+}
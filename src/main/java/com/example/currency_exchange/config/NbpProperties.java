@@ -0,0 +1,50 @@
+package com.example.currency_exchange.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "nbp")
+public class NbpProperties {
+
+    private List<String> currencies = new ArrayList<>(List.of("USD", "EUR", "GBP", "CHF"));
+    private final Api api = new Api();
+    private final Cache cache = new Cache();
+    private final Http http = new Http();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @Data
+    public static class Api {
+        private String url = "http://api.nbp.pl/api/exchangerates/tables/A";
+    }
+
+    @Data
+    public static class Cache {
+        private Duration ttl = Duration.ofHours(1);
+        private Duration refreshAhead = Duration.ofMinutes(5);
+        private Duration maxStaleness = Duration.ofHours(4);
+        private Duration refreshInterval = Duration.ofMinutes(1);
+        private boolean warmUp = true;
+    }
+
+    @Data
+    public static class Http {
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        private Duration readTimeout = Duration.ofSeconds(5);
+        private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+        private int maxConnections = 20;
+        private int maxConnectionsPerRoute = 10;
+        private Duration idleTimeout = Duration.ofSeconds(30);
+        private Duration timeToLive = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(30);
+    }
+}
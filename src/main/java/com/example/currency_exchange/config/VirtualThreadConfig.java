@@ -0,0 +1,35 @@
+package com.example.currency_exchange.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@code execution.mode=virtual}: Tomcat runs every request, including the NBP fetch and JDBC work it
+ * blocks on, on its own virtual thread instead of a {@code server.tomcat.threads.max} sized pool.
+ * Concurrency is then bounded by {@code server.tomcat.max-connections} and the downstream pools.
+ * Requires JDK 21; startup fails on older runtimes rather than silently falling back.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "execution.mode", havingValue = "virtual")
+public class VirtualThreadConfig implements DisposableBean {
+    private final ExecutorService requestExecutor = VirtualThreads.newThreadPerTaskExecutor("http-virtual-");
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        log.info("Handling HTTP requests on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(requestExecutor);
+    }
+
+    @Override
+    public void destroy() {
+        // Tomcat only shuts down executors it created itself
+        requestExecutor.shutdown();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.currency_exchange.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reaches the JDK 21 virtual thread API reflectively, so the application still compiles for and runs on Java 11.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Executor starting one named virtual thread per task.
+     *
+     * @throws IllegalStateException if the running JDK has no virtual threads
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or newer, running on " + Runtime.version());
+        }
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            var builderType = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            var factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Unable to create a virtual thread executor", ex);
+        }
+    }
+}
@@ -3,39 +3,78 @@ package com.example.currency_exchange.controller;
 import com.example.currency_exchange.api.AccountsApi;
 import com.example.currency_exchange.exceptions.ServiceUnavailableHttpException;
 import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.BatchExchangeRequest;
+import com.example.currency_exchange.model.BatchExchangeResponse;
+import com.example.currency_exchange.model.BulkCreateAccountsResponse;
 import com.example.currency_exchange.model.CreateAccountRequest;
 import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.model.TransactionHistoryResponse;
 import com.example.currency_exchange.service.AccountService;
 import com.example.currency_exchange.service.ExchangeService;
+import com.example.currency_exchange.service.IdempotentExchangeService;
+import com.example.currency_exchange.service.TransactionHistoryService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.naming.ServiceUnavailableException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.UUID;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequiredArgsConstructor
 public class AccountController implements AccountsApi {
     private final AccountService accountService;
     private final ExchangeService exchangeService;
+    private final IdempotentExchangeService idempotentExchangeService;
+    private final TransactionHistoryService transactionHistoryService;
 
     @Override
     public ResponseEntity<AccountResponse> createAccount(CreateAccountRequest createAccountRequest) {
         return ResponseEntity.ok(accountService.createAccount(createAccountRequest));
     }
 
+    @Override
+    public ResponseEntity<BulkCreateAccountsResponse> createAccountsBulk(Resource body) {
+        try (var accounts = body.getInputStream()) {
+            return ResponseEntity.ok(accountService.createAccounts(accounts));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public ResponseEntity<AccountResponse> getAccount(UUID accountId) {
         return ResponseEntity.ok(accountService.getAccount(accountId));
     }
 
     @Override
-    public ResponseEntity<AccountResponse> exchangeCurrency(UUID accountId, ExchangeRequest request) {
+    public ResponseEntity<TransactionHistoryResponse> getAccountTransactions(UUID accountId, Integer limit, String cursor) {
+        return ResponseEntity.ok(transactionHistoryService.getTransactions(accountId, limit, cursor));
+    }
+
+    @Override
+    public ResponseEntity<AccountResponse> exchangeCurrency(UUID accountId, ExchangeRequest request, String idempotencyKey) {
         try {
+            if (idempotencyKey != null) {
+                return ResponseEntity.ok(idempotentExchangeService.exchangeCurrency(idempotencyKey, accountId, request));
+            }
             return ResponseEntity.ok(exchangeService.exchangeCurrency(accountId, request));
         } catch (ServiceUnavailableException e) {
             throw new ServiceUnavailableHttpException(e.getMessage());
         }
     }
+
+    @Override
+    public ResponseEntity<BatchExchangeResponse> exchangeCurrencyBatch(BatchExchangeRequest request) {
+        try {
+            return ResponseEntity.ok(exchangeService.exchangeCurrencyBatch(request));
+        } catch (ServiceUnavailableException e) {
+            throw new ServiceUnavailableHttpException(e.getMessage());
+        }
+    }
 }
@@ -3,10 +3,13 @@ package com.example.currency_exchange.exceptions;
 import com.example.currency_exchange.model.ErrorResponse;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
 
+import javax.validation.ConstraintViolationException;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -32,6 +35,55 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
     }
 
+    @ExceptionHandler(InvalidExchangeException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidExchange(InvalidExchangeException ex) {
+        var error = new ErrorResponse()
+                .code("VALIDATION_ERROR")
+                .message("Invalid exchange request")
+                .details(Collections.singletonList(ex.getMessage()));
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidCursor(InvalidCursorException ex) {
+        var error = new ErrorResponse()
+                .code("VALIDATION_ERROR")
+                .message("Invalid pagination cursor")
+                .details(Collections.singletonList(ex.getMessage()));
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<ErrorResponse> handleIdempotencyKeyReused(IdempotencyKeyReusedException ex) {
+        var error = new ErrorResponse()
+                .code("IDEMPOTENCY_KEY_REUSED")
+                .message("Idempotency key already used")
+                .details(Collections.singletonList(ex.getMessage()));
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(error);
+    }
+
+    @ExceptionHandler(IdempotencyKeyPendingException.class)
+    public ResponseEntity<ErrorResponse> handleIdempotencyKeyPending(IdempotencyKeyPendingException ex) {
+        var error = new ErrorResponse()
+                .code("IDEMPOTENCY_KEY_PENDING")
+                .message("Outcome of the exchange with this idempotency key is not known")
+                .details(Collections.singletonList(ex.getMessage()));
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+    }
+
+    @ExceptionHandler(ConstraintViolationException.class)
+    public ResponseEntity<ErrorResponse> handleConstraintViolation(ConstraintViolationException ex) {
+        var errorMessages = ex.getConstraintViolations().stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .collect(Collectors.toList());
+
+        var error = new ErrorResponse()
+                .code("VALIDATION_ERROR")
+                .message("Invalid request parameters")
+                .details(errorMessages);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
+    }
+
     @ExceptionHandler(ServiceUnavailableHttpException.class)
     public ResponseEntity<ErrorResponse> handleServiceUnavailable(ServiceUnavailableHttpException ex) {
         var error = new ErrorResponse()
@@ -43,7 +95,17 @@ public class GlobalExceptionHandler {
 
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ErrorResponse> handleServiceUnavailable(MethodArgumentNotValidException ex) {
-        var errorMessages = ex.getBindingResult().getFieldErrors().stream()
+        return invalidRequestParameters(ex.getBindingResult());
+    }
+
+    // WebFlux reports request body violations with its own exception type
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidReactiveRequest(WebExchangeBindException ex) {
+        return invalidRequestParameters(ex.getBindingResult());
+    }
+
+    private static ResponseEntity<ErrorResponse> invalidRequestParameters(BindingResult bindingResult) {
+        var errorMessages = bindingResult.getFieldErrors().stream()
                 .map(error -> error.getField() + " " + error.getDefaultMessage())
                 .collect(Collectors.toList());
 
@@ -0,0 +1,7 @@
+package com.example.currency_exchange.exceptions;
+
+public class IdempotencyKeyPendingException extends RuntimeException {
+    public IdempotencyKeyPendingException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.currency_exchange.exceptions;
+
+public class InvalidExchangeException extends RuntimeException {
+    public InvalidExchangeException(String message) {
+        super(message);
+    }
+}
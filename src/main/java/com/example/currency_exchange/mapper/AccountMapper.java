@@ -2,8 +2,15 @@ package com.example.currency_exchange.mapper;
 
 import com.example.currency_exchange.model.Account;
 import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import com.example.currency_exchange.model.ExchangeTransaction;
+import com.example.currency_exchange.model.PricingSnapshot;
+import com.example.currency_exchange.service.RateSnapshot;
 import org.springframework.stereotype.Component;
 
+import java.time.ZoneOffset;
+import java.util.HashMap;
+
 @Component
 public class AccountMapper {
 
@@ -12,8 +19,30 @@ public class AccountMapper {
         response.setId(account.getId());
         response.setFirstName(account.getFirstName());
         response.setLastName(account.getLastName());
-        response.setPlnBalance(account.getPlnBalance());
-        response.setUsdBalance(account.getUsdBalance());
+        response.setBalances(new HashMap<>(account.getBalances()));
+        response.setPlnBalance(account.getBalance(Account.BASE_CURRENCY));
+        response.setUsdBalance(account.getBalance("USD"));
         return response;
     }
-}
\ No newline at end of file
+
+    public PricingSnapshot toPricingSnapshot(RateSnapshot snapshot) {
+        return new PricingSnapshot()
+                .version(snapshot.getVersion())
+                .tableNo(snapshot.getTableNo())
+                .effectiveDate(snapshot.getEffectiveDate());
+    }
+
+    public ExchangeTransaction toTransaction(ExchangeLedgerEntry entry) {
+        return new ExchangeTransaction()
+                .id(entry.getId())
+                .sourceCurrency(entry.getSourceCurrency())
+                .sourceAmount(entry.getSourceAmount())
+                .targetCurrency(entry.getTargetCurrency())
+                .targetAmount(entry.getTargetAmount())
+                .sourceRate(entry.getSourceRate())
+                .targetRate(entry.getTargetRate())
+                .snapshotVersion(entry.getSnapshotVersion())
+                .tableNo(entry.getTableNo())
+                .createdAt(entry.getCreatedAt().atOffset(ZoneOffset.UTC));
+    }
+}
@@ -1,32 +1,82 @@
 package com.example.currency_exchange.model;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.BatchSize;
+import org.springframework.data.domain.Persistable;
 
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 @Entity
 @Data
 @NoArgsConstructor
-public class Account {
+public class Account implements Persistable<UUID> {
 
+    // initial deposits are made in PLN, the currency NBP quotes every other rate against
+    public static final String BASE_CURRENCY = "PLN";
+
+    // binary(16) as in the migrations: H2 2.x pads the binary(255) Hibernate would generate
     @Id
-    @GeneratedValue
+    @Column(length = 16)
     private UUID id;
 
     private String firstName;
     private String lastName;
-    private BigDecimal plnBalance;
-    private BigDecimal usdBalance;
+
+    // one row per (account, currency) so new currencies need no schema change
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "account_balance", joinColumns = @JoinColumn(name = "account_id", columnDefinition = "binary(16)"))
+    @MapKeyColumn(name = "currency", length = 3)
+    @Column(name = "amount", precision = 19, scale = 2)
+    @BatchSize(size = 50)
+    private Map<String, BigDecimal> balances = new HashMap<>();
+
+    // ids are assigned client-side, so Spring Data cannot tell new accounts apart by a null id
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean newEntity = true;
 
     public Account(String firstName, String lastName, BigDecimal initialPlnBalance) {
+        this.id = UUID.randomUUID();
         this.firstName = firstName;
         this.lastName = lastName;
-        this.plnBalance = initialPlnBalance;
-        this.usdBalance = BigDecimal.ZERO;
+        this.balances.put(BASE_CURRENCY, initialPlnBalance);
+    }
+
+    public BigDecimal getBalance(String currency) {
+        return balances.getOrDefault(currency, BigDecimal.ZERO);
+    }
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        newEntity = false;
     }
 }
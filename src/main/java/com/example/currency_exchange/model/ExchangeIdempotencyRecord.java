@@ -0,0 +1,68 @@
+package com.example.currency_exchange.model;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Response of an exchange made with an {@code Idempotency-Key}, replayed to retries carrying the same key.
+ * Without a response the key is only reserved: its exchange is being applied, or its outcome is unknown.
+ */
+@Entity
+@Immutable
+@Table(name = "exchange_idempotency", indexes = {
+        // expired keys are deleted by creation time
+        @Index(name = "ix_exchange_idempotency_created", columnList = "created_at")
+})
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public class ExchangeIdempotencyRecord implements Persistable<String> {
+
+    @Id
+    @Column(name = "idempotency_key", length = 64)
+    private String key;
+
+    // account and request the key was first used for; a retry has to match it
+    @Column(name = "fingerprint", length = 32, nullable = false)
+    private String fingerprint;
+
+    // AccountResponse as JSON; null while reserved
+    @Lob
+    @Column(name = "response")
+    private String response;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    public ExchangeIdempotencyRecord(String key, String fingerprint, String response, Instant createdAt) {
+        this.key = key;
+        this.fingerprint = fingerprint;
+        this.response = response;
+        this.createdAt = createdAt;
+    }
+
+    public boolean isReserved() {
+        return response == null;
+    }
+
+    @Override
+    public String getId() {
+        return key;
+    }
+
+    // records are only inserted, so save() can persist without selecting the key first
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.currency_exchange.model;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One applied exchange. Rows are only ever inserted, so the entity is immutable and skips dirty checking.
+ */
+@Entity
+@Immutable
+@Table(name = "exchange_ledger", indexes = {
+        // per-account history in time order; id breaks ties between entries with the same timestamp
+        @Index(name = "ix_exchange_ledger_account_created", columnList = "account_id, created_at, id"),
+        @Index(name = "ix_exchange_ledger_created", columnList = "created_at")
+})
+@Getter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public class ExchangeLedgerEntry {
+
+    // a pooled sequence hands out ids in blocks, so inserts need no identity round trip and can be batched
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "exchange_ledger_seq")
+    @SequenceGenerator(name = "exchange_ledger_seq", sequenceName = "exchange_ledger_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "account_id", length = 16, nullable = false)
+    private UUID accountId;
+
+    @Column(name = "source_currency", length = 3, nullable = false)
+    private String sourceCurrency;
+
+    @Column(name = "source_amount", precision = 19, scale = 2, nullable = false)
+    private BigDecimal sourceAmount;
+
+    @Column(name = "target_currency", length = 3, nullable = false)
+    private String targetCurrency;
+
+    @Column(name = "target_amount", precision = 19, scale = 2, nullable = false)
+    private BigDecimal targetAmount;
+
+    @Column(name = "source_rate", precision = 19, scale = 6, nullable = false)
+    private BigDecimal sourceRate;
+
+    @Column(name = "target_rate", precision = 19, scale = 6, nullable = false)
+    private BigDecimal targetRate;
+
+    @Column(name = "snapshot_version", nullable = false)
+    private long snapshotVersion;
+
+    @Column(name = "table_no", length = 32)
+    private String tableNo;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    public ExchangeLedgerEntry(UUID accountId,
+                               String sourceCurrency, BigDecimal sourceAmount,
+                               String targetCurrency, BigDecimal targetAmount,
+                               BigDecimal sourceRate, BigDecimal targetRate,
+                               long snapshotVersion, String tableNo, Instant createdAt) {
+        this.accountId = accountId;
+        this.sourceCurrency = sourceCurrency;
+        this.sourceAmount = sourceAmount;
+        this.targetCurrency = targetCurrency;
+        this.targetAmount = targetAmount;
+        this.sourceRate = sourceRate;
+        this.targetRate = targetRate;
+        this.snapshotVersion = snapshotVersion;
+        this.tableNo = tableNo;
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.model.Account;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface AccountBatchRepository {
+
+    /**
+     * Applies balance transfers with JDBC batches, in list order per account.
+     * A transfer is skipped when it would make the debited balance negative;
+     * a credited balance row is created the first time a currency is received.
+     *
+     * @return per-transfer row counts, {@code 0} where the debited balance is missing or insufficient
+     */
+    int[] applyTransfers(List<BalanceTransfer> transfers);
+
+    /**
+     * Overwrites the stored balances of existing accounts with JDBC batches; a balance row is created
+     * for every currency not stored yet. Balances missing from an account are left untouched.
+     */
+    void saveBalances(Collection<Account> accounts);
+
+    /**
+     * Persists new accounts so Hibernate can group them into JDBC insert batches,
+     * then detaches them to keep the persistence context small across chunks.
+     */
+    void insertAll(List<Account> accounts);
+}
@@ -0,0 +1,177 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.model.Account;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class AccountBatchRepositoryImpl implements AccountBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int[] applyTransfers(List<BalanceTransfer> transfers) {
+        var results = new int[transfers.size()];
+        if (transfers.isEmpty()) {
+            return results;
+        }
+        // a JDBC batch cannot see its own effects, so each wave holds at most one transfer per account
+        var waves = new ArrayList<List<Integer>>();
+        var transfersPerAccount = new HashMap<UUID, Integer>();
+        for (int i = 0; i < transfers.size(); i++) {
+            var wave = transfersPerAccount.merge(transfers.get(i).getAccountId(), 1, Integer::sum) - 1;
+            if (wave == waves.size()) {
+                waves.add(new ArrayList<>());
+            }
+            waves.get(wave).add(i);
+        }
+
+        entityManager.flush();
+        var session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        var sql = new BalanceSql(balancesPersister(session), session);
+
+        session.doWork(connection -> {
+            try (var debit = connection.prepareStatement(sql.debit);
+                 var credit = connection.prepareStatement(sql.credit);
+                 var insert = connection.prepareStatement(sql.insert)) {
+                for (var wave : waves) {
+                    for (var i : wave) {
+                        var transfer = transfers.get(i);
+                        debit.setBigDecimal(1, transfer.getDebit());
+                        sql.bindBalanceKey(debit, 2, transfer.getAccountId(), transfer.getDebitCurrency());
+                        debit.setBigDecimal(4, transfer.getDebit());
+                        debit.addBatch();
+                    }
+                    var debited = debit.executeBatch();
+
+                    var credited = new ArrayList<BalanceTransfer>();
+                    for (int j = 0; j < wave.size(); j++) {
+                        if (debited[j] > 0) {
+                            var transfer = transfers.get(wave.get(j));
+                            results[wave.get(j)] = 1;
+                            credit.setBigDecimal(1, transfer.getCredit());
+                            sql.bindBalanceKey(credit, 2, transfer.getAccountId(), transfer.getCreditCurrency());
+                            credit.addBatch();
+                            credited.add(transfer);
+                        }
+                    }
+                    if (credited.isEmpty()) {
+                        continue;
+                    }
+                    var creditCounts = credit.executeBatch();
+                    var inserts = 0;
+                    for (int k = 0; k < credited.size(); k++) {
+                        if (creditCounts[k] == 0) {
+                            var transfer = credited.get(k);
+                            sql.bindBalanceKey(insert, 1, transfer.getAccountId(), transfer.getCreditCurrency());
+                            insert.setBigDecimal(3, transfer.getCredit());
+                            insert.addBatch();
+                            inserts++;
+                        }
+                    }
+                    if (inserts > 0) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+        });
+        // entities loaded before the batch no longer reflect the stored balances
+        entityManager.clear();
+        return results;
+    }
+
+    @Override
+    public void saveBalances(Collection<Account> accounts) {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        entityManager.flush();
+        var session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        var sql = new BalanceSql(balancesPersister(session), session);
+
+        session.doWork(connection -> {
+            try (var update = connection.prepareStatement(sql.set);
+                 var insert = connection.prepareStatement(sql.insert)) {
+                var balances = new ArrayList<Map.Entry<UUID, Map.Entry<String, BigDecimal>>>();
+                for (var account : accounts) {
+                    for (var balance : account.getBalances().entrySet()) {
+                        update.setBigDecimal(1, balance.getValue());
+                        sql.bindBalanceKey(update, 2, account.getId(), balance.getKey());
+                        update.addBatch();
+                        balances.add(Map.entry(account.getId(), balance));
+                    }
+                }
+                var updated = update.executeBatch();
+                var inserts = 0;
+                for (int i = 0; i < balances.size(); i++) {
+                    if (updated[i] == 0) {
+                        var balance = balances.get(i);
+                        sql.bindBalanceKey(insert, 1, balance.getKey(), balance.getValue().getKey());
+                        insert.setBigDecimal(3, balance.getValue().getValue());
+                        insert.addBatch();
+                        inserts++;
+                    }
+                }
+                if (inserts > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+        entityManager.clear();
+    }
+
+    @Override
+    public void insertAll(List<Account> accounts) {
+        for (var account : accounts) {
+            entityManager.persist(account);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    // table, column names and key binding come from the mapping, so the SQL follows the dialect's UUID type
+    private static AbstractCollectionPersister balancesPersister(SharedSessionContractImplementor session) {
+        return (AbstractCollectionPersister) session.getFactory().getMetamodel()
+                .collectionPersister(Account.class.getName() + ".balances");
+    }
+
+    private static class BalanceSql {
+        private final AbstractCollectionPersister persister;
+        private final SharedSessionContractImplementor session;
+        private final String debit;
+        private final String credit;
+        private final String set;
+        private final String insert;
+
+        BalanceSql(AbstractCollectionPersister persister, SharedSessionContractImplementor session) {
+            this.persister = persister;
+            this.session = session;
+            var table = persister.getTableName();
+            var accountId = persister.getKeyColumnNames()[0];
+            var currency = persister.getIndexColumnNames()[0];
+            var amount = persister.getElementColumnNames()[0];
+            var key = " where " + accountId + " = ? and " + currency + " = ?";
+            debit = "update " + table + " set " + amount + " = " + amount + " - ?" + key + " and " + amount + " >= ?";
+            credit = "update " + table + " set " + amount + " = " + amount + " + ?" + key;
+            set = "update " + table + " set " + amount + " = ?" + key;
+            insert = "insert into " + table + " (" + accountId + ", " + currency + ", " + amount + ") values (?, ?, ?)";
+        }
+
+        void bindBalanceKey(PreparedStatement statement, int index, UUID accountId, String currency) throws SQLException {
+            persister.getKeyType().nullSafeSet(statement, accountId, index, session);
+            statement.setString(index + 1, currency);
+        }
+    }
+}
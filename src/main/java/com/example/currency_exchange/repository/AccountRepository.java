@@ -2,13 +2,32 @@ package com.example.currency_exchange.repository;
 
 import com.example.currency_exchange.model.Account;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
-public interface AccountRepository extends JpaRepository<Account, UUID> {
+public interface AccountRepository extends JpaRepository<Account, UUID>, AccountBatchRepository {
 
     Optional<Account> findById(UUID accountId);
+
+    // an exchange touches two balance rows; locking the account row first serializes
+    // exchanges per account, so two transfers can never take the balance rows in opposite order
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from Account a where a.id = :accountId")
+    Optional<Account> findByIdForUpdate(@Param("accountId") UUID accountId);
+
+    @Query("select a.id from Account a where a.id in :accountIds")
+    List<UUID> findExistingIds(@Param("accountIds") Collection<UUID> accountIds);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from Account a where a.id in :accountIds order by a.id")
+    List<Account> findAllByIdForUpdate(@Param("accountIds") Collection<UUID> accountIds);
 }
@@ -0,0 +1,15 @@
+package com.example.currency_exchange.repository;
+
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+@Value
+public class BalanceTransfer {
+    UUID accountId;
+    String debitCurrency;
+    BigDecimal debit;
+    String creditCurrency;
+    BigDecimal credit;
+}
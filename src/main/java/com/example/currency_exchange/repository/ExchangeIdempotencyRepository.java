@@ -0,0 +1,38 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.model.ExchangeIdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+@Repository
+public interface ExchangeIdempotencyRepository extends JpaRepository<ExchangeIdempotencyRecord, String> {
+
+    // bulk delete through ix_exchange_idempotency_created, without loading the rows
+    @Transactional
+    @Modifying
+    @Query("delete from ExchangeIdempotencyRecord r where r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") Instant cutoff);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ExchangeIdempotencyRecord r where r.key = :key and r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("key") String key, @Param("cutoff") Instant cutoff);
+
+    // records are immutable entities, so the response of a reserved key is set in SQL
+    @Transactional
+    @Modifying
+    @Query(value = "update exchange_idempotency set response = :response "
+            + "where idempotency_key = :key and response is null", nativeQuery = true)
+    int recordResponse(@Param("key") String key, @Param("response") String response);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ExchangeIdempotencyRecord r where r.key = :key and r.response is null")
+    int deleteReserved(@Param("key") String key);
+}
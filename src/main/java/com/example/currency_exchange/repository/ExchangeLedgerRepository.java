@@ -0,0 +1,29 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ExchangeLedgerRepository extends JpaRepository<ExchangeLedgerEntry, Long> {
+
+    List<ExchangeLedgerEntry> findByAccountIdOrderByCreatedAtAscIdAsc(UUID accountId);
+
+    // both history queries walk ix_exchange_ledger_account_created backwards and stop after the page size
+    List<ExchangeLedgerEntry> findByAccountIdOrderByCreatedAtDescIdDesc(UUID accountId, Pageable page);
+
+    @Query("select e from ExchangeLedgerEntry e where e.accountId = :accountId"
+            + " and (e.createdAt < :createdAt or (e.createdAt = :createdAt and e.id < :id))"
+            + " order by e.createdAt desc, e.id desc")
+    List<ExchangeLedgerEntry> findByAccountIdBefore(@Param("accountId") UUID accountId,
+                                                    @Param("createdAt") Instant createdAt,
+                                                    @Param("id") long id,
+                                                    Pageable page);
+}
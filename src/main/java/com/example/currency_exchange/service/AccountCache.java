@@ -0,0 +1,96 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.AccountCacheProperties;
+import com.example.currency_exchange.model.AccountResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of account views, bounded by size and TTL.
+ * <p>
+ * Writers evict after their transaction completes. A load runs atomically per key, so an eviction
+ * waits for any in-flight load of the same account and no load that read the old balances can
+ * repopulate the entry afterwards. Once an exchange has returned, every read sees its balances.
+ */
+@Component
+public class AccountCache {
+    private final Cache<UUID, AccountResponse> cache;
+
+    public AccountCache(AccountCacheProperties properties, MeterRegistry registry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+        // cache.gets{result=hit|miss}, cache.evictions, cache.size, ...
+        CaffeineCacheMetrics.monitor(registry, cache, "accounts");
+    }
+
+    public AccountResponse get(UUID accountId, Function<UUID, AccountResponse> loader) {
+        // responses are mutable, so neither the caller nor the loader may hold the cached instance
+        return copy(cache.get(accountId, id -> copy(loader.apply(id))));
+    }
+
+    /**
+     * Caches the view of an account created in the current transaction once that transaction commits.
+     */
+    public void put(AccountResponse account) {
+        var cached = copy(account);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.put(cached.getId(), cached);
+                }
+            });
+        } else {
+            cache.put(cached.getId(), cached);
+        }
+    }
+
+    public void evict(UUID accountId) {
+        evictAll(List.of(accountId));
+    }
+
+    /**
+     * Evicts the accounts once the current transaction completes; evicting earlier would let a
+     * concurrent read cache balances that are about to change.
+     */
+    public void evictAll(Collection<UUID> accountIds) {
+        if (accountIds.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll(accountIds);
+                }
+            });
+        } else {
+            cache.invalidateAll(accountIds);
+        }
+    }
+
+    private static AccountResponse copy(AccountResponse account) {
+        var copy = new AccountResponse();
+        copy.setId(account.getId());
+        copy.setFirstName(account.getFirstName());
+        copy.setLastName(account.getLastName());
+        copy.setBalances(account.getBalances() == null ? null : new HashMap<>(account.getBalances()));
+        copy.setPlnBalance(account.getPlnBalance());
+        copy.setUsdBalance(account.getUsdBalance());
+        return copy;
+    }
+}
@@ -1,22 +1,45 @@
 package com.example.currency_exchange.service;
 
+import com.example.currency_exchange.config.AccountBulkProperties;
 import com.example.currency_exchange.exceptions.ResourceNotFoundException;
 import com.example.currency_exchange.mapper.AccountMapper;
 import com.example.currency_exchange.model.Account;
 import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.BulkCreateAccountsResponse;
 import com.example.currency_exchange.model.CreateAccountRequest;
 import com.example.currency_exchange.repository.AccountRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class AccountService {
     private final AccountRepository accountRepository;
     private final AccountMapper accountMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final AccountBulkProperties bulkProperties;
+    private final AccountCache accountCache;
+    private final ShardedAccountEngine engine;
 
     @Transactional
     public AccountResponse createAccount(CreateAccountRequest request) {
@@ -26,12 +49,77 @@ public class AccountService {
                 request.getInitialBalance()
         );
         var savedAccount = accountRepository.save(account);
-        return accountMapper.toResponse(savedAccount);
+        var response = accountMapper.toResponse(savedAccount);
+        accountCache.put(response);
+        return response;
+    }
+
+    public BulkCreateAccountsResponse createAccounts(InputStream body) throws IOException {
+        var startedAt = System.nanoTime();
+        var report = new BulkCreateAccountsResponse().created(0L).rejected(0L).errors(new ArrayList<>());
+        var requestReader = objectMapper.readerFor(CreateAccountRequest.class);
+        var chunk = new ArrayList<Account>(bulkProperties.getChunkSize());
+
+        try (var lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            var lineNumber = 0L;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                CreateAccountRequest request;
+                try {
+                    request = requestReader.readValue(line);
+                } catch (JsonProcessingException ex) {
+                    reject(report, lineNumber, List.of("malformed JSON"));
+                    continue;
+                }
+                var violations = validator.validate(request);
+                if (!violations.isEmpty()) {
+                    reject(report, lineNumber, violations.stream()
+                            .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                            .collect(Collectors.toList()));
+                    continue;
+                }
+                chunk.add(new Account(request.getFirstName(), request.getLastName(), request.getInitialBalance()));
+                if (chunk.size() >= bulkProperties.getChunkSize()) {
+                    insertChunk(chunk, report);
+                }
+            }
+        }
+        insertChunk(chunk, report);
+
+        var elapsedNanos = System.nanoTime() - startedAt;
+        var elapsedSeconds = Math.max(elapsedNanos, 1L) / (double) TimeUnit.SECONDS.toNanos(1);
+        report.elapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .accountsPerSecond(report.getCreated() / elapsedSeconds);
+        log.info("Bulk created {} accounts ({} rejected) in {} ms",
+                report.getCreated(), report.getRejected(), report.getElapsedMillis());
+        return report;
     }
 
     public AccountResponse getAccount(UUID accountId) {
-        var account = accountRepository.findById(accountId)
-                .orElseThrow(() -> new ResourceNotFoundException("Account not found"));
-        return accountMapper.toResponse(account);
+        // balances applied by the engine may not have been written back yet
+        return accountCache.get(accountId, id -> engine.find(id)
+                .or(() -> accountRepository.findById(id))
+                .map(accountMapper::toResponse)
+                .orElseThrow(() -> new ResourceNotFoundException("Account not found")));
+    }
+
+    private void insertChunk(List<Account> chunk, BulkCreateAccountsResponse report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> accountRepository.insertAll(chunk));
+        report.created(report.getCreated() + chunk.size());
+        chunk.clear();
+    }
+
+    private void reject(BulkCreateAccountsResponse report, long lineNumber, List<String> reasons) {
+        report.rejected(report.getRejected() + 1);
+        if (report.getErrors().size() < bulkProperties.getMaxReportedErrors()) {
+            report.addErrorsItem("line " + lineNumber + ": " + String.join(", ", reasons));
+        }
     }
-}
\ No newline at end of file
+}
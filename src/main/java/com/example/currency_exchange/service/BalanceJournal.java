@@ -0,0 +1,554 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.model.Account;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the accounts published by {@link ShardedAccountEngine}. Each shard appends every account
+ * it changes, with all of its balances, to its own memory-mapped log; one sync thread forces the logs every
+ * {@code sync-interval} and only then acknowledges what was appended, so concurrent exchanges share an fsync.
+ * A failed force fails every unacknowledged record of that log, and the log rejects appends until its shard has
+ * rolled those accounts back and called {@link #resume(int)}: a page that failed to sync may be gone, so forcing
+ * it again would acknowledge records that are not on disk.
+ * <p>
+ * Records hold absolute balances, so the last record of an account wins however often older ones are replayed.
+ * That lets a snapshot run next to the shard: it notes the position of the last record the shard has published,
+ * copies the shard's published accounts, and a restart loads the snapshot and replays the log from that position.
+ * Records appended but not yet published are left to the replay, as the copy may not hold them. Log segments
+ * before the latest snapshot are deleted, so a restart reads one snapshot plus at most {@code snapshot-interval} of
+ * log per shard.
+ * <p>
+ * Each start replays the previous generations and opens a new one seeded with a snapshot of the result, so the
+ * shard count may change between runs.
+ */
+@Slf4j
+final class BalanceJournal {
+    private static final Pattern SEGMENT = Pattern.compile("journal-(\\d+)-(\\d+)-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)-(\\d+)-(\\d+)\\.snap");
+    private static final int SNAPSHOT_MAGIC = 0x42414c53;
+    // length and CRC32 of the payload
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    private final ExchangeProperties.Journal properties;
+    private final Path directory;
+    private final int segmentSize;
+    private final Object snapshotSignal = new Object();
+    private long generation;
+    private ShardLog[] logs;
+    private volatile boolean running;
+    private Thread syncThread;
+    private Thread snapshotThread;
+
+    BalanceJournal(ExchangeProperties.Journal properties) {
+        this.properties = properties;
+        this.directory = Path.of(properties.getDirectory());
+        this.segmentSize = Math.toIntExact(properties.getSegmentSize().toBytes());
+    }
+
+    /**
+     * Replays every journal in the directory and opens a new generation with {@code shards} logs, each seeded
+     * with a snapshot of the recovered accounts that {@code shardOf} assigns to it.
+     *
+     * @return the latest recovered state of every journaled account
+     */
+    Map<UUID, Account> recover(int shards, ToIntFunction<UUID> shardOf) throws IOException {
+        var startedAt = System.nanoTime();
+        Files.createDirectories(directory);
+        var files = new TreeMap<Long, List<Path>>();
+        try (var listing = Files.list(directory)) {
+            for (var file : listing.collect(Collectors.toList())) {
+                var name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // a snapshot that never completed; the log it was taken from is still there
+                    Files.delete(file);
+                    continue;
+                }
+                var segment = SEGMENT.matcher(name);
+                var snapshot = SNAPSHOT.matcher(name);
+                if (segment.matches()) {
+                    files.computeIfAbsent(Long.parseLong(segment.group(1)), g -> new ArrayList<>()).add(file);
+                } else if (snapshot.matches()) {
+                    files.computeIfAbsent(Long.parseLong(snapshot.group(1)), g -> new ArrayList<>()).add(file);
+                }
+            }
+        }
+        var accounts = new HashMap<UUID, Account>();
+        // a later generation started from everything an earlier one held, so its records win
+        for (var generationFiles : files.values()) {
+            replayGeneration(generationFiles, accounts);
+        }
+        generation = files.isEmpty() ? 1 : files.lastKey() + 1;
+
+        logs = new ShardLog[shards];
+        var perShard = new ArrayList<List<Account>>(shards);
+        for (int i = 0; i < shards; i++) {
+            logs[i] = new ShardLog(i);
+            perShard.add(new ArrayList<>());
+        }
+        for (var account : accounts.values()) {
+            perShard.get(shardOf.applyAsInt(account.getId())).add(account);
+        }
+        for (int i = 0; i < shards; i++) {
+            snapshot(logs[i], 0, perShard.get(i));
+        }
+        // only now is the new generation complete on its own
+        for (var generationFiles : files.values()) {
+            for (var file : generationFiles) {
+                Files.deleteIfExists(file);
+            }
+        }
+        log.info("Recovered {} accounts from the journal in {} ms",
+                accounts.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        return accounts;
+    }
+
+    /**
+     * Starts the sync and snapshot threads; {@code accountsOf} returns the live accounts of a shard.
+     */
+    void start(IntFunction<Collection<Account>> accountsOf) {
+        running = true;
+        syncThread = new Thread(this::syncLoop, "journal-sync");
+        syncThread.start();
+        snapshotThread = new Thread(() -> snapshotLoop(accountsOf), "journal-snapshot");
+        snapshotThread.start();
+    }
+
+    /**
+     * Appends the account's new state to the shard's log; must only be called from the shard's thread.
+     *
+     * @return completed with the log position after the record once it has been forced to disk, or failed if
+     * forcing the log failed
+     */
+    CompletableFuture<Long> append(int shard, Account account) {
+        try {
+            return logs[shard].append(account);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Appending to journal " + shard + " failed", ex);
+        }
+    }
+
+    /**
+     * Notes that the shard has published every record up to {@code position}; snapshots replay the log from there.
+     */
+    void published(int shard, long position) {
+        var shardLog = logs[shard];
+        shardLog.published = Math.max(shardLog.published, position);
+    }
+
+    /**
+     * Accepts appends to the shard's log again after a failed force; must only be called from the shard's thread.
+     */
+    void resume(int shard) {
+        logs[shard].resume();
+    }
+
+    /**
+     * Stops the background threads after acknowledging everything appended so far.
+     */
+    void close() throws InterruptedException {
+        if (syncThread == null) {
+            return;
+        }
+        running = false;
+        synchronized (snapshotSignal) {
+            snapshotSignal.notifyAll();
+        }
+        snapshotThread.join();
+        syncThread.join();
+        syncAll();
+    }
+
+    /**
+     * Deletes the journal once its balances are stored elsewhere; the next start then recovers nothing.
+     */
+    void delete() throws IOException {
+        try (var listing = Files.list(directory)) {
+            for (var file : listing.collect(Collectors.toList())) {
+                var name = file.getFileName().toString();
+                if (SEGMENT.matcher(name).matches() || SNAPSHOT.matcher(name).matches()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    void snapshotAll(IntFunction<Collection<Account>> accountsOf) throws IOException {
+        for (var shardLog : logs) {
+            // read before the copy: every record up to here is already in the accounts it sees
+            var from = shardLog.published;
+            snapshot(shardLog, from, accountsOf.apply(shardLog.shard));
+        }
+    }
+
+    private void syncLoop() {
+        var interval = properties.getSyncInterval().toNanos();
+        while (running) {
+            LockSupport.parkNanos(interval);
+            syncAll();
+        }
+    }
+
+    private void syncAll() {
+        for (var shardLog : logs) {
+            shardLog.sync();
+        }
+    }
+
+    private void snapshotLoop(IntFunction<Collection<Account>> accountsOf) {
+        var interval = properties.getSnapshotInterval().toMillis();
+        while (running) {
+            synchronized (snapshotSignal) {
+                try {
+                    snapshotSignal.wait(interval);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                snapshotAll(accountsOf);
+            } catch (IOException | RuntimeException ex) {
+                log.error("Journal snapshot failed, the log is kept until the next one succeeds", ex);
+            }
+        }
+    }
+
+    private void snapshot(ShardLog shardLog, long from, Collection<Account> accounts) throws IOException {
+        // records from here on are replayed over the snapshot, including ones the copy below already saw
+        var file = directory.resolve("snapshot-" + generation + "-" + shardLog.shard + "-" + from + ".snap");
+        var tmp = directory.resolve(file.getFileName() + ".tmp");
+        var record = new RecordBytes();
+        var crc = new CRC32();
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(from);
+            for (var account : accounts) {
+                record.encode(account);
+                crc.reset();
+                crc.update(record.array(), 0, record.size());
+                out.writeInt(record.size());
+                out.writeInt((int) crc.getValue());
+                out.write(record.array(), 0, record.size());
+            }
+            out.writeInt(0);
+        }
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        // the shard publishes an account only once its record is acknowledged, so the copy holds nothing newer
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        try (var listing = Files.list(directory)) {
+            for (var existing : listing.collect(Collectors.toList())) {
+                var name = existing.getFileName().toString();
+                var segment = SEGMENT.matcher(name);
+                var snapshot = SNAPSHOT.matcher(name);
+                if (segment.matches() && isOwn(segment.group(1), segment.group(2), shardLog)
+                        && (Long.parseLong(segment.group(3)) + 1) * segmentSize <= from) {
+                    Files.delete(existing);
+                } else if (snapshot.matches() && isOwn(snapshot.group(1), snapshot.group(2), shardLog)
+                        && Long.parseLong(snapshot.group(3)) < from) {
+                    Files.delete(existing);
+                }
+            }
+        }
+    }
+
+    private boolean isOwn(String generationGroup, String shardGroup, ShardLog shardLog) {
+        return Long.parseLong(generationGroup) == generation && Integer.parseInt(shardGroup) == shardLog.shard;
+    }
+
+    private void replayGeneration(List<Path> generationFiles, Map<UUID, Account> accounts) throws IOException {
+        var segments = new TreeMap<Integer, TreeMap<Long, Path>>();
+        var snapshots = new HashMap<Integer, Path>();
+        var snapshotPositions = new HashMap<Integer, Long>();
+        for (var file : generationFiles) {
+            var name = file.getFileName().toString();
+            var segment = SEGMENT.matcher(name);
+            var snapshot = SNAPSHOT.matcher(name);
+            if (segment.matches()) {
+                segments.computeIfAbsent(Integer.parseInt(segment.group(2)), s -> new TreeMap<>())
+                        .put(Long.parseLong(segment.group(3)), file);
+            } else if (snapshot.matches()) {
+                var shard = Integer.parseInt(snapshot.group(2));
+                var position = Long.parseLong(snapshot.group(3));
+                if (position >= snapshotPositions.getOrDefault(shard, -1L)) {
+                    snapshots.put(shard, file);
+                    snapshotPositions.put(shard, position);
+                }
+            }
+        }
+        for (var snapshot : snapshots.values()) {
+            readSnapshot(snapshot, accounts);
+        }
+        for (var shardSegments : segments.entrySet()) {
+            var from = snapshotPositions.getOrDefault(shardSegments.getKey(), 0L);
+            for (var segment : shardSegments.getValue().entrySet()) {
+                replaySegment(segment.getValue(), segment.getKey(), from, accounts);
+            }
+        }
+    }
+
+    private static void readSnapshot(Path file, Map<UUID, Account> accounts) throws IOException {
+        var crc = new CRC32();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a journal snapshot: " + file);
+            }
+            in.readLong();
+            int length;
+            while ((length = in.readInt()) > 0) {
+                var checksum = in.readInt();
+                var payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    // snapshots are fsynced before they are renamed into place, so this is not a torn write
+                    throw new IOException("Corrupt journal snapshot " + file);
+                }
+                var account = decode(payload);
+                accounts.put(account.getId(), account);
+            }
+        } catch (EOFException ex) {
+            throw new IOException("Truncated journal snapshot " + file, ex);
+        }
+    }
+
+    private static void replaySegment(Path file, long index, long from, Map<UUID, Account> accounts) throws IOException {
+        MappedByteBuffer segment;
+        long base;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the run that wrote the segment may have used another segment size
+            base = index * channel.size();
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        var crc = new CRC32();
+        while (segment.remaining() >= RECORD_HEADER) {
+            var start = base + segment.position();
+            var length = segment.getInt();
+            var checksum = segment.getInt();
+            // zeroes mark the unused end of a segment; a bad length or checksum is a record torn by a crash
+            if (length <= 0 || length > segment.remaining()) {
+                break;
+            }
+            var payload = new byte[length];
+            segment.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Journal {} ends with a torn record at {}", file, start);
+                break;
+            }
+            if (start >= from) {
+                var account = decode(payload);
+                accounts.put(account.getId(), account);
+            }
+        }
+    }
+
+    private static Account decode(byte[] payload) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(payload));
+        var account = new Account();
+        account.setId(new UUID(in.readLong(), in.readLong()));
+        account.setFirstName(in.readUTF());
+        account.setLastName(in.readUTF());
+        var balances = in.readUnsignedByte();
+        for (int i = 0; i < balances; i++) {
+            var currency = in.readUTF();
+            var scale = in.readInt();
+            var unscaled = new byte[in.readUnsignedByte()];
+            in.readFully(unscaled);
+            account.getBalances().put(currency, new BigDecimal(new BigInteger(unscaled), scale));
+        }
+        return account;
+    }
+
+    private void syncDirectory() throws IOException {
+        // makes the new file name itself durable
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int shard, long index) throws IOException {
+        var file = directory.resolve("journal-" + generation + "-" + shard + "-" + index + ".log");
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping outlives the channel; the file is zero-filled up to segment-size
+            var segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            syncDirectory();
+            return segment;
+        }
+    }
+
+    /**
+     * One shard's log. The shard thread appends and rolls segments; the sync thread forces and acknowledges.
+     */
+    private final class ShardLog {
+        private final int shard;
+        private final RecordBytes record = new RecordBytes();
+        private final CRC32 crc = new CRC32();
+        private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+        private volatile MappedByteBuffer segment;
+        private long segmentIndex;
+        // positions count bytes across segments: index * segment-size + offset in the segment
+        private volatile long written;
+        private volatile long synced;
+        // only the shard thread advances it
+        private volatile long published;
+        private volatile boolean failed;
+        private RuntimeException failure;
+
+        private ShardLog(int shard) throws IOException {
+            this.shard = shard;
+            this.segment = mapSegment(shard, 0);
+        }
+
+        CompletableFuture<Long> append(Account account) throws IOException {
+            if (failed) {
+                throw new IOException("Journal " + shard + " failed to sync, waiting for the shard to roll back");
+            }
+            record.encode(account);
+            var length = RECORD_HEADER + record.size();
+            if (length > segmentSize) {
+                throw new IOException("Journal record of " + length + " bytes exceeds the segment size");
+            }
+            if (segment.remaining() < length) {
+                roll();
+            }
+            crc.reset();
+            crc.update(record.array(), 0, record.size());
+            segment.putInt(record.size());
+            segment.putInt((int) crc.getValue());
+            segment.put(record.array(), 0, record.size());
+            // published after the segment, so the sync thread never pairs a position with an older segment
+            var position = segmentIndex * segmentSize + segment.position();
+            written = position;
+            var durable = new CompletableFuture<Long>();
+            waiters.add(new Waiter(position, durable));
+            return durable;
+        }
+
+        synchronized void sync() {
+            var target = written;
+            if (!failed && target > synced) {
+                try {
+                    segment.force();
+                    synced = target;
+                } catch (RuntimeException ex) {
+                    fail(ex);
+                }
+            }
+            Waiter waiter;
+            while ((waiter = waiters.peek()) != null && (failed || waiter.getPosition() <= synced)) {
+                waiters.poll();
+                if (failed) {
+                    waiter.getDurable().completeExceptionally(failure);
+                } else {
+                    waiter.getDurable().complete(waiter.getPosition());
+                }
+            }
+        }
+
+        synchronized void resume() {
+            failed = false;
+            failure = null;
+        }
+
+        private synchronized void fail(RuntimeException ex) {
+            log.error("Forcing journal {} failed, failing its unacknowledged records", shard, ex);
+            failure = new IllegalStateException("Forcing journal " + shard + " failed", ex);
+            failed = true;
+        }
+
+        private void roll() throws IOException {
+            // earlier segments are never forced again, so this one must be complete on disk first
+            try {
+                segment.force();
+            } catch (RuntimeException ex) {
+                fail(ex);
+                throw ex;
+            }
+            var next = mapSegment(shard, segmentIndex + 1);
+            segmentIndex++;
+            segment = next;
+        }
+    }
+
+    @Value
+    private static class Waiter {
+        long position;
+        CompletableFuture<Long> durable;
+    }
+
+    /**
+     * Reusable encoding buffer: id, names, then each balance as currency, scale and unscaled two's complement.
+     */
+    private static final class RecordBytes extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        RecordBytes() {
+            super(256);
+        }
+
+        void encode(Account account) throws IOException {
+            reset();
+            data.writeLong(account.getId().getMostSignificantBits());
+            data.writeLong(account.getId().getLeastSignificantBits());
+            data.writeUTF(account.getFirstName());
+            data.writeUTF(account.getLastName());
+            data.writeByte(account.getBalances().size());
+            for (var balance : account.getBalances().entrySet()) {
+                data.writeUTF(balance.getKey());
+                data.writeInt(balance.getValue().scale());
+                var unscaled = balance.getValue().unscaledValue().toByteArray();
+                data.writeByte(unscaled.length);
+                data.write(unscaled);
+            }
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.config.ExchangeProperties.LedgerMode;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import com.example.currency_exchange.repository.ExchangeLedgerRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes ledger entries either inside the exchange's transaction or, in {@link LedgerMode#ASYNC} mode,
+ * through a bounded queue drained by one writer thread that commits many entries per transaction.
+ * When the queue stays full for {@code offer-timeout}, the producer writes its entry itself, so a slow
+ * database slows exchanges down instead of dropping entries. A batch that still fails after
+ * {@code max-attempts} is written entry by entry, so one bad entry cannot stall the writer behind it.
+ * Entries that fail on their own are dropped from the table, counted and appended to
+ * {@code dead-letter-file} as CSV in the column order of {@code exchange_ledger}, from which they can be
+ * loaded once the cause is fixed.
+ */
+@Slf4j
+@Component
+public class ExchangeLedgerWriter {
+    private static final String DEAD_LETTER_HEADER = "account_id,source_currency,source_amount,target_currency,"
+            + "target_amount,source_rate,target_rate,snapshot_version,table_no,created_at";
+
+    private final ExchangeLedgerRepository ledgerRepository;
+    private final ExchangeProperties.Ledger properties;
+    // afterCommit callbacks still see the finished transaction, so writes from there need a new one
+    private final TransactionTemplate requiresNew;
+    private final BlockingQueue<ExchangeLedgerEntry> queue;
+    private final Counter directWrites;
+    private final DistributionSummary batchSizes;
+    private final Counter dropped;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final Object progress = new Object();
+    private long written;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public ExchangeLedgerWriter(ExchangeLedgerRepository ledgerRepository,
+                                PlatformTransactionManager transactionManager,
+                                ExchangeProperties exchangeProperties,
+                                MeterRegistry registry) {
+        this.ledgerRepository = ledgerRepository;
+        this.properties = exchangeProperties.getLedger();
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        Gauge.builder("exchange.ledger.queue", queue, BlockingQueue::size)
+                .description("Ledger entries waiting for the background writer")
+                .register(registry);
+        this.directWrites = Counter.builder("exchange.ledger.direct.writes")
+                .description("Ledger entries written by the producer because the queue was full")
+                .register(registry);
+        this.batchSizes = DistributionSummary.builder("exchange.ledger.batch")
+                .description("Ledger entries committed per background transaction")
+                .register(registry);
+        this.dropped = Counter.builder("exchange.ledger.dropped")
+                .description("Ledger entries missing from the table after every write attempt failed")
+                .register(registry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (properties.getMode() != LedgerMode.ASYNC) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::drain, "ledger-writer");
+        writerThread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writerThread == null) {
+            return;
+        }
+        running = false;
+        writerThread.join(properties.getShutdownTimeout().toMillis());
+        if (writerThread.isAlive()) {
+            log.error("Ledger writer did not finish within {}, {} entries not written",
+                    properties.getShutdownTimeout(), queue.size());
+        }
+    }
+
+    public void record(ExchangeLedgerEntry entry) {
+        recordAll(List.of(entry));
+    }
+
+    public void recordAll(List<ExchangeLedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (properties.getMode() == LedgerMode.SYNC) {
+            ledgerRepository.saveAll(entries);
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // a rolled back exchange must leave no entry behind
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(entries);
+                }
+            });
+        } else {
+            enqueue(entries);
+        }
+    }
+
+    /**
+     * Waits until every entry queued before this call has been committed.
+     *
+     * @return {@code false} if the timeout elapsed first
+     */
+    public boolean flush(Duration timeout) throws InterruptedException {
+        var target = enqueued.get();
+        var deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (progress) {
+            while (written < target) {
+                var remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private void enqueue(List<ExchangeLedgerEntry> entries) {
+        for (var entry : entries) {
+            if (running && offer(entry)) {
+                enqueued.incrementAndGet();
+            } else {
+                directWrites.increment();
+                requiresNew.executeWithoutResult(status -> ledgerRepository.save(entry));
+            }
+        }
+    }
+
+    private boolean offer(ExchangeLedgerEntry entry) {
+        try {
+            return queue.offer(entry, properties.getOfferTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void drain() {
+        var batch = new ArrayList<ExchangeLedgerEntry>(properties.getBatchSize());
+        var maxDelay = properties.getMaxDelay().toNanos();
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(maxDelay, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // group commit: give the batch up to max-delay to fill so one transaction covers many exchanges
+                var deadline = System.nanoTime() + maxDelay;
+                while (batch.size() < properties.getBatchSize()) {
+                    queue.drainTo(batch, properties.getBatchSize() - batch.size());
+                    var remaining = deadline - System.nanoTime();
+                    if (batch.size() >= properties.getBatchSize() || remaining <= 0 || !running) {
+                        break;
+                    }
+                    var next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                running = false;
+                queue.drainTo(batch);
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                // a fresh list, so whoever saved the last one never sees it change afterwards
+                batch = new ArrayList<>(properties.getBatchSize());
+            }
+        }
+    }
+
+    private void writeBatch(List<ExchangeLedgerEntry> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                requiresNew.executeWithoutResult(status -> ledgerRepository.saveAll(batch));
+                batchSizes.record(batch.size());
+                markWritten(batch.size());
+                return;
+            } catch (RuntimeException ex) {
+                if (attempt >= properties.getMaxAttempts() || !running) {
+                    log.error("Writing {} ledger entries failed {} times, writing them one by one",
+                            batch.size(), attempt, ex);
+                    break;
+                }
+                log.error("Writing {} ledger entries failed, retrying in {}",
+                        batch.size(), properties.getRetryBackoff(), ex);
+                sleep(properties.getRetryBackoff());
+            }
+        }
+        // isolates the entries that keep the batch from committing
+        var deadLetters = new ArrayList<ExchangeLedgerEntry>();
+        for (var entry : batch) {
+            try {
+                requiresNew.executeWithoutResult(status -> ledgerRepository.save(entry));
+            } catch (RuntimeException ex) {
+                dropped.increment();
+                log.error("Dead letter ledger entry: account {}, {} {} -> {} {}, snapshot {} ({}), created at {}",
+                        entry.getAccountId(), entry.getSourceAmount(), entry.getSourceCurrency(),
+                        entry.getTargetAmount(), entry.getTargetCurrency(), entry.getSnapshotVersion(),
+                        entry.getTableNo(), entry.getCreatedAt(), ex);
+                deadLetters.add(entry);
+            }
+        }
+        if (!deadLetters.isEmpty()) {
+            spill(deadLetters);
+        }
+        markWritten(batch.size());
+    }
+
+    private void spill(List<ExchangeLedgerEntry> deadLetters) {
+        var file = Path.of(properties.getDeadLetterFile());
+        var lines = new ArrayList<String>(deadLetters.size() + 1);
+        if (Files.notExists(file)) {
+            lines.add(DEAD_LETTER_HEADER);
+        }
+        for (var entry : deadLetters) {
+            lines.add(entry.getAccountId() + "," + entry.getSourceCurrency() + "," + entry.getSourceAmount()
+                    + "," + entry.getTargetCurrency() + "," + entry.getTargetAmount() + "," + entry.getSourceRate()
+                    + "," + entry.getTargetRate() + "," + entry.getSnapshotVersion()
+                    + "," + (entry.getTableNo() == null ? "" : entry.getTableNo()) + "," + entry.getCreatedAt());
+        }
+        try {
+            var parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            // the log lines above are all that is left of them
+            log.error("Appending {} dead letter ledger entries to {} failed", deadLetters.size(), file, ex);
+        }
+    }
+
+    private void markWritten(int count) {
+        synchronized (progress) {
+            written += count;
+            progress.notifyAll();
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.currency_exchange.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+@Component
+public class ExchangeMetrics {
+
+    public enum Stage {
+        RATE_LOOKUP("rate_lookup"),
+        ACCOUNT_LOAD("account_load"),
+        // only rejected exchanges: the balance check of an applied one is the conditional UPDATE timed as SAVE
+        REJECTION("rejection"),
+        ARITHMETIC("arithmetic"),
+        SAVE("save"),
+        LEDGER("ledger"),
+        MAPPING("mapping");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Timer upstreamSuccess;
+    private final Timer upstreamFailure;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter staleServed;
+    private final Counter coalesced;
+    private final Counter shortCircuited;
+
+    public ExchangeMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (var stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("exchange.stage")
+                    .description("Time spent in each stage of the exchange pipeline")
+                    .tag("stage", stage.tag)
+                    .register(registry));
+        }
+        upstreamSuccess = upstreamTimer("success", registry);
+        upstreamFailure = upstreamTimer("failure", registry);
+        cacheHits = cacheCounter("hit", registry);
+        cacheMisses = cacheCounter("miss", registry);
+        staleServed = cacheCounter("stale", registry);
+        coalesced = Counter.builder("nbp.requests.coalesced")
+                .description("Rate lookups that joined an in-flight NBP request")
+                .register(registry);
+        shortCircuited = Counter.builder("nbp.requests.short.circuited")
+                .description("Rate lookups rejected by the open NBP circuit breaker")
+                .register(registry);
+    }
+
+    public <T> T time(Stage stage, Supplier<T> work) {
+        return stageTimers.get(stage).record(work);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void stop(Timer.Sample sample, Stage stage) {
+        sample.stop(stageTimers.get(stage));
+    }
+
+    public void stopUpstream(Timer.Sample sample, boolean success) {
+        sample.stop(success ? upstreamSuccess : upstreamFailure);
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void staleServed() {
+        staleServed.increment();
+    }
+
+    public void coalesced() {
+        coalesced.increment();
+    }
+
+    public void shortCircuited() {
+        shortCircuited.increment();
+    }
+
+    private static Timer upstreamTimer(String outcome, MeterRegistry registry) {
+        return Timer.builder("nbp.requests")
+                .description("Latency of NBP rate API calls")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static Counter cacheCounter(String result, MeterRegistry registry) {
+        return Counter.builder("nbp.rate.cache")
+                .description("Exchange rate cache lookups")
+                .tag("result", result)
+                .register(registry);
+    }
+}
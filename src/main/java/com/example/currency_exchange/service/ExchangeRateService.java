@@ -1,38 +1,222 @@
 package com.example.currency_exchange.service;
 
-import com.example.currency_exchange.dto.ExchangeRateResponse;
-import com.example.currency_exchange.model.CurrencyEnum;
+import com.example.currency_exchange.config.NbpProperties;
+import com.example.currency_exchange.model.Account;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import javax.naming.ServiceUnavailableException;
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ExchangeRateService {
-    private static final String NBP_API_URL = "http://api.nbp.pl/api/exchangerates/rates/A/%s";
     private final RestTemplate restTemplate;
+    private final NbpProperties nbpProperties;
+    private final Clock clock;
+    private final NbpCircuitBreaker circuitBreaker;
+    private final ExchangeMetrics metrics;
+    // one table carries every rate, so a single reference swap publishes all of them at once
+    private final AtomicReference<RateSnapshot> currentSnapshot = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<RateSnapshot>> inFlightFetch = new AtomicReference<>();
+    private final AtomicLong upstreamRequests = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
 
-    @Cacheable(value = "exchangeRates", key = "#currencyEnum")
-    public BigDecimal getCurrentRate(CurrencyEnum currencyEnum) throws ServiceUnavailableException {
+    /**
+     * Mid rate of the currency in PLN; the base currency itself is always {@code 1}.
+     */
+    public BigDecimal getCurrentRate(String currency) throws ServiceUnavailableException {
+        if (Account.BASE_CURRENCY.equals(currency)) {
+            return BigDecimal.ONE;
+        }
+        return getRate(getCurrentSnapshot(), currency);
+    }
+
+    /**
+     * Mid rate of the currency taken from the given snapshot, so several lookups can share one consistent table.
+     */
+    public static BigDecimal getRate(RateSnapshot snapshot, String currency) throws ServiceUnavailableException {
+        var mid = snapshot.getMid(currency);
+        if (mid == null) {
+            throw new ServiceUnavailableException("NBP table has no rate for " + currency);
+        }
+        return mid;
+    }
+
+    /**
+     * Latest published snapshot; readers never lock, they only read the current reference.
+     */
+    public RateSnapshot getCurrentSnapshot() throws ServiceUnavailableException {
+        var cached = currentSnapshot.get();
+        var now = clock.instant();
+        if (cached != null && cached.isFresh(now)) {
+            metrics.cacheHit();
+            return cached;
+        }
+        metrics.cacheMiss();
+        try {
+            return refreshSnapshot(cached);
+        } catch (ServiceUnavailableException ex) {
+            if (cached != null && isWithinStalenessWindow(cached, now)) {
+                log.warn("Serving stale NBP table {} fetched at {}", cached.getTableNo(), cached.getFetchedAt());
+                metrics.staleServed();
+                return cached;
+            }
+            throw ex;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${nbp.cache.refresh-interval:PT1M}")
+    public void refreshExpiringRates() {
+        var cached = currentSnapshot.get();
+        var refreshThreshold = clock.instant().plus(nbpProperties.getCache().getRefreshAhead());
+        if (cached != null && !refreshThreshold.isBefore(cached.getExpiresAt())) {
+            tryRefreshSnapshot();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpRates() {
+        if (!nbpProperties.getCache().isWarmUp()) {
+            return;
+        }
+        tryRefreshSnapshot();
+    }
+
+    public boolean isSupported(String currency) {
+        return Account.BASE_CURRENCY.equals(currency) || nbpProperties.getCurrencies().contains(currency);
+    }
+
+    public Set<String> getSupportedCurrencies() {
+        var currencies = new LinkedHashSet<String>();
+        currencies.add(Account.BASE_CURRENCY);
+        currencies.addAll(nbpProperties.getCurrencies());
+        return currencies;
+    }
+
+    public void evictAll() {
+        currentSnapshot.set(null);
+    }
+
+    public long getUpstreamRequestCount() {
+        return upstreamRequests.get();
+    }
+
+    public long getCoalescedRequestCount() {
+        return coalescedRequests.get();
+    }
+
+    private void tryRefreshSnapshot() {
+        try {
+            refreshSnapshot(currentSnapshot.get());
+        } catch (ServiceUnavailableException ex) {
+            log.warn("Background refresh of NBP table failed: {}", ex.getMessage());
+        }
+    }
+
+    private RateSnapshot refreshSnapshot(RateSnapshot seen) throws ServiceUnavailableException {
+        var fetch = new CompletableFuture<RateSnapshot>();
+        var inFlight = inFlightFetch.compareAndExchange(null, fetch);
+        if (inFlight != null) {
+            coalescedRequests.incrementAndGet();
+            metrics.coalesced();
+            return awaitFetch(inFlight);
+        }
+        try {
+            var current = currentSnapshot.get();
+            if (current != null && current != seen && current.isFresh(clock.instant())) {
+                // another fetch completed between our read and claiming the slot
+                fetch.complete(current);
+                return current;
+            }
+            upstreamRequests.incrementAndGet();
+            var table = fetchTable();
+            var fetchedAt = clock.instant();
+            var snapshot = new RateSnapshot(table.getVersion(), table, fetchedAt,
+                    fetchedAt.plus(nbpProperties.getCache().getTtl()));
+            currentSnapshot.set(snapshot);
+            fetch.complete(snapshot);
+            return snapshot;
+        } catch (ServiceUnavailableException | RuntimeException ex) {
+            fetch.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightFetch.compareAndSet(fetch, null);
+        }
+    }
+
+    private RateSnapshot awaitFetch(CompletableFuture<RateSnapshot> inFlight) throws ServiceUnavailableException {
+        try {
+            return inFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for NBP API response");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ServiceUnavailableException) {
+                throw (ServiceUnavailableException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    private boolean isWithinStalenessWindow(RateSnapshot cached, Instant now) {
+        return now.isBefore(cached.getExpiresAt().plus(nbpProperties.getCache().getMaxStaleness()));
+    }
+
+    private RateTable fetchTable() throws ServiceUnavailableException {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            metrics.shortCircuited();
+            throw new ServiceUnavailableException("NBP API circuit breaker is open");
+        }
+        var sample = metrics.start();
         try {
-            var url = String.format(NBP_API_URL, currencyEnum.name());
-            var response = restTemplate.getForObject(url, ExchangeRateResponse.class);
-            if (response == null || response.getRates() == null || response.getRates().isEmpty()) {
-                log.error("Exchange rate response is null or empty!");
+            var table = restTemplate.execute(
+                    nbpProperties.getApi().getUrl(),
+                    HttpMethod.GET,
+                    request -> request.getHeaders().setAccept(List.of(MediaType.APPLICATION_JSON)),
+                    response -> NbpTableParser.parse(response.getBody()));
+            if (table == null || table.getMids().isEmpty()) {
+                log.error("Exchange rate table is null or empty!");
+                circuitBreaker.recordFailure();
+                metrics.stopUpstream(sample, false);
                 throw new ServiceUnavailableException("Unable to get exchange rate from NBP API");
             }
-            return response.getRates().get(0).getMid();
+            circuitBreaker.recordSuccess();
+            metrics.stopUpstream(sample, true);
+            return table;
         } catch (RestClientException ex) {
             log.error("NBP API request failed", ex);
+            circuitBreaker.recordFailure();
+            metrics.stopUpstream(sample, false);
             throw new ServiceUnavailableException("NBP API service is unavailable");
+        } catch (RuntimeException ex) {
+            // thrown by the parser inside the extractor, e.g. a malformed date or rate; without recording it a
+            // half-open trial call would leave the breaker half-open for good
+            log.error("NBP API returned an unreadable table", ex);
+            circuitBreaker.recordFailure();
+            metrics.stopUpstream(sample, false);
+            throw new ServiceUnavailableException("NBP API returned an unreadable table");
         }
     }
 }
-
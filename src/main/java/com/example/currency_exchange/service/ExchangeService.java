@@ -1,20 +1,44 @@
 package com.example.currency_exchange.service;
 
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.exceptions.InsufficientBalanceException;
+import com.example.currency_exchange.exceptions.InvalidExchangeException;
 import com.example.currency_exchange.exceptions.ResourceNotFoundException;
 import com.example.currency_exchange.mapper.AccountMapper;
 import com.example.currency_exchange.model.Account;
 import com.example.currency_exchange.model.AccountResponse;
-import com.example.currency_exchange.model.CurrencyEnum;
+import com.example.currency_exchange.model.BatchExchangeItem;
+import com.example.currency_exchange.model.BatchExchangeRequest;
+import com.example.currency_exchange.model.BatchExchangeResponse;
+import com.example.currency_exchange.model.BatchExchangeResult;
+import com.example.currency_exchange.model.ErrorResponse;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
 import com.example.currency_exchange.model.ExchangeRequest;
 import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.BalanceTransfer;
+import com.example.currency_exchange.service.ExchangeMetrics.Stage;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.naming.ServiceUnavailableException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -23,32 +47,335 @@ public class ExchangeService {
     private final ExchangeRateService exchangeRateService;
     private final AccountBalanceValidator balanceValidator;
     private final AccountMapper accountMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ExchangeMetrics metrics;
+    private final ExchangeProperties exchangeProperties;
+    private final ExchangeLedgerWriter ledgerWriter;
+    private final AccountCache accountCache;
+    private final ShardedAccountEngine engine;
+    private final Clock clock;
 
-    @Transactional
     public AccountResponse exchangeCurrency(UUID accountId, ExchangeRequest request) throws ServiceUnavailableException {
-        var account = accountRepository.findById(accountId)
-                .orElseThrow(() -> new ResourceNotFoundException("Account not found"));
+        return exchangeCurrency(accountId, request, response -> { });
+    }
 
+    /**
+     * Exchanges and hands the response to {@code onApplied} before returning it. On the JPA engine the callback
+     * runs inside the exchange's transaction, so whatever it writes commits or rolls back with the balances.
+     */
+    public AccountResponse exchangeCurrency(UUID accountId, ExchangeRequest request,
+                                            Consumer<AccountResponse> onApplied) throws ServiceUnavailableException {
+        var sourceCurrency = request.getSourceCurrency();
+        var targetCurrency = resolveTargetCurrency(sourceCurrency, request.getTargetCurrency());
+        // resolve the rates before opening the transaction so a slow NBP call never holds a DB connection
+        var snapshot = lookupSnapshot();
+        var sourceRate = ExchangeRateService.getRate(snapshot, sourceCurrency);
+        var targetRate = ExchangeRateService.getRate(snapshot, targetCurrency);
         var amount = request.getAmount();
-        var sourceCurrency = CurrencyEnum.valueOf(request.getSourceCurrency().name());
-        balanceValidator.validateBalance(account, amount, sourceCurrency);
-
-        var rate = exchangeRateService.getCurrentRate(CurrencyEnum.USD);
-        var updatedAccount = performExchange(account, amount, sourceCurrency, rate);
-        var savedAccount = accountRepository.save(updatedAccount);
-        return accountMapper.toResponse(savedAccount);
-    }
-
-    private Account performExchange(Account account, BigDecimal amount, CurrencyEnum sourceCurrencyEnum, BigDecimal rate) {
-        if (sourceCurrencyEnum == CurrencyEnum.PLN) {
-            var usdAmount = amount.divide(rate, 2, RoundingMode.HALF_UP);
-            account.setPlnBalance(account.getPlnBalance().subtract(amount));
-            account.setUsdBalance(account.getUsdBalance().add(usdAmount));
-        } else {
-            var plnAmount = amount.multiply(rate).setScale(2, RoundingMode.HALF_UP);
-            account.setUsdBalance(account.getUsdBalance().subtract(amount));
-            account.setPlnBalance(account.getPlnBalance().add(plnAmount));
-        }
-        return account;
+        var converted = metrics.time(Stage.ARITHMETIC,
+                () -> convert(amount, snapshot, sourceCurrency, targetCurrency));
+        var transfer = new BalanceTransfer(accountId, sourceCurrency, amount, targetCurrency, converted);
+        var ledgerEntry = toLedgerEntry(transfer, sourceRate, targetRate, snapshot, clock.instant());
+        if (engine.isEnabled()) {
+            var response = applyExchangeInEngine(transfer, ledgerEntry, snapshot);
+            onApplied.accept(response);
+            return response;
+        }
+        return transactionTemplate.execute(status -> {
+            var response = applyExchange(transfer, ledgerEntry, snapshot);
+            onApplied.accept(response);
+            return response;
+        });
+    }
+
+    private AccountResponse applyExchangeInEngine(BalanceTransfer transfer, ExchangeLedgerEntry ledgerEntry, RateSnapshot snapshot) {
+        // the account's shard loads, validates and updates it; the balances are written back later
+        var account = metrics.time(Stage.SAVE, () -> engine.exchange(transfer));
+        metrics.time(Stage.LEDGER, () -> {
+            ledgerWriter.record(ledgerEntry);
+            return null;
+        });
+        accountCache.evict(transfer.getAccountId());
+        return metrics.time(Stage.MAPPING, () -> accountMapper.toResponse(account)
+                .pricedWith(accountMapper.toPricingSnapshot(snapshot)));
+    }
+
+    private AccountResponse applyExchange(BalanceTransfer transfer, ExchangeLedgerEntry ledgerEntry, RateSnapshot snapshot) {
+        var account = metrics.time(Stage.ACCOUNT_LOAD, () -> accountRepository.findByIdForUpdate(transfer.getAccountId()))
+                .orElseThrow(() -> new ResourceNotFoundException("Account not found"));
+        // the debit is a conditional UPDATE, so the balance can never go negative
+        var updated = metrics.time(Stage.SAVE, () -> accountRepository.applyTransfers(List.of(transfer)))[0];
+        if (updated == 0) {
+            metrics.time(Stage.REJECTION, () -> {
+                balanceValidator.validateBalance(account, transfer.getDebit(), transfer.getDebitCurrency());
+                return null;
+            });
+            // no debited balance row yet, e.g. a currency the account never held
+            throw new InsufficientBalanceException("Insufficient " + transfer.getDebitCurrency() + " balance");
+        }
+        // registered in this transaction, so a rolled back exchange never leaves a ledger entry
+        metrics.time(Stage.LEDGER, () -> {
+            ledgerWriter.record(ledgerEntry);
+            return null;
+        });
+        accountCache.evict(transfer.getAccountId());
+        // the account row is still locked, so the loaded balances plus this transfer are what is stored
+        apply(account, transfer);
+        return metrics.time(Stage.MAPPING, () -> accountMapper.toResponse(account)
+                .pricedWith(accountMapper.toPricingSnapshot(snapshot)));
+    }
+
+    public BatchExchangeResponse exchangeCurrencyBatch(BatchExchangeRequest request) throws ServiceUnavailableException {
+        var items = request.getItems();
+        var targetCurrencies = new ArrayList<String>(items.size());
+        var invalidItems = new HashMap<Integer, String>();
+        var currencies = new LinkedHashSet<String>();
+        for (int i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            try {
+                var targetCurrency = resolveTargetCurrency(item.getSourceCurrency(), item.getTargetCurrency());
+                targetCurrencies.add(targetCurrency);
+                currencies.add(item.getSourceCurrency());
+                currencies.add(targetCurrency);
+            } catch (InvalidExchangeException ex) {
+                targetCurrencies.add(null);
+                invalidItems.put(i, ex.getMessage());
+            }
+        }
+        // every item is priced from the same snapshot, even if a refresh publishes a new one meanwhile
+        var snapshot = lookupSnapshot();
+        var rates = new HashMap<String, BigDecimal>();
+        for (var currency : currencies) {
+            rates.put(currency, ExchangeRateService.getRate(snapshot, currency));
+        }
+        var response = engine.isEnabled()
+                ? applyBatchInEngine(items, targetCurrencies, invalidItems, rates, snapshot)
+                : transactionTemplate.execute(status -> applyBatch(items, targetCurrencies, invalidItems, rates, snapshot));
+        return response.pricedWith(accountMapper.toPricingSnapshot(snapshot));
+    }
+
+    private BatchExchangeResponse applyBatch(List<BatchExchangeItem> items,
+                                             List<String> targetCurrencies,
+                                             Map<Integer, String> invalidItems,
+                                             Map<String, BigDecimal> rates,
+                                             RateSnapshot snapshot) {
+        var requestedIds = new HashSet<UUID>();
+        for (int i = 0; i < items.size(); i++) {
+            if (!invalidItems.containsKey(i)) {
+                requestedIds.add(items.get(i).getAccountId());
+            }
+        }
+        // locking in id order keeps concurrent batches touching the same accounts from deadlocking
+        var existingIds = metrics.time(Stage.ACCOUNT_LOAD, () -> requestedIds.isEmpty()
+                        ? List.<Account>of()
+                        : accountRepository.findAllByIdForUpdate(requestedIds)).stream()
+                .map(Account::getId)
+                .collect(Collectors.toSet());
+
+        var applicable = new ArrayList<Integer>();
+        for (int i = 0; i < items.size(); i++) {
+            if (!invalidItems.containsKey(i) && existingIds.contains(items.get(i).getAccountId())) {
+                applicable.add(i);
+            }
+        }
+        var transfers = metrics.time(Stage.ARITHMETIC, () -> applicable.stream()
+                .map(i -> toTransfer(items.get(i), targetCurrencies.get(i), snapshot))
+                .collect(Collectors.toList()));
+        var counts = metrics.time(Stage.SAVE, () -> accountRepository.applyTransfers(transfers));
+
+        var applied = new HashSet<Integer>();
+        var updatedIds = new HashSet<UUID>();
+        var ledgerEntries = new ArrayList<ExchangeLedgerEntry>();
+        var now = clock.instant();
+        for (int j = 0; j < applicable.size(); j++) {
+            if (counts[j] > 0) {
+                var transfer = transfers.get(j);
+                applied.add(applicable.get(j));
+                updatedIds.add(transfer.getAccountId());
+                ledgerEntries.add(toLedgerEntry(transfer, rates.get(transfer.getDebitCurrency()),
+                        rates.get(transfer.getCreditCurrency()), snapshot, now));
+            }
+        }
+        metrics.time(Stage.LEDGER, () -> {
+            ledgerWriter.recordAll(ledgerEntries);
+            return null;
+        });
+        accountCache.evictAll(updatedIds);
+        var updatedAccounts = metrics.time(Stage.MAPPING, () -> accountRepository.findAllById(updatedIds).stream()
+                .collect(Collectors.toMap(Account::getId, accountMapper::toResponse)));
+        return toBatchResponse(items, applied, invalidItems, existingIds, updatedAccounts);
+    }
+
+    private BatchExchangeResponse applyBatchInEngine(List<BatchExchangeItem> items,
+                                                     List<String> targetCurrencies,
+                                                     Map<Integer, String> invalidItems,
+                                                     Map<String, BigDecimal> rates,
+                                                     RateSnapshot snapshot) {
+        var transfers = new HashMap<Integer, BalanceTransfer>();
+        metrics.time(Stage.ARITHMETIC, () -> {
+            for (int i = 0; i < items.size(); i++) {
+                if (!invalidItems.containsKey(i)) {
+                    transfers.put(i, toTransfer(items.get(i), targetCurrencies.get(i), snapshot));
+                }
+            }
+            return null;
+        });
+        var applied = new HashSet<Integer>();
+        var existingIds = new HashSet<UUID>();
+        var ledgerEntries = new ArrayList<ExchangeLedgerEntry>();
+        metrics.time(Stage.SAVE, () -> {
+            // submitted in item order, so each shard applies an account's items in list order
+            var results = new HashMap<Integer, CompletableFuture<Account>>();
+            for (int i = 0; i < items.size(); i++) {
+                if (transfers.containsKey(i)) {
+                    results.put(i, engine.submit(transfers.get(i)));
+                }
+            }
+            var now = clock.instant();
+            for (int i = 0; i < items.size(); i++) {
+                if (!results.containsKey(i)) {
+                    continue;
+                }
+                var transfer = transfers.get(i);
+                try {
+                    ShardedAccountEngine.await(results.get(i));
+                    applied.add(i);
+                    existingIds.add(transfer.getAccountId());
+                    ledgerEntries.add(toLedgerEntry(transfer, rates.get(transfer.getDebitCurrency()),
+                            rates.get(transfer.getCreditCurrency()), snapshot, now));
+                } catch (InsufficientBalanceException ex) {
+                    existingIds.add(transfer.getAccountId());
+                } catch (ResourceNotFoundException ex) {
+                    // reported as NOT_FOUND below
+                }
+            }
+            return null;
+        });
+        metrics.time(Stage.LEDGER, () -> {
+            ledgerWriter.recordAll(ledgerEntries);
+            return null;
+        });
+        var updatedIds = applied.stream().map(i -> items.get(i).getAccountId()).collect(Collectors.toSet());
+        accountCache.evictAll(updatedIds);
+        var updatedAccounts = metrics.time(Stage.MAPPING, () -> updatedIds.stream()
+                .map(engine::find)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toMap(Account::getId, accountMapper::toResponse)));
+        return toBatchResponse(items, applied, invalidItems, existingIds, updatedAccounts);
+    }
+
+    private BatchExchangeResponse toBatchResponse(List<BatchExchangeItem> items,
+                                                  Set<Integer> applied,
+                                                  Map<Integer, String> invalidItems,
+                                                  Set<UUID> existingIds,
+                                                  Map<UUID, AccountResponse> updatedAccounts) {
+        var response = new BatchExchangeResponse().succeeded(0).failed(0).results(new ArrayList<>());
+        for (int i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            var result = new BatchExchangeResult().accountId(item.getAccountId());
+            if (applied.contains(i)) {
+                result.status(BatchExchangeResult.StatusEnum.SUCCEEDED)
+                        .account(updatedAccounts.get(item.getAccountId()));
+                response.succeeded(response.getSucceeded() + 1);
+            } else {
+                result.status(BatchExchangeResult.StatusEnum.FAILED)
+                        .error(toError(item, invalidItems.get(i), existingIds.contains(item.getAccountId())));
+                response.failed(response.getFailed() + 1);
+            }
+            response.addResultsItem(result);
+        }
+        return response;
+    }
+
+    private BalanceTransfer toTransfer(BatchExchangeItem item, String targetCurrency, RateSnapshot snapshot) {
+        var sourceCurrency = item.getSourceCurrency();
+        var converted = convert(item.getAmount(), snapshot, sourceCurrency, targetCurrency);
+        return new BalanceTransfer(item.getAccountId(), sourceCurrency, item.getAmount(), targetCurrency, converted);
+    }
+
+    private static ExchangeLedgerEntry toLedgerEntry(BalanceTransfer transfer,
+                                                     BigDecimal sourceRate,
+                                                     BigDecimal targetRate,
+                                                     RateSnapshot snapshot,
+                                                     Instant createdAt) {
+        return new ExchangeLedgerEntry(transfer.getAccountId(),
+                transfer.getDebitCurrency(), transfer.getDebit(),
+                transfer.getCreditCurrency(), transfer.getCredit(),
+                sourceRate, targetRate,
+                snapshot.getVersion(), snapshot.getTableNo(), createdAt);
+    }
+
+    private ErrorResponse toError(BatchExchangeItem item, String invalidReason, boolean accountExists) {
+        if (invalidReason != null) {
+            return new ErrorResponse()
+                    .code("VALIDATION_ERROR")
+                    .message("Invalid exchange request")
+                    .details(Collections.singletonList(invalidReason));
+        }
+        if (!accountExists) {
+            return new ErrorResponse()
+                    .code("NOT_FOUND")
+                    .message("Account not found")
+                    .details(Collections.emptyList());
+        }
+        return new ErrorResponse()
+                .code("VALIDATION_ERROR")
+                .message("Insufficient balance")
+                .details(Collections.singletonList("Insufficient " + item.getSourceCurrency() + " balance"));
+    }
+
+    String resolveTargetCurrency(String sourceCurrency, String targetCurrency) {
+        if (targetCurrency == null) {
+            // requests without a target keep the original PLN <-> USD behaviour
+            targetCurrency = Account.BASE_CURRENCY.equals(sourceCurrency)
+                    ? exchangeProperties.getDefaultTargetCurrency()
+                    : Account.BASE_CURRENCY;
+        }
+        if (!exchangeRateService.isSupported(sourceCurrency)) {
+            throw new InvalidExchangeException("Unsupported currency " + sourceCurrency);
+        }
+        if (!exchangeRateService.isSupported(targetCurrency)) {
+            throw new InvalidExchangeException("Unsupported currency " + targetCurrency);
+        }
+        if (sourceCurrency.equals(targetCurrency)) {
+            throw new InvalidExchangeException("Source and target currency must differ");
+        }
+        return targetCurrency;
+    }
+
+    private RateSnapshot lookupSnapshot() throws ServiceUnavailableException {
+        var sample = metrics.start();
+        try {
+            return exchangeRateService.getCurrentSnapshot();
+        } finally {
+            metrics.stop(sample, Stage.RATE_LOOKUP);
+        }
+    }
+
+    private static void apply(Account account, BalanceTransfer transfer) {
+        account.getBalances().merge(transfer.getDebitCurrency(), transfer.getDebit().negate(), BigDecimal::add);
+        account.getBalances().merge(transfer.getCreditCurrency(), transfer.getCredit(), BigDecimal::add);
+    }
+
+    /**
+     * Same result as {@link #convert(BigDecimal, BigDecimal, BigDecimal)} with the snapshot's mids, computed on
+     * longs when the amount and both rates fit {@link FixedPointMoney}. Both currencies must be listed in the snapshot.
+     */
+    static BigDecimal convert(BigDecimal amount, RateSnapshot snapshot, String sourceCurrency, String targetCurrency) {
+        var converted = FixedPointMoney.convert(
+                FixedPointMoney.toUnscaled(amount, FixedPointMoney.AMOUNT_SCALE),
+                snapshot.getUnscaledMid(sourceCurrency),
+                snapshot.getUnscaledMid(targetCurrency));
+        if (converted != FixedPointMoney.UNREPRESENTABLE) {
+            return BigDecimal.valueOf(converted, FixedPointMoney.AMOUNT_SCALE);
+        }
+        return convert(amount, snapshot.getMid(sourceCurrency), snapshot.getMid(targetCurrency));
+    }
+
+    /**
+     * Converts through PLN: both rates are NBP mids in PLN, and PLN itself has a rate of {@code 1}.
+     */
+    static BigDecimal convert(BigDecimal amount, BigDecimal sourceRate, BigDecimal targetRate) {
+        return amount.multiply(sourceRate).divide(targetRate, 2, RoundingMode.HALF_UP);
     }
 }
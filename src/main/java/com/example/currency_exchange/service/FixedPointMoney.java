@@ -0,0 +1,71 @@
+package com.example.currency_exchange.service;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exchange arithmetic on unscaled longs: amounts in minor units (scale 2) and rates at scale 6.
+ * Rounding is HALF_UP on the exact quotient, so every representable input gives the same result as
+ * {@link ExchangeService#convert(BigDecimal, BigDecimal, BigDecimal)}. Inputs that need more digits,
+ * are negative or would overflow yield {@link #UNREPRESENTABLE} and callers fall back to {@code BigDecimal}.
+ */
+final class FixedPointMoney {
+    static final int AMOUNT_SCALE = 2;
+    static final int RATE_SCALE = 6;
+    static final long UNREPRESENTABLE = -1;
+    static final long RATE_ONE = 1_000_000;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L
+    };
+
+    private FixedPointMoney() {
+    }
+
+    /**
+     * Unscaled value at {@code scale} (at most 6), without allocating for integral values.
+     */
+    static long toUnscaled(BigDecimal value, int scale) {
+        var valueScale = value.scale();
+        if (value.signum() < 0 || valueScale > scale || valueScale < 0 || value.precision() > 18) {
+            return UNREPRESENTABLE;
+        }
+        // longValue() of a scale 0 value reads the compact representation directly
+        var unscaled = valueScale == 0 ? value.longValue() : value.unscaledValue().longValue();
+        var factor = POWERS_OF_TEN[scale - valueScale];
+        if (unscaled > Long.MAX_VALUE / factor) {
+            return UNREPRESENTABLE;
+        }
+        return unscaled * factor;
+    }
+
+    /**
+     * {@code amount * sourceRate / targetRate} in minor units, rounded HALF_UP.
+     */
+    static long convert(long amountMinor, long sourceRate, long targetRate) {
+        if (amountMinor < 0 || sourceRate < 0 || targetRate <= 0) {
+            return UNREPRESENTABLE;
+        }
+        // both rates share RATE_SCALE, so the scales cancel and the quotient is already in minor units
+        var high = Math.multiplyHigh(amountMinor, sourceRate);
+        if (high != 0) {
+            return UNREPRESENTABLE;
+        }
+        var product = amountMinor * sourceRate;
+        if (product < 0) {
+            return UNREPRESENTABLE;
+        }
+        var quotient = product / targetRate;
+        var remainder = product % targetRate;
+        // remainder >= targetRate - remainder is 2 * remainder >= targetRate without the overflow
+        return remainder >= targetRate - remainder ? quotient + 1 : quotient;
+    }
+
+    static Map<String, Long> toUnscaledRates(Map<String, BigDecimal> mids) {
+        var rates = new HashMap<String, Long>(mids.size() * 2);
+        mids.forEach((currency, mid) -> rates.put(currency, toUnscaled(mid, RATE_SCALE)));
+        return Collections.unmodifiableMap(rates);
+    }
+}
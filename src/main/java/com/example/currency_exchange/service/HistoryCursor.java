@@ -0,0 +1,41 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.exceptions.InvalidCursorException;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Position of the last entry on a history page, (createdAt, id), encoded as an opaque URL-safe token.
+ */
+@Value
+class HistoryCursor {
+    Instant createdAt;
+    long id;
+
+    static HistoryCursor after(ExchangeLedgerEntry entry) {
+        return new HistoryCursor(entry.getCreatedAt(), entry.getId());
+    }
+
+    static HistoryCursor decode(String token) {
+        try {
+            var parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split(":");
+            if (parts.length != 3) {
+                throw new InvalidCursorException("Malformed cursor");
+            }
+            var createdAt = Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            return new HistoryCursor(createdAt, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | DateTimeException ex) {
+            throw new InvalidCursorException("Malformed cursor");
+        }
+    }
+
+    String encode() {
+        var raw = createdAt.getEpochSecond() + ":" + createdAt.getNano() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+}
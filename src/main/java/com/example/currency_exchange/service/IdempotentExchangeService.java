@@ -0,0 +1,257 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.exceptions.IdempotencyKeyPendingException;
+import com.example.currency_exchange.exceptions.IdempotencyKeyReusedException;
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.ExchangeIdempotencyRecord;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.repository.ExchangeIdempotencyRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+
+import javax.naming.ServiceUnavailableException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exchanges carrying an {@code Idempotency-Key}. The first request with a key is applied and its response
+ * recorded; retries with the same key get that response back without touching balances or NBP rates.
+ * <p>
+ * Recorded responses live in the {@code exchange_idempotency} table, fronted by a bounded in-memory index so
+ * that retries of recent exchanges are answered without a query. Requests with a key that is still being
+ * applied wait for it and then replay its response. On the JPA engine the record is inserted in the exchange's
+ * own transaction, so an exchange is never applied without it; the primary key also stops another instance from
+ * applying the same key twice.
+ * <p>
+ * The sharded engine applies exchanges outside any transaction the record could join, so there the key is
+ * reserved in its own transaction before the exchange is applied and its response recorded afterwards. An
+ * exchange that fails before it is applied frees the key again. If the process dies in between, or recording
+ * the response fails, the reservation stays until the key expires and retries are rejected as pending rather
+ * than applied a second time.
+ */
+@Slf4j
+@Service
+public class IdempotentExchangeService {
+    private final ExchangeService exchangeService;
+    private final ShardedAccountEngine engine;
+    private final ExchangeIdempotencyRepository repository;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+    private final Duration ttl;
+    private final Cache<String, ExchangeIdempotencyRecord> index;
+    private final ConcurrentMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotentExchangeService(ExchangeService exchangeService, ShardedAccountEngine engine,
+                                     ExchangeIdempotencyRepository repository, ObjectMapper objectMapper,
+                                     ExchangeProperties exchangeProperties, Clock clock, MeterRegistry registry) {
+        this.exchangeService = exchangeService;
+        this.engine = engine;
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+        this.ttl = exchangeProperties.getIdempotency().getTtl();
+        this.index = Caffeine.newBuilder()
+                .maximumSize(exchangeProperties.getIdempotency().getMaximumSize())
+                .expireAfter(new Expiry<String, ExchangeIdempotencyRecord>() {
+                    // a key loaded from the table late in its life must not outlive it in memory
+                    @Override
+                    public long expireAfterCreate(String key, ExchangeIdempotencyRecord record, long currentTime) {
+                        return Math.max(0, Duration.between(clock.instant(), expiresAt(record)).toNanos());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, ExchangeIdempotencyRecord record, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, record, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, ExchangeIdempotencyRecord record, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        // cache.gets{cache=idempotency,result=hit|miss} counts replays answered from memory
+        CaffeineCacheMetrics.monitor(registry, index, "idempotency");
+    }
+
+    public AccountResponse exchangeCurrency(String key, UUID accountId, ExchangeRequest request)
+            throws ServiceUnavailableException {
+        var fingerprint = fingerprint(accountId, request);
+        while (true) {
+            // a key reserved by an attempt of this instance is waited for below
+            var replayed = replay(key, fingerprint, inFlight.containsKey(key));
+            if (replayed.isPresent()) {
+                return replayed.get();
+            }
+            var claim = new CompletableFuture<Void>();
+            var running = inFlight.putIfAbsent(key, claim);
+            if (running == null) {
+                try {
+                    // the previous holder of the key may have recorded its response after the lookup above
+                    replayed = replay(key, fingerprint, false);
+                    if (replayed.isPresent()) {
+                        return replayed.get();
+                    }
+                    if (engine.isEnabled()) {
+                        return exchangeReserved(key, fingerprint, accountId, request);
+                    }
+                    return exchangeService.exchangeCurrency(accountId, request,
+                            response -> record(key, fingerprint, response));
+                } catch (DataIntegrityViolationException ex) {
+                    // another instance recorded the key first and this exchange rolled back with the insert
+                    return replay(key, fingerprint, false).orElseThrow(() -> ex);
+                } finally {
+                    inFlight.remove(key, claim);
+                    claim.complete(null);
+                }
+            }
+            // the same key is being applied: replay its response, or apply it here if that attempt failed
+            running.join();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${exchange.idempotency.cleanup-interval:PT10M}")
+    public void deleteExpired() {
+        var deleted = repository.deleteCreatedBefore(clock.instant().minus(ttl));
+        if (deleted > 0) {
+            log.debug("Deleted {} expired idempotency keys", deleted);
+        }
+    }
+
+    private AccountResponse exchangeReserved(String key, String fingerprint, UUID accountId, ExchangeRequest request)
+            throws ServiceUnavailableException {
+        var createdAt = clock.instant();
+        repository.saveAndFlush(new ExchangeIdempotencyRecord(key, fingerprint, null, createdAt));
+        var applied = new AtomicBoolean();
+        try {
+            return exchangeService.exchangeCurrency(accountId, request, response -> {
+                applied.set(true);
+                var json = toJson(response);
+                repository.recordResponse(key, json);
+                index.put(key, new ExchangeIdempotencyRecord(key, fingerprint, json, createdAt));
+            });
+        } catch (RuntimeException | ServiceUnavailableException ex) {
+            if (!applied.get()) {
+                repository.deleteReserved(key);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @param reservedHere whether a reservation without a response belongs to an attempt still running here
+     */
+    private Optional<AccountResponse> replay(String key, String fingerprint, boolean reservedHere) {
+        var found = find(key);
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        var record = found.get();
+        if (!record.getFingerprint().equals(fingerprint)) {
+            throw new IdempotencyKeyReusedException("Idempotency key " + key + " was used for a different exchange");
+        }
+        if (record.isReserved()) {
+            if (reservedHere) {
+                return Optional.empty();
+            }
+            throw new IdempotencyKeyPendingException("Exchange with idempotency key " + key
+                    + " is being applied or its outcome is unknown");
+        }
+        return Optional.of(fromJson(record.getResponse()));
+    }
+
+    private Optional<ExchangeIdempotencyRecord> find(String key) {
+        var cached = index.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        var stored = repository.findById(key);
+        if (stored.isEmpty()) {
+            return Optional.empty();
+        }
+        var record = stored.get();
+        if (!expiresAt(record).isAfter(clock.instant())) {
+            // not cleaned up yet; free the key so it can be recorded again
+            repository.deleteCreatedBefore(key, clock.instant().minus(ttl));
+            return Optional.empty();
+        }
+        if (!record.isReserved()) {
+            index.put(key, record);
+        }
+        return stored;
+    }
+
+    private void record(String key, String fingerprint, AccountResponse response) {
+        var record = repository.saveAndFlush(
+                new ExchangeIdempotencyRecord(key, fingerprint, toJson(response), clock.instant()));
+        // indexed only once committed, so a retry never replays an exchange that rolled back
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    index.put(key, record);
+                }
+            });
+        } else {
+            index.put(key, record);
+        }
+    }
+
+    private Instant expiresAt(ExchangeIdempotencyRecord record) {
+        return record.getCreatedAt().plus(ttl);
+    }
+
+    /**
+     * Identifies the exchange a key was first used for; the target currency is compared as sent, before the
+     * default is applied. Hashed so that any amount fits the column.
+     */
+    static String fingerprint(UUID accountId, ExchangeRequest request) {
+        var exchange = accountId
+                + ":" + request.getSourceCurrency()
+                + ":" + (request.getTargetCurrency() == null ? "" : request.getTargetCurrency())
+                + ":" + request.getAmount().stripTrailingZeros().toPlainString();
+        return DigestUtils.md5DigestAsHex(exchange.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String toJson(AccountResponse response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // parsed on every replay, so callers never share a response instance
+    private AccountResponse fromJson(String response) {
+        try {
+            return objectMapper.readValue(response, AccountResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
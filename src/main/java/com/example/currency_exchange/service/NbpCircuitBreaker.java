@@ -0,0 +1,59 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.NbpProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class NbpCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final NbpProperties nbpProperties;
+    private final Clock clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Instant openUntil = Instant.MIN;
+
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && !clock.instant().isBefore(openUntil)) {
+            // let exactly one trial call through; its outcome decides the next state
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            log.info("NBP circuit breaker closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        var settings = nbpProperties.getCircuitBreaker();
+        if (state == State.HALF_OPEN || consecutiveFailures >= settings.getFailureThreshold()) {
+            state = State.OPEN;
+            openUntil = clock.instant().plus(settings.getOpenDuration());
+            log.warn("NBP circuit breaker opened until {} after {} consecutive failures", openUntil, consecutiveFailures);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.currency_exchange.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an NBP {@code /tables/A} response token by token, keeping only the table number,
+ * effective date and each currency's code and mid instead of binding the whole document.
+ */
+final class NbpTableParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private NbpTableParser() {
+    }
+
+    static RateTable parse(InputStream body) throws IOException {
+        try (var parser = JSON_FACTORY.createParser(body)) {
+            // the endpoint returns an array; without a date range it holds only the latest table
+            expect(parser, JsonToken.START_ARRAY);
+            expect(parser, JsonToken.START_OBJECT);
+            String no = null;
+            LocalDate effectiveDate = null;
+            var mids = new HashMap<String, BigDecimal>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "no":
+                        no = parser.getText();
+                        break;
+                    case "effectiveDate":
+                        effectiveDate = LocalDate.parse(parser.getText());
+                        break;
+                    case "rates":
+                        readRates(parser, mids);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return new RateTable(no, effectiveDate, Collections.unmodifiableMap(mids));
+        }
+    }
+
+    private static void readRates(JsonParser parser, Map<String, BigDecimal> mids) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected rates array");
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String code = null;
+            BigDecimal mid = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                if ("code".equals(field)) {
+                    code = parser.getText();
+                } else if ("mid".equals(field)) {
+                    mid = parser.getDecimalValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (code != null && mid != null) {
+                mids.put(code, mid);
+            }
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.nextToken() != token) {
+            throw new JsonParseException(parser, "Expected " + token + " in NBP table response");
+        }
+    }
+}
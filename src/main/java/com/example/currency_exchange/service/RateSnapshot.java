@@ -0,0 +1,53 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.model.Account;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Immutable view of every rate from one table fetch, published as a whole so readers never see a mix of tables.
+ * Its version is derived from the NBP table number, so exchanges record which table priced them and the
+ * version means the same table after a restart.
+ */
+@Value
+public class RateSnapshot {
+    long version;
+    RateTable table;
+    Instant fetchedAt;
+    Instant expiresAt;
+
+    public String getTableNo() {
+        return table.getNo();
+    }
+
+    public LocalDate getEffectiveDate() {
+        return table.getEffectiveDate();
+    }
+
+    /**
+     * Mid rate in PLN, {@code 1} for PLN itself, or {@code null} when the table does not list the currency.
+     */
+    public BigDecimal getMid(String currency) {
+        if (Account.BASE_CURRENCY.equals(currency)) {
+            return BigDecimal.ONE;
+        }
+        return table.getMids().get(currency);
+    }
+
+    /**
+     * Mid rate at {@link FixedPointMoney#RATE_SCALE}, or {@link FixedPointMoney#UNREPRESENTABLE}.
+     */
+    long getUnscaledMid(String currency) {
+        if (Account.BASE_CURRENCY.equals(currency)) {
+            return FixedPointMoney.RATE_ONE;
+        }
+        return table.getUnscaledMid(currency);
+    }
+
+    boolean isFresh(Instant now) {
+        return now.isBefore(expiresAt);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.currency_exchange.service;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * One NBP table A publication: its number, effective date and the mid rate in PLN of every listed currency.
+ */
+@Value
+public class RateTable {
+    String no;
+    // identifies the table across restarts, unlike a counter of fetches
+    long version;
+    LocalDate effectiveDate;
+    Map<String, BigDecimal> mids;
+    // derived once per table so exchanges price on longs without converting the rates again
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    Map<String, Long> unscaledMids;
+
+    public RateTable(String no, LocalDate effectiveDate, Map<String, BigDecimal> mids) {
+        this.no = no;
+        this.version = versionOf(no);
+        this.effectiveDate = effectiveDate;
+        this.mids = mids;
+        this.unscaledMids = FixedPointMoney.toUnscaledRates(mids);
+    }
+
+    /**
+     * Orders table A publications: {@code 010/A/NBP/2024} is {@code 2024010}. NBP publishes one table per working
+     * day, so the number within a year stays below 1000.
+     */
+    static long versionOf(String no) {
+        var parts = no.split("/");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Unexpected NBP table number " + no);
+        }
+        return Long.parseLong(parts[3]) * 1000 + Long.parseLong(parts[0]);
+    }
+
+    /**
+     * Mid rate at {@link FixedPointMoney#RATE_SCALE}, or {@link FixedPointMoney#UNREPRESENTABLE}.
+     */
+    long getUnscaledMid(String currency) {
+        var mid = unscaledMids.get(currency);
+        return mid == null ? FixedPointMoney.UNREPRESENTABLE : mid;
+    }
+}
@@ -0,0 +1,672 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.config.ExchangeProperties.EngineMode;
+import com.example.currency_exchange.exceptions.ResourceNotFoundException;
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.BalanceTransfer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * In {@link EngineMode#SHARDED} mode, owns the balances of the accounts it has loaded. Accounts are
+ * partitioned by id across single-threaded shards; a shard applies its exchanges one after another on
+ * plain maps, so exchanges on one account are serialized without row locks and different shards never
+ * contend. Balances changed by a shard are written back to {@link AccountRepository} by one background
+ * writer, at the latest {@code flush-interval} after the change, in the order the shard applied them.
+ * <p>
+ * The engine assumes it is the only writer of balances: it must not run next to the JPA path or a second
+ * instance against the same database. An account missing from its shard is read by a loader thread while the
+ * shard keeps applying other exchanges; its own exchanges wait and run in submission order once it is there.
+ * Above {@code max-resident-accounts} a shard evicts the least recently used accounts whose balances are
+ * written back. A published {@link Account} is never mutated; every exchange publishes a new one.
+ * <p>
+ * With the journal enabled, an exchange is acknowledged only once its new balances are forced to the
+ * shard's {@link BalanceJournal}, and a restart replays the journal before accepting exchanges, so a crash
+ * loses no acknowledged exchange even if its balances were never written back. The shard applies later
+ * exchanges on top of balances still being forced, but publishes them, to readers and to the write-back,
+ * only once they are acknowledged. If forcing fails, the exchanges waiting for it fail and their accounts
+ * return to the last acknowledged balances. Recovered accounts the database no longer holds are dropped. After
+ * a clean shutdown with every balance written back, the journal is deleted.
+ * <p>
+ * A batch that fails {@code max-attempts} times is written account by account. An account that still fails goes
+ * back to its shard, which writes its latest balances back again with the next batch and keeps it resident
+ * until that succeeds.
+ */
+@Slf4j
+@Component
+public class ShardedAccountEngine {
+    private static final Runnable WAKE_UP = () -> {
+    };
+    private static final PendingWrite STOP_WRITING = new PendingWrite(List.of(), CompletableFuture.completedFuture(null));
+
+    private final AccountRepository accountRepository;
+    private final AccountBalanceValidator balanceValidator;
+    private final TransactionTemplate transactionTemplate;
+    private final ExchangeProperties.Engine properties;
+    private final Shard[] shards;
+    // one FIFO writer keeps the write-backs of an account in the order they were applied
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final DistributionSummary batchSizes;
+    private final Counter failedWrites;
+    private volatile boolean running;
+    private volatile boolean writing;
+    private volatile boolean writeBackIncomplete;
+    private Thread writerThread;
+    private ExecutorService loader;
+    private BalanceJournal journal;
+
+    public ShardedAccountEngine(AccountRepository accountRepository,
+                                AccountBalanceValidator balanceValidator,
+                                TransactionTemplate transactionTemplate,
+                                ExchangeProperties exchangeProperties,
+                                MeterRegistry registry) {
+        this.accountRepository = accountRepository;
+        this.balanceValidator = balanceValidator;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = exchangeProperties.getEngine();
+        this.shards = new Shard[Math.max(properties.getShards(), 1)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        Gauge.builder("exchange.engine.queue", shards, ShardedAccountEngine::queued)
+                .description("Exchanges waiting for their shard")
+                .register(registry);
+        Gauge.builder("exchange.engine.pending.writes", pendingWrites, BlockingQueue::size)
+                .description("Account batches waiting to be written back")
+                .register(registry);
+        this.batchSizes = DistributionSummary.builder("exchange.engine.batch")
+                .description("Accounts written back per transaction")
+                .register(registry);
+        this.failedWrites = Counter.builder("exchange.engine.failed.writes")
+                .description("Account write-backs that failed on their own and were queued again")
+                .register(registry);
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        if (properties.getJournal().isEnabled()) {
+            journal = new BalanceJournal(properties.getJournal());
+            var recovered = journal.recover(shards.length, accountId -> shardFor(accountId).index);
+            // recovered balances may be newer than the stored ones, so they are written back like any change
+            for (var account : stored(recovered.values())) {
+                var shard = shardFor(account.getId());
+                shard.resident.put(account.getId(), account);
+                shard.publish(account);
+            }
+            journal.start(shard -> shards[shard].accounts.values());
+        }
+        running = true;
+        writing = true;
+        loader = Executors.newFixedThreadPool(Math.max(properties.getLoaderThreads(), 1), task -> {
+            var thread = new Thread(task, "account-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (var shard : shards) {
+            shard.thread = new Thread(shard, "account-shard-" + shard.index);
+            shard.thread.start();
+        }
+        writerThread = new Thread(this::writeBack, "account-writer");
+        writerThread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writerThread == null) {
+            return;
+        }
+        var deadline = System.nanoTime() + properties.getShutdownTimeout().toNanos();
+        running = false;
+        for (var shard : shards) {
+            // wakes a shard waiting for work so it notices the shutdown without waiting out flush-interval
+            shard.tasks.offer(WAKE_UP);
+        }
+        for (var shard : shards) {
+            shard.thread.join(remainingMillis(deadline));
+            if (shard.thread.isAlive()) {
+                log.error("Shard {} did not finish within {}", shard.index, properties.getShutdownTimeout());
+                writeBackIncomplete = true;
+            }
+        }
+        // a shard only finishes once the loads its exchanges wait for are back
+        loader.shutdown();
+        writing = false;
+        pendingWrites.add(STOP_WRITING);
+        writerThread.join(remainingMillis(deadline));
+        if (writerThread.isAlive()) {
+            log.error("Account writer did not finish within {}, {} batches not written",
+                    properties.getShutdownTimeout(), pendingWrites.size());
+            writeBackIncomplete = true;
+        }
+        if (journal != null) {
+            journal.close();
+            if (writeBackIncomplete) {
+                log.warn("Keeping the balance journal, it holds balances that were not written back");
+            } else {
+                deleteJournal();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.getMode() == EngineMode.SHARDED;
+    }
+
+    /**
+     * Applies the transfer on the account's shard and returns the account with the new balances.
+     *
+     * @throws ResourceNotFoundException if the account does not exist
+     * @throws com.example.currency_exchange.exceptions.InsufficientBalanceException if the debit exceeds the balance
+     */
+    public Account exchange(BalanceTransfer transfer) {
+        return await(submit(transfer));
+    }
+
+    /**
+     * Queues the transfer on the account's shard. Transfers submitted by one thread for the same account
+     * are applied in submission order.
+     */
+    public CompletableFuture<Account> submit(BalanceTransfer transfer) {
+        var shard = shardFor(transfer.getAccountId());
+        var result = new CompletableFuture<Account>();
+        shard.execute(() -> shard.submit(new QueuedTransfer(transfer, result)));
+        return result;
+    }
+
+    /**
+     * Latest balances of an account the engine has loaded; empty if the stored ones are current.
+     */
+    public Optional<Account> find(UUID accountId) {
+        return Optional.ofNullable(shardFor(accountId).accounts.get(accountId));
+    }
+
+    /**
+     * Waits until every balance changed before this call has been written back.
+     *
+     * @return {@code false} if the timeout elapsed first
+     */
+    public boolean flush(Duration timeout) throws InterruptedException {
+        if (!isEnabled()) {
+            return true;
+        }
+        var handedOff = new ArrayList<CompletableFuture<CompletableFuture<Void>>>(shards.length);
+        for (var shard : shards) {
+            var lastWrite = new CompletableFuture<CompletableFuture<Void>>();
+            shard.execute(() -> lastWrite.complete(shard.handOff()));
+            handedOff.add(lastWrite);
+        }
+        var deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            for (var lastWrite : handedOff) {
+                lastWrite.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                        .get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Flushing account balances failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Result of a submitted transfer, rethrowing the exception it failed with.
+     */
+    static Account await(CompletableFuture<Account> result) {
+        try {
+            return result.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private Shard shardFor(UUID accountId) {
+        return shards[Math.floorMod(accountId.hashCode(), shards.length)];
+    }
+
+    private static int queued(Shard[] shards) {
+        var queued = 0;
+        for (var shard : shards) {
+            queued += shard.tasks.size();
+        }
+        return queued;
+    }
+
+    private void writeBack() {
+        while (writing || !pendingWrites.isEmpty()) {
+            PendingWrite write;
+            try {
+                write = pendingWrites.poll(properties.getFlushInterval().toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                writing = false;
+                continue;
+            }
+            if (write != null && write != STOP_WRITING) {
+                write(write);
+            }
+        }
+    }
+
+    private void write(PendingWrite write) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> accountRepository.saveBalances(write.accounts));
+                batchSizes.record(write.accounts.size());
+                write.written.complete(null);
+                return;
+            } catch (RuntimeException ex) {
+                if (attempt >= properties.getMaxAttempts() || !writing) {
+                    log.error("Writing balances of {} accounts failed {} times, writing them one by one",
+                            write.accounts.size(), attempt, ex);
+                    break;
+                }
+                log.error("Writing balances of {} accounts failed, retrying in {}",
+                        write.accounts.size(), properties.getRetryBackoff(), ex);
+                sleep(properties.getRetryBackoff());
+            }
+        }
+        // isolates the accounts that keep the batch from committing
+        RuntimeException failure = null;
+        for (var account : write.accounts) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> accountRepository.saveBalances(List.of(account)));
+            } catch (RuntimeException ex) {
+                failedWrites.increment();
+                failure = ex;
+                // the shard may be gone before the retry; replaying the journal over stored balances is harmless
+                writeBackIncomplete = true;
+                if (writing) {
+                    log.error("Writing balances of account {} failed, queueing it again", account.getId(), ex);
+                    var shard = shardFor(account.getId());
+                    shard.resume(() -> shard.rewrite(account.getId()));
+                } else {
+                    log.error("Dropping balances of account {} after a failed write during shutdown: {}",
+                            account.getId(), account.getBalances(), ex);
+                }
+            }
+        }
+        if (failure == null) {
+            write.written.complete(null);
+            return;
+        }
+        // queued again before this completes, so a flush after the failure writes them back again
+        write.written.completeExceptionally(failure);
+    }
+
+    /**
+     * The recovered accounts the database still holds; the others cannot be written back.
+     */
+    private List<Account> stored(Collection<Account> recovered) {
+        var ids = recovered.stream().map(Account::getId).collect(Collectors.toList());
+        var existing = new HashSet<UUID>();
+        var chunk = Math.max(properties.getBatchSize(), 1);
+        for (int from = 0; from < ids.size(); from += chunk) {
+            existing.addAll(accountRepository.findExistingIds(ids.subList(from, Math.min(from + chunk, ids.size()))));
+        }
+        var stored = new ArrayList<Account>(existing.size());
+        for (var account : recovered) {
+            if (existing.contains(account.getId())) {
+                stored.add(account);
+            } else {
+                log.warn("Dropping recovered balances of account {}, it is not in the database: {}",
+                        account.getId(), account.getBalances());
+            }
+        }
+        return stored;
+    }
+
+    private void deleteJournal() {
+        try {
+            journal.delete();
+        } catch (IOException ex) {
+            // harmless: the next start replays balances that match the stored ones
+            log.warn("Deleting the balance journal failed", ex);
+        }
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final int index;
+        private final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        private final int maxResident;
+        // written only by the shard thread, read by anyone through find()
+        private final Map<UUID, Account> accounts = new ConcurrentHashMap<>();
+        // shard thread only: latest balances of every resident account, least recently used first
+        private final Map<UUID, Account> resident = new LinkedHashMap<>(16, 0.75f, true);
+        // shard thread only: journaled changes waiting to be acknowledged, in append order
+        private final Queue<Unacknowledged> unacknowledged = new ArrayDeque<>();
+        private final Map<UUID, Integer> unacknowledgedCounts = new HashMap<>();
+        // shard thread only: balances to return to once every change that failed with them is done
+        private final Map<UUID, Account> rolledBack = new LinkedHashMap<>();
+        // shard thread only: the write-back of each account's last handed-off balances
+        private final Map<UUID, CompletableFuture<Void>> writes = new HashMap<>();
+        // shard thread only: transfers waiting for their account to be loaded, in submission order
+        private final Map<UUID, List<QueuedTransfer>> loading = new HashMap<>();
+        // shard thread only: accounts changed since the last hand-off, in the order they were first changed
+        private final Map<UUID, Account> dirty = new LinkedHashMap<>();
+        private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+        private long dirtySince;
+        private long evictedAt;
+        private Thread thread;
+
+        private Shard(int index) {
+            this.index = index;
+            this.maxResident = Math.max(properties.getMaxResidentAccounts() / Math.max(properties.getShards(), 1), 1);
+        }
+
+        void execute(Runnable task) {
+            if (!running) {
+                throw new IllegalStateException("Account engine is not running");
+            }
+            try {
+                // a full shard slows its submitters down instead of growing without bound
+                tasks.put(task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing an exchange", ex);
+            }
+        }
+
+        /**
+         * Queues work for the shard even while it shuts down, for results it is still waiting for.
+         */
+        private void resume(Runnable task) {
+            try {
+                tasks.put(task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while resuming shard " + index, ex);
+            }
+        }
+
+        @Override
+        public void run() {
+            var flushInterval = properties.getFlushInterval().toNanos();
+            while (running || !tasks.isEmpty() || !loading.isEmpty() || !unacknowledged.isEmpty()) {
+                try {
+                    var task = tasks.poll(flushInterval, TimeUnit.NANOSECONDS);
+                    if (task != null) {
+                        task.run();
+                    }
+                    acknowledge();
+                } catch (InterruptedException ex) {
+                    // keep draining: every queued exchange has a caller waiting for its result
+                    running = false;
+                } catch (RuntimeException ex) {
+                    log.error("Shard {} task failed", index, ex);
+                }
+                if (!dirty.isEmpty() && (dirty.size() >= properties.getBatchSize()
+                        || System.nanoTime() - dirtySince >= flushInterval)) {
+                    handOff();
+                }
+                if (resident.size() > maxResident && System.nanoTime() - evictedAt >= flushInterval) {
+                    evictWrittenBack();
+                }
+            }
+            handOff();
+        }
+
+        void submit(QueuedTransfer queued) {
+            var accountId = queued.transfer.getAccountId();
+            var waiting = loading.get(accountId);
+            if (waiting != null) {
+                waiting.add(queued);
+                return;
+            }
+            var account = resident.get(accountId);
+            if (account == null) {
+                // read off the shard thread so one cold account does not stall the exchanges queued behind it
+                waiting = new ArrayList<>();
+                waiting.add(queued);
+                loading.put(accountId, waiting);
+                load(accountId);
+                return;
+            }
+            apply(account, queued);
+        }
+
+        private void load(UUID accountId) {
+            loader.execute(() -> {
+                try {
+                    var account = accountRepository.findById(accountId);
+                    resume(() -> loaded(accountId, account.orElse(null), null));
+                } catch (RuntimeException ex) {
+                    resume(() -> loaded(accountId, null, ex));
+                }
+            });
+        }
+
+        private void loaded(UUID accountId, Account account, RuntimeException failure) {
+            var waiting = loading.remove(accountId);
+            if (account == null) {
+                var ex = failure != null ? failure : new ResourceNotFoundException("Account not found");
+                waiting.forEach(queued -> queued.result.completeExceptionally(ex));
+                return;
+            }
+            // the stored balances are authoritative until the engine changes them
+            resident.put(accountId, account);
+            for (var queued : waiting) {
+                apply(resident.get(accountId), queued);
+            }
+        }
+
+        private void apply(Account account, QueuedTransfer queued) {
+            var transfer = queued.transfer;
+            try {
+                balanceValidator.validateBalance(account, transfer.getDebit(), transfer.getDebitCurrency());
+                var updated = withTransfer(account, transfer);
+                if (journal == null) {
+                    resident.put(updated.getId(), updated);
+                    publish(updated);
+                    queued.result.complete(updated);
+                    return;
+                }
+                // journaled before anything else changes, so a failed append leaves the account as it was
+                var durable = journal.append(index, updated);
+                resident.put(updated.getId(), updated);
+                track(new Unacknowledged(account, updated, durable, queued.result));
+            } catch (RuntimeException ex) {
+                queued.result.completeExceptionally(ex);
+            }
+        }
+
+        private void track(Unacknowledged change) {
+            unacknowledged.add(change);
+            unacknowledgedCounts.merge(change.account.getId(), 1, Integer::sum);
+            // the shard may be waiting for work; any later task also acknowledges it
+            change.durable.whenComplete((position, ex) -> tasks.offer(WAKE_UP));
+        }
+
+        /**
+         * Publishes the changes the journal has acknowledged, in the order they were applied.
+         */
+        private void acknowledge() {
+            Unacknowledged change;
+            while ((change = unacknowledged.peek()) != null && change.durable.isDone()) {
+                unacknowledged.poll();
+                var accountId = change.account.getId();
+                unacknowledgedCounts.computeIfPresent(accountId, (id, count) -> count == 1 ? null : count - 1);
+                var failure = change.durable.handle((position, ex) -> ex).join();
+                if (failure != null) {
+                    // the first failed change of an account holds the balances it had before any of them
+                    rolledBack.putIfAbsent(accountId, change.previous);
+                    if (change.result != null) {
+                        change.result.completeExceptionally(failure);
+                    }
+                } else {
+                    if (change.result != null) {
+                        publish(change.account);
+                    }
+                    // a snapshot replays the log after this position, so the account must be published first
+                    journal.published(index, change.durable.join());
+                    if (change.result != null) {
+                        change.result.complete(change.account);
+                    }
+                }
+            }
+            if (unacknowledged.isEmpty() && !rolledBack.isEmpty()) {
+                rollBack();
+            }
+        }
+
+        /**
+         * Returns the accounts of failed changes to their last acknowledged balances once none is still pending.
+         */
+        private void rollBack() {
+            journal.resume(index);
+            var restated = rolledBack.values().iterator();
+            while (restated.hasNext()) {
+                var previous = restated.next();
+                resident.put(previous.getId(), previous);
+                try {
+                    // the failed records may still reach the disk; restating the balances keeps a replay from reviving them
+                    track(new Unacknowledged(previous, previous, journal.append(index, previous), null));
+                } catch (RuntimeException ex) {
+                    log.error("Restating the balances of account {} in journal {} failed", previous.getId(), index, ex);
+                    return;
+                }
+                restated.remove();
+            }
+        }
+
+        void publish(Account account) {
+            accounts.put(account.getId(), account);
+            if (dirty.isEmpty()) {
+                dirtySince = System.nanoTime();
+            }
+            dirty.put(account.getId(), account);
+        }
+
+        /**
+         * Writes the account's published balances back again after its write-back failed; a later change has
+         * already queued them if the account is dirty.
+         */
+        void rewrite(UUID accountId) {
+            var account = accounts.get(accountId);
+            if (account != null && !dirty.containsKey(accountId)) {
+                publish(account);
+            }
+        }
+
+        CompletableFuture<Void> handOff() {
+            if (!dirty.isEmpty()) {
+                lastWrite = new CompletableFuture<>();
+                pendingWrites.add(new PendingWrite(List.copyOf(dirty.values()), lastWrite));
+                for (var accountId : dirty.keySet()) {
+                    writes.put(accountId, lastWrite);
+                }
+                dirty.clear();
+            }
+            return lastWrite;
+        }
+
+        /**
+         * Drops the least recently used accounts whose balances are stored; the next exchange reloads them.
+         */
+        private void evictWrittenBack() {
+            evictedAt = System.nanoTime();
+            var excess = resident.size() - maxResident;
+            var candidates = resident.keySet().iterator();
+            while (excess > 0 && candidates.hasNext()) {
+                var accountId = candidates.next();
+                var write = writes.get(accountId);
+                if (dirty.containsKey(accountId) || unacknowledgedCounts.containsKey(accountId)
+                        || write != null && (!write.isDone() || write.isCompletedExceptionally())) {
+                    continue;
+                }
+                candidates.remove();
+                accounts.remove(accountId);
+                writes.remove(accountId);
+                excess--;
+            }
+        }
+    }
+
+    private static Account withTransfer(Account account, BalanceTransfer transfer) {
+        var balances = new HashMap<>(account.getBalances());
+        balances.merge(transfer.getDebitCurrency(), transfer.getDebit().negate(), BigDecimal::add);
+        balances.merge(transfer.getCreditCurrency(), transfer.getCredit(), BigDecimal::add);
+        var updated = new Account();
+        updated.setId(account.getId());
+        updated.setFirstName(account.getFirstName());
+        updated.setLastName(account.getLastName());
+        updated.setBalances(balances);
+        return updated;
+    }
+
+    @Value
+    private static class QueuedTransfer {
+        BalanceTransfer transfer;
+        CompletableFuture<Account> result;
+    }
+
+    @Value
+    private static class Unacknowledged {
+        // balances the change was applied to
+        Account previous;
+        Account account;
+        CompletableFuture<Long> durable;
+        // null for a record that only restates balances after a rollback
+        CompletableFuture<Account> result;
+    }
+
+    @Value
+    private static class PendingWrite {
+        List<Account> accounts;
+        CompletableFuture<Void> written;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.exceptions.ResourceNotFoundException;
+import com.example.currency_exchange.mapper.AccountMapper;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import com.example.currency_exchange.model.TransactionHistoryResponse;
+import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.ExchangeLedgerRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Pages through an account's ledger with keyset pagination: each page continues strictly after the
+ * (createdAt, id) of the previous one, so the database seeks into the index instead of skipping rows.
+ */
+@Service
+@RequiredArgsConstructor
+public class TransactionHistoryService {
+    private final ExchangeLedgerRepository ledgerRepository;
+    private final AccountRepository accountRepository;
+    private final AccountMapper accountMapper;
+
+    @Transactional(readOnly = true)
+    public TransactionHistoryResponse getTransactions(UUID accountId, int limit, String cursor) {
+        // one row past the page tells whether another page follows, without a count query
+        var page = PageRequest.ofSize(limit + 1);
+        List<ExchangeLedgerEntry> entries;
+        if (cursor == null) {
+            entries = ledgerRepository.findByAccountIdOrderByCreatedAtDescIdDesc(accountId, page);
+        } else {
+            var position = HistoryCursor.decode(cursor);
+            entries = ledgerRepository.findByAccountIdBefore(
+                    accountId, position.getCreatedAt(), position.getId(), page);
+        }
+        if (entries.isEmpty() && cursor == null && !accountRepository.existsById(accountId)) {
+            throw new ResourceNotFoundException("Account not found");
+        }
+
+        var response = new TransactionHistoryResponse();
+        var hasMore = entries.size() > limit;
+        var pageEntries = hasMore ? entries.subList(0, limit) : entries;
+        response.setItems(pageEntries.stream()
+                .map(accountMapper::toTransaction)
+                .collect(Collectors.toList()));
+        if (hasMore) {
+            response.setNextCursor(HistoryCursor.after(pageEntries.get(limit - 1)).encode());
+        }
+        return response;
+    }
+}
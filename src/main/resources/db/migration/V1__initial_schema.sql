@@ -0,0 +1,40 @@
+-- Schema of the prod profile, where Hibernate neither creates nor updates tables (ddl-auto=none).
+-- Column types follow the JPA mappings: UUIDs are bound as 16 raw bytes, amounts at scale 2, rates at scale 6.
+
+create table account (
+    id         binary(16)   not null,
+    first_name varchar(255),
+    last_name  varchar(255),
+    constraint pk_account primary key (id)
+);
+
+-- one row per (account, currency); the primary key also serves the account_id foreign key and balance lookups
+create table account_balance (
+    account_id binary(16)     not null,
+    currency   varchar(3)     not null,
+    amount     numeric(19, 2),
+    constraint pk_account_balance primary key (account_id, currency),
+    constraint fk_account_balance_account foreign key (account_id) references account (id)
+);
+
+-- pooled optimizer: Hibernate takes 50 ids per call, so the increment must match allocationSize
+create sequence exchange_ledger_seq start with 1 increment by 50;
+
+create table exchange_ledger (
+    id               bigint         not null,
+    account_id       binary(16)     not null,
+    source_currency  varchar(3)     not null,
+    source_amount    numeric(19, 2) not null,
+    target_currency  varchar(3)     not null,
+    target_amount    numeric(19, 2) not null,
+    source_rate      numeric(19, 6) not null,
+    target_rate      numeric(19, 6) not null,
+    snapshot_version bigint         not null,
+    table_no         varchar(32),
+    created_at       timestamp      not null,
+    constraint pk_exchange_ledger primary key (id)
+);
+
+-- per-account history in time order; id breaks ties between entries with the same timestamp
+create index ix_exchange_ledger_account_created on exchange_ledger (account_id, created_at, id);
+create index ix_exchange_ledger_created on exchange_ledger (created_at);
@@ -0,0 +1,11 @@
+-- responses of exchanges made with an Idempotency-Key, replayed to retries until exchange.idempotency.ttl passes
+create table exchange_idempotency (
+    idempotency_key varchar(64) not null,
+    fingerprint     varchar(32) not null,
+    response        clob        not null,
+    created_at      timestamp   not null,
+    constraint pk_exchange_idempotency primary key (idempotency_key)
+);
+
+-- expired keys are deleted by creation time
+create index ix_exchange_idempotency_created on exchange_idempotency (created_at);
@@ -0,0 +1,2 @@
+-- with exchange.engine.mode=sharded a key is reserved, without a response, before its exchange is applied
+alter table exchange_idempotency alter column response set null;
@@ -0,0 +1,302 @@
+package com.example.currency_exchange;
+
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.CreateAccountRequest;
+import com.example.currency_exchange.model.ErrorResponse;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.service.RateSnapshot;
+import com.example.currency_exchange.service.ReactiveExchangeRateClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("reactive")
+class ReactiveExchangeTest {
+    private static final String TABLE_PATH = "/api/exchangerates/tables/A";
+    private static final String TABLE_BODY = "[{\"table\":\"A\",\"no\":\"010/A/NBP/2024\",\"effectiveDate\":\"2024-01-16\","
+            + "\"rates\":[{\"currency\":\"dolar amerykański\",\"code\":\"USD\",\"mid\":4.0}]}]";
+    // long enough for every concurrent miss to subscribe before the first fetch completes
+    private static final Duration NBP_LATENCY = Duration.ofMillis(200);
+    private static final BigDecimal EXCHANGE_RATE = BigDecimal.valueOf(4);
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+    private static final BigDecimal PLN_AMOUNT = BigDecimal.TEN;
+    private static final BigDecimal USD_AMOUNT = new BigDecimal("2.50");
+    private static final int THREADS = 8;
+    private static final int EXCHANGES_PER_THREAD = 25;
+    private static final int CONCURRENT_MISSES = 16;
+
+    private static final AtomicLong nbpRequests = new AtomicLong();
+    private static HttpServer nbpServer;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ReactiveExchangeRateClient exchangeRateClient;
+
+    @DynamicPropertySource
+    static void nbpProperties(DynamicPropertyRegistry registry) {
+        registry.add("nbp.api.url", ReactiveExchangeTest::startNbpServer);
+    }
+
+    @AfterAll
+    static void stopNbpServer() {
+        if (nbpServer != null) {
+            nbpServer.stop(0);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        exchangeRateClient.evictAll();
+    }
+
+    @Test
+    void shouldCreateAndGetAccount() {
+        // given
+        var request = new CreateAccountRequest("Jan", "Kowalski", INITIAL_BALANCE);
+
+        // when
+        var created = createAccount(request);
+        var fetched = webTestClient.get().uri("/api/accounts/{id}", created.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(AccountResponse.class)
+                .returnResult().getResponseBody();
+
+        // then
+        assertNotNull(fetched);
+        assertEquals(created.getId(), fetched.getId());
+        assertEquals("Jan", fetched.getFirstName());
+        assertEquals(0, INITIAL_BALANCE.compareTo(fetched.getPlnBalance()));
+    }
+
+    @Test
+    void shouldExchangePlnToUsd() {
+        // given
+        var accountId = createAccount(new CreateAccountRequest("Jan", "Kowalski", INITIAL_BALANCE)).getId();
+
+        // when
+        var response = exchange(accountId, new ExchangeRequest(new BigDecimal("400.00"), "PLN"))
+                .expectStatus().isOk()
+                .expectBody(AccountResponse.class)
+                .returnResult().getResponseBody();
+
+        // then
+        assertNotNull(response);
+        assertEquals(0, new BigDecimal("600.00").compareTo(response.getPlnBalance()));
+        assertEquals(0, new BigDecimal("100.00").compareTo(response.getUsdBalance()));
+        assertNotNull(response.getPricedWith());
+        assertEquals("010/A/NBP/2024", response.getPricedWith().getTableNo());
+    }
+
+    @Test
+    void shouldReturnNotFoundForUnknownAccount() {
+        // given
+        var accountId = UUID.randomUUID();
+
+        // when
+        var getResponse = webTestClient.get().uri("/api/accounts/{id}", accountId).exchange();
+        var exchangeResponse = exchange(accountId, new ExchangeRequest(PLN_AMOUNT, "PLN"));
+
+        // then
+        getResponse.expectStatus().isNotFound()
+                .expectBody(ErrorResponse.class)
+                .value(error -> assertEquals("NOT_FOUND", error.getCode()));
+        exchangeResponse.expectStatus().isNotFound();
+    }
+
+    @Test
+    void shouldRejectExchangeExceedingBalance() {
+        // given
+        var accountId = createAccount(new CreateAccountRequest("Jan", "Kowalski", INITIAL_BALANCE)).getId();
+
+        // when
+        var response = exchange(accountId, new ExchangeRequest(new BigDecimal("1000.01"), "PLN"));
+
+        // then
+        response.expectStatus().isEqualTo(HttpStatus.BAD_REQUEST)
+                .expectBody(ErrorResponse.class)
+                .value(error -> assertEquals("Insufficient balance", error.getMessage()));
+        var account = getAccount(accountId);
+        assertEquals(0, INITIAL_BALANCE.compareTo(account.getPlnBalance()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(account.getUsdBalance()));
+    }
+
+    @Test
+    void shouldRefuseExchangeWithIdempotencyKey() {
+        // given
+        var accountId = createAccount(new CreateAccountRequest("Jan", "Kowalski", INITIAL_BALANCE)).getId();
+
+        // when
+        var response = webTestClient.post().uri("/api/accounts/{id}/exchange", accountId)
+                .header("Idempotency-Key", UUID.randomUUID().toString())
+                .bodyValue(new ExchangeRequest(PLN_AMOUNT, "PLN"))
+                .exchange();
+
+        // then
+        response.expectStatus().isEqualTo(HttpStatus.BAD_REQUEST)
+                .expectBody(ErrorResponse.class)
+                .value(error -> assertEquals("Invalid exchange request", error.getMessage()));
+        assertEquals(0, INITIAL_BALANCE.compareTo(getAccount(accountId).getPlnBalance()));
+    }
+
+    @Test
+    void shouldConserveBalancesUnderConcurrentExchangesOnSameAccount() throws Exception {
+        // given
+        var accountId = createAccount(new CreateAccountRequest("Jan", "Kowalski", INITIAL_BALANCE)).getId();
+        var plnToUsd = new AtomicInteger();
+        var usdToPln = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            var plnSource = t % 2 == 0;
+            var sourceCurrency = plnSource ? "PLN" : "USD";
+            var amount = plnSource ? PLN_AMOUNT : USD_AMOUNT;
+            var successes = plnSource ? plnToUsd : usdToPln;
+            tasks.add(() -> {
+                start.await();
+                for (int i = 0; i < EXCHANGES_PER_THREAD; i++) {
+                    var status = exchange(accountId, new ExchangeRequest(amount, sourceCurrency))
+                            .returnResult(Void.class).getStatus();
+                    if (status == HttpStatus.OK) {
+                        successes.incrementAndGet();
+                    } else {
+                        // expected while the USD side is still empty
+                        assertEquals(HttpStatus.BAD_REQUEST, status);
+                    }
+                }
+                return null;
+            });
+        }
+
+        // when
+        var executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            var futures = tasks.stream().map(executor::submit).collect(Collectors.toList());
+            start.countDown();
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // then
+        var account = getAccount(accountId);
+        var expectedPln = INITIAL_BALANCE
+                .subtract(PLN_AMOUNT.multiply(BigDecimal.valueOf(plnToUsd.get())))
+                .add(PLN_AMOUNT.multiply(BigDecimal.valueOf(usdToPln.get())));
+        var expectedUsd = USD_AMOUNT.multiply(BigDecimal.valueOf(plnToUsd.get() - usdToPln.get()));
+        assertEquals(0, expectedPln.compareTo(account.getPlnBalance()));
+        assertEquals(0, expectedUsd.compareTo(account.getUsdBalance()));
+        assertEquals(0, INITIAL_BALANCE.compareTo(
+                account.getPlnBalance().add(account.getUsdBalance().multiply(EXCHANGE_RATE))));
+        assertTrue(account.getUsdBalance().signum() >= 0);
+        assertTrue(account.getPlnBalance().signum() >= 0);
+    }
+
+    @Test
+    void shouldCoalesceConcurrentMissesIntoOneNbpRequest() {
+        // given
+        var requestsBefore = nbpRequests.get();
+
+        // when
+        var snapshots = Flux.range(0, CONCURRENT_MISSES)
+                .flatMap(i -> exchangeRateClient.getCurrentSnapshot())
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        // then
+        assertNotNull(snapshots);
+        assertEquals(CONCURRENT_MISSES, snapshots.size());
+        assertEquals(1, nbpRequests.get() - requestsBefore);
+        assertEquals(1, snapshots.stream().map(RateSnapshot::getVersion).distinct().count());
+    }
+
+    private AccountResponse createAccount(CreateAccountRequest request) {
+        var response = webTestClient.post().uri("/api/accounts")
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(AccountResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(response);
+        return response;
+    }
+
+    private AccountResponse getAccount(UUID accountId) {
+        var response = webTestClient.get().uri("/api/accounts/{id}", accountId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(AccountResponse.class)
+                .returnResult().getResponseBody();
+        assertNotNull(response);
+        return response;
+    }
+
+    private WebTestClient.ResponseSpec exchange(UUID accountId, ExchangeRequest request) {
+        return webTestClient.post().uri("/api/accounts/{id}/exchange", accountId)
+                .bodyValue(request)
+                .exchange();
+    }
+
+    private static synchronized String startNbpServer() {
+        if (nbpServer == null) {
+            try {
+                nbpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            nbpServer.setExecutor(Executors.newCachedThreadPool());
+            nbpServer.createContext(TABLE_PATH, ReactiveExchangeTest::serveTable);
+            nbpServer.start();
+        }
+        return "http://127.0.0.1:" + nbpServer.getAddress().getPort() + TABLE_PATH;
+    }
+
+    private static void serveTable(HttpExchange exchange) throws IOException {
+        nbpRequests.incrementAndGet();
+        try {
+            Thread.sleep(NBP_LATENCY.toMillis());
+            var body = TABLE_BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+}
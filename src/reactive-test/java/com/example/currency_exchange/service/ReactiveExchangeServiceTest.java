@@ -0,0 +1,61 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.mapper.AccountMapper;
+import com.example.currency_exchange.repository.ReactiveAccountRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import java.time.Clock;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReactiveExchangeServiceTest {
+    @Mock
+    private ReactiveAccountRepository accountRepository;
+
+    @Mock
+    private ReactiveExchangeRateClient exchangeRateClient;
+
+    @Mock
+    private ExchangeService exchangeService;
+
+    @Mock
+    private AccountMapper accountMapper;
+
+    @Mock
+    private TransactionalOperator transactionalOperator;
+
+    private ExchangeProperties properties;
+    private ReactiveExchangeService reactiveExchangeService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        properties = new ExchangeProperties();
+        reactiveExchangeService = new ReactiveExchangeService(accountRepository, exchangeRateClient, exchangeService,
+                accountMapper, transactionalOperator, Clock.systemUTC(), properties);
+    }
+
+    @Test
+    void shouldStartWithJpaEngine() {
+        // given
+        properties.getEngine().setMode(ExchangeProperties.EngineMode.JPA);
+
+        // when/then
+        assertDoesNotThrow(reactiveExchangeService::checkEngineMode);
+    }
+
+    @Test
+    void shouldRefuseToStartWithShardedEngine() {
+        // given
+        properties.getEngine().setMode(ExchangeProperties.EngineMode.SHARDED);
+
+        // when/then
+        assertThrows(IllegalStateException.class, reactiveExchangeService::checkEngineMode);
+    }
+}
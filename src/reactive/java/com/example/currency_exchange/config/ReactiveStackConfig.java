@@ -0,0 +1,47 @@
+package com.example.currency_exchange.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+/**
+ * Overrides the auto-configuration choices that the reactive Maven profile's extra dependencies would get wrong.
+ * The JDBC {@code DataSource} backs off once an R2DBC {@code ConnectionFactory} exists, which would leave the
+ * JPA repositories without one on either web stack; {@code @Transactional} would find the R2DBC transaction
+ * manager next to the JPA one and pick neither; and Tomcat, still on the classpath for the servlet
+ * controllers, would otherwise serve WebFlux through its blocking adapter instead of Netty.
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReactiveStackConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // same as the one JPA auto-configures; TransactionalOperator still finds the only reactive manager
+    @Bean
+    @Primary
+    public JpaTransactionManager transactionManager(ObjectProvider<TransactionManagerCustomizers> customizers) {
+        var transactionManager = new JpaTransactionManager();
+        customizers.ifAvailable(transactionManagerCustomizers -> transactionManagerCustomizers.customize(transactionManager));
+        return transactionManager;
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.currency_exchange.controller;
+
+import com.example.currency_exchange.exceptions.InvalidExchangeException;
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.CreateAccountRequest;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.service.ReactiveExchangeService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.util.UUID;
+
+/**
+ * The create, get and exchange operations of {@code currency-exchange-api.yaml} served by WebFlux;
+ * replaces {@link AccountController} when the application runs as a reactive web application. Bulk create,
+ * batch exchange and history are not served, and exchanges carrying an {@code Idempotency-Key} are refused
+ * rather than applied without the deduplication the key promises.
+ */
+@RestController
+@RequestMapping("/api/accounts")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveAccountController {
+    private final ReactiveExchangeService exchangeService;
+
+    @PostMapping
+    public Mono<AccountResponse> createAccount(@Valid @RequestBody CreateAccountRequest request) {
+        return exchangeService.createAccount(request);
+    }
+
+    @GetMapping("/{accountId}")
+    public Mono<AccountResponse> getAccount(@PathVariable UUID accountId) {
+        return exchangeService.getAccount(accountId);
+    }
+
+    @PostMapping("/{accountId}/exchange")
+    public Mono<AccountResponse> exchangeCurrency(@PathVariable UUID accountId,
+                                                  @Valid @RequestBody ExchangeRequest request,
+                                                  @RequestHeader(name = "Idempotency-Key", required = false)
+                                                  String idempotencyKey) {
+        if (idempotencyKey != null) {
+            return Mono.error(new InvalidExchangeException("Idempotency-Key is not supported by the reactive stack"));
+        }
+        return exchangeService.exchangeCurrency(accountId, request);
+    }
+}
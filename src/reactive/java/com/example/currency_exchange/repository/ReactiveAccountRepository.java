@@ -0,0 +1,145 @@
+package com.example.currency_exchange.repository;
+
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * R2DBC access to the tables mapped by {@link Account} and {@link ExchangeLedgerEntry}. The SQL mirrors
+ * {@link AccountBatchRepositoryImpl}: the debit is a conditional UPDATE, so a balance never goes negative.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveAccountRepository {
+    private final DatabaseClient databaseClient;
+
+    public Mono<Void> insert(Account account) {
+        var insertAccount = databaseClient
+                .sql("insert into account (id, first_name, last_name) values (:id, :firstName, :lastName)")
+                .bind("id", toBytes(account.getId()))
+                .bind("firstName", account.getFirstName())
+                .bind("lastName", account.getLastName())
+                .then();
+        var insertBalances = Flux.fromIterable(account.getBalances().entrySet())
+                .concatMap(balance -> insertBalance(account.getId(), balance.getKey(), balance.getValue()))
+                .then();
+        return insertAccount.then(insertBalances);
+    }
+
+    public Mono<Account> findById(UUID accountId) {
+        var account = databaseClient.sql("select first_name, last_name from account where id = :id")
+                .bind("id", toBytes(accountId))
+                .map((row, metadata) -> {
+                    var loaded = new Account();
+                    loaded.setId(accountId);
+                    loaded.setFirstName(row.get("first_name", String.class));
+                    loaded.setLastName(row.get("last_name", String.class));
+                    return loaded;
+                })
+                .one();
+        return account.zipWith(findBalances(accountId), (loaded, balances) -> {
+            loaded.setBalances(balances);
+            return loaded;
+        });
+    }
+
+    /**
+     * Locks the account row for the rest of the transaction; empty if the account does not exist.
+     */
+    public Mono<UUID> lockById(UUID accountId) {
+        return databaseClient.sql("select id from account where id = :id for update")
+                .bind("id", toBytes(accountId))
+                .map((row, metadata) -> accountId)
+                .one();
+    }
+
+    /**
+     * @return {@code 1} if the transfer was applied, {@code 0} if the debited balance was missing or too low
+     */
+    public Mono<Integer> applyTransfer(BalanceTransfer transfer) {
+        var key = toBytes(transfer.getAccountId());
+        return databaseClient.sql("update account_balance set amount = amount - :debit"
+                        + " where account_id = :accountId and currency = :currency and amount >= :debit")
+                .bind("debit", transfer.getDebit())
+                .bind("accountId", key)
+                .bind("currency", transfer.getDebitCurrency())
+                .fetch()
+                .rowsUpdated()
+                .flatMap(debited -> debited == 0 ? Mono.just(0) : credit(transfer).thenReturn(1));
+    }
+
+    public Mono<Void> insertLedgerEntry(ExchangeLedgerEntry entry) {
+        // one sequence value per row: Hibernate's pooled optimizer never hands out ids from a value it did not fetch
+        var insert = databaseClient.sql("insert into exchange_ledger (id, account_id, source_currency, source_amount,"
+                        + " target_currency, target_amount, source_rate, target_rate, snapshot_version, table_no, created_at)"
+                        + " values (next value for exchange_ledger_seq, :accountId, :sourceCurrency, :sourceAmount,"
+                        + " :targetCurrency, :targetAmount, :sourceRate, :targetRate, :snapshotVersion, :tableNo, :createdAt)")
+                .bind("accountId", toBytes(entry.getAccountId()))
+                .bind("sourceCurrency", entry.getSourceCurrency())
+                .bind("sourceAmount", entry.getSourceAmount())
+                .bind("targetCurrency", entry.getTargetCurrency())
+                .bind("targetAmount", entry.getTargetAmount())
+                .bind("sourceRate", entry.getSourceRate())
+                .bind("targetRate", entry.getTargetRate())
+                .bind("snapshotVersion", entry.getSnapshotVersion())
+                // Hibernate stores an Instant as a TIMESTAMP in the JVM time zone
+                .bind("createdAt", LocalDateTime.ofInstant(entry.getCreatedAt(), ZoneId.systemDefault()));
+        insert = entry.getTableNo() == null
+                ? insert.bindNull("tableNo", String.class)
+                : insert.bind("tableNo", entry.getTableNo());
+        return insert.then();
+    }
+
+    private Mono<Void> credit(BalanceTransfer transfer) {
+        return databaseClient.sql("update account_balance set amount = amount + :credit"
+                        + " where account_id = :accountId and currency = :currency")
+                .bind("credit", transfer.getCredit())
+                .bind("accountId", toBytes(transfer.getAccountId()))
+                .bind("currency", transfer.getCreditCurrency())
+                .fetch()
+                .rowsUpdated()
+                // no balance row yet for a currency the account never held
+                .flatMap(credited -> credited == 0
+                        ? insertBalance(transfer.getAccountId(), transfer.getCreditCurrency(), transfer.getCredit())
+                        : Mono.<Void>empty());
+    }
+
+    private Mono<Void> insertBalance(UUID accountId, String currency, BigDecimal amount) {
+        return databaseClient.sql("insert into account_balance (account_id, currency, amount)"
+                        + " values (:accountId, :currency, :amount)")
+                .bind("accountId", toBytes(accountId))
+                .bind("currency", currency)
+                .bind("amount", amount)
+                .then();
+    }
+
+    private Mono<Map<String, BigDecimal>> findBalances(UUID accountId) {
+        return databaseClient.sql("select currency, amount from account_balance where account_id = :accountId")
+                .bind("accountId", toBytes(accountId))
+                .map((row, metadata) -> Map.entry(row.get("currency", String.class), row.get("amount", BigDecimal.class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, HashMap::new);
+    }
+
+    // same 16-byte big-endian layout as Hibernate's binary UUID mapping
+    private static byte[] toBytes(UUID id) {
+        return ByteBuffer.allocate(16)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+}
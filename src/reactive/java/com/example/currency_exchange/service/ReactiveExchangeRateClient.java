@@ -0,0 +1,137 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.NbpProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import javax.naming.ServiceUnavailableException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Non-blocking counterpart of {@link ExchangeRateService}: the table is fetched with {@link WebClient}, so no
+ * thread waits on NBP, and concurrent misses subscribe to the one in-flight fetch instead of issuing their own.
+ */
+@Slf4j
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExchangeRateClient {
+    private final WebClient webClient;
+    private final NbpProperties nbpProperties;
+    private final Clock clock;
+    private final NbpCircuitBreaker circuitBreaker;
+    private final ExchangeMetrics metrics;
+    private final AtomicReference<RateSnapshot> currentSnapshot = new AtomicReference<>();
+    private final AtomicReference<Mono<RateSnapshot>> inFlightFetch = new AtomicReference<>();
+
+    public ReactiveExchangeRateClient(WebClient.Builder webClientBuilder,
+                                      NbpProperties nbpProperties,
+                                      Clock clock,
+                                      NbpCircuitBreaker circuitBreaker,
+                                      ExchangeMetrics metrics) {
+        this.webClient = webClientBuilder.build();
+        this.nbpProperties = nbpProperties;
+        this.clock = clock;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+    }
+
+    public Mono<RateSnapshot> getCurrentSnapshot() {
+        var cached = currentSnapshot.get();
+        var now = clock.instant();
+        if (cached != null && cached.isFresh(now)) {
+            metrics.cacheHit();
+            return Mono.just(cached);
+        }
+        metrics.cacheMiss();
+        return refreshSnapshot().onErrorResume(ServiceUnavailableException.class, ex -> {
+            if (cached != null && isWithinStalenessWindow(cached, now)) {
+                log.warn("Serving stale NBP table {} fetched at {}", cached.getTableNo(), cached.getFetchedAt());
+                metrics.staleServed();
+                return Mono.just(cached);
+            }
+            return Mono.error(ex);
+        });
+    }
+
+    public void evictAll() {
+        currentSnapshot.set(null);
+    }
+
+    private Mono<RateSnapshot> refreshSnapshot() {
+        var inFlight = inFlightFetch.get();
+        if (inFlight != null) {
+            metrics.coalesced();
+            return inFlight;
+        }
+        // cache() shares the single upstream call with every subscriber; only its terminal signal frees the slot
+        var fetch = Mono.defer(this::fetchTable)
+                .map(this::publish)
+                .doFinally(signal -> inFlightFetch.set(null))
+                .cache();
+        var claimed = inFlightFetch.compareAndExchange(null, fetch);
+        if (claimed != null) {
+            metrics.coalesced();
+            return claimed;
+        }
+        return fetch;
+    }
+
+    private RateSnapshot publish(RateTable table) {
+        var fetchedAt = clock.instant();
+        var snapshot = new RateSnapshot(table.getVersion(), table, fetchedAt,
+                fetchedAt.plus(nbpProperties.getCache().getTtl()));
+        currentSnapshot.set(snapshot);
+        return snapshot;
+    }
+
+    private Mono<RateTable> fetchTable() {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            metrics.shortCircuited();
+            return Mono.error(new ServiceUnavailableException("NBP API circuit breaker is open"));
+        }
+        var sample = metrics.start();
+        return webClient.get()
+                .uri(nbpProperties.getApi().getUrl())
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .timeout(nbpProperties.getHttp().getReadTimeout())
+                // the body is already buffered, so the streaming parser only spends CPU here
+                .map(ReactiveExchangeRateClient::parse)
+                .filter(table -> !table.getMids().isEmpty())
+                .switchIfEmpty(Mono.error(() -> new ServiceUnavailableException("Unable to get exchange rate from NBP API")))
+                .doOnNext(table -> {
+                    circuitBreaker.recordSuccess();
+                    metrics.stopUpstream(sample, true);
+                })
+                .onErrorMap(ex -> !(ex instanceof ServiceUnavailableException), ex -> {
+                    log.error("NBP API request failed", ex);
+                    return new ServiceUnavailableException("NBP API service is unavailable");
+                })
+                .doOnError(ex -> {
+                    circuitBreaker.recordFailure();
+                    metrics.stopUpstream(sample, false);
+                });
+    }
+
+    private boolean isWithinStalenessWindow(RateSnapshot cached, Instant now) {
+        return now.isBefore(cached.getExpiresAt().plus(nbpProperties.getCache().getMaxStaleness()));
+    }
+
+    private static RateTable parse(byte[] body) {
+        try {
+            return NbpTableParser.parse(new ByteArrayInputStream(body));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.exceptions.InsufficientBalanceException;
+import com.example.currency_exchange.exceptions.ResourceNotFoundException;
+import com.example.currency_exchange.exceptions.ServiceUnavailableHttpException;
+import com.example.currency_exchange.mapper.AccountMapper;
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.CreateAccountRequest;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.repository.BalanceTransfer;
+import com.example.currency_exchange.repository.ReactiveAccountRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.naming.ServiceUnavailableException;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.UUID;
+
+/**
+ * Create, get and exchange on the reactive stack. Pricing rules are shared with {@link ExchangeService};
+ * the ledger entry is inserted in the exchange's own transaction, as in the synchronous ledger mode.
+ * Exchanges go straight to the database, so the sharded engine cannot run alongside and is rejected at startup.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveExchangeService {
+    private final ReactiveAccountRepository accountRepository;
+    private final ReactiveExchangeRateClient exchangeRateClient;
+    private final ExchangeService exchangeService;
+    private final AccountMapper accountMapper;
+    private final TransactionalOperator transactionalOperator;
+    private final Clock clock;
+    private final ExchangeProperties properties;
+
+    @PostConstruct
+    void checkEngineMode() {
+        if (properties.getEngine().getMode() == ExchangeProperties.EngineMode.SHARDED) {
+            throw new IllegalStateException("exchange.engine.mode=sharded is not supported by the reactive stack");
+        }
+    }
+
+    public Mono<AccountResponse> createAccount(CreateAccountRequest request) {
+        var account = new Account(request.getFirstName(), request.getLastName(), request.getInitialBalance());
+        return accountRepository.insert(account)
+                .as(transactionalOperator::transactional)
+                .then(Mono.fromCallable(() -> accountMapper.toResponse(account)));
+    }
+
+    public Mono<AccountResponse> getAccount(UUID accountId) {
+        return accountRepository.findById(accountId)
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException("Account not found")))
+                .map(accountMapper::toResponse);
+    }
+
+    public Mono<AccountResponse> exchangeCurrency(UUID accountId, ExchangeRequest request) {
+        var sourceCurrency = request.getSourceCurrency();
+        return Mono.fromCallable(() -> exchangeService.resolveTargetCurrency(sourceCurrency, request.getTargetCurrency()))
+                // the rates resolve before the transaction opens, so a slow NBP call never holds a connection
+                .flatMap(targetCurrency -> exchangeRateClient.getCurrentSnapshot()
+                        .onErrorMap(ServiceUnavailableException.class,
+                                ex -> new ServiceUnavailableHttpException(ex.getMessage()))
+                        .flatMap(snapshot -> {
+                            var sourceRate = rate(snapshot, sourceCurrency);
+                            var targetRate = rate(snapshot, targetCurrency);
+                            var amount = request.getAmount();
+                            var transfer = new BalanceTransfer(accountId, sourceCurrency, amount, targetCurrency,
+                                    ExchangeService.convert(amount, snapshot, sourceCurrency, targetCurrency));
+                            var ledgerEntry = new ExchangeLedgerEntry(accountId,
+                                    sourceCurrency, amount, targetCurrency, transfer.getCredit(),
+                                    sourceRate, targetRate,
+                                    snapshot.getVersion(), snapshot.getTableNo(), clock.instant());
+                            return applyExchange(transfer, ledgerEntry)
+                                    .map(account -> accountMapper.toResponse(account)
+                                            .pricedWith(accountMapper.toPricingSnapshot(snapshot)));
+                        }));
+    }
+
+    private Mono<Account> applyExchange(BalanceTransfer transfer, ExchangeLedgerEntry ledgerEntry) {
+        var accountId = transfer.getAccountId();
+        return accountRepository.lockById(accountId)
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException("Account not found")))
+                .then(accountRepository.applyTransfer(transfer))
+                .flatMap(updated -> updated == 0
+                        ? Mono.<Void>error(new InsufficientBalanceException(
+                                "Insufficient " + transfer.getDebitCurrency() + " balance"))
+                        : accountRepository.insertLedgerEntry(ledgerEntry))
+                // the row is still locked, so this read returns exactly what the transfer left behind
+                .then(accountRepository.findById(accountId))
+                .as(transactionalOperator::transactional);
+    }
+
+    private static BigDecimal rate(RateSnapshot snapshot, String currency) {
+        try {
+            return ExchangeRateService.getRate(snapshot, currency);
+        } catch (ServiceUnavailableException ex) {
+            throw new ServiceUnavailableHttpException(ex.getMessage());
+        }
+    }
+}
@@ -1,42 +1,55 @@
 package com.example.currency_exchange;
 
-import com.example.currency_exchange.dto.ExchangeRateResponse;
-import com.example.currency_exchange.dto.Rate;
 import com.example.currency_exchange.model.*;
 import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.ExchangeLedgerRepository;
+import com.example.currency_exchange.service.ExchangeLedgerWriter;
 import com.example.currency_exchange.service.ExchangeRateService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.OngoingStubbing;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
-import org.springframework.cache.CacheManager;
-import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
 import javax.naming.ServiceUnavailableException;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.times;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
 @AutoConfigureMockMvc
-@EnableCaching
 class CurrencyExchangeApplicationTests {
-    private static final String NBP_USD_RATE_URL = "http://api.nbp.pl/api/exchangerates/rates/A/USD";
+    private static final String NBP_TABLE_URL = "http://api.nbp.pl/api/exchangerates/tables/A";
     private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1000);
     private static final BigDecimal EXCHANGE_RATE = BigDecimal.valueOf(4.0);
     private static final String TEST_FIRST_NAME = "Jan";
@@ -52,18 +65,21 @@ class CurrencyExchangeApplicationTests {
     private ExchangeRateService exchangeRateService;
 
     @Autowired
-    private CacheManager cacheManager;
+    private ExchangeLedgerRepository ledgerRepository;
+
+    @Autowired
+    private ExchangeLedgerWriter ledgerWriter;
 
     @MockBean
     private RestTemplate restTemplate;
 
-    private ExchangeRateResponse mockExchangeRateResponse;
+    private String nbpTableBody;
 
     @BeforeEach
     void setUp() {
-        mockExchangeRateResponse = createMockExchangeRateResponse(EXCHANGE_RATE);
+        nbpTableBody = createNbpTableBody(EXCHANGE_RATE);
         Mockito.reset(restTemplate);
-        cacheManager.getCache("exchangeRates").clear();
+        exchangeRateService.evictAll();
     }
 
 
@@ -81,7 +97,33 @@ class CurrencyExchangeApplicationTests {
 
         var account = accountRepository.findById(response.getBody().getId());
         assertTrue(account.isPresent());
-        assertEquals(INITIAL_BALANCE.setScale(2), account.get().getPlnBalance());
+        assertEquals(INITIAL_BALANCE.setScale(2), account.get().getBalance("PLN"));
+    }
+
+    @Test
+    void shouldCreateAccountsInBulkFromNdjson() {
+        // given
+        var countBefore = accountRepository.count();
+        var body = String.join("\n",
+                "{\"firstName\":\"Jan\",\"lastName\":\"Kowalski\",\"initialBalance\":1000}",
+                "{\"firstName\":\"Anna\",\"lastName\":\"Nowak\",\"initialBalance\":-5}",
+                "{\"firstName\":\"Piotr\",\"lastName\":\"Zieliński\",\"initialBalance\":250}");
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+
+        // when
+        var response = testRestTemplate.postForEntity(
+                "/api/accounts/bulk",
+                new HttpEntity<>(body, headers),
+                BulkCreateAccountsResponse.class
+        );
+
+        // then
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getBody());
+        assertEquals(2L, response.getBody().getCreated());
+        assertEquals(1L, response.getBody().getRejected());
+        assertEquals(countBefore + 2, accountRepository.count());
     }
 
     @Test
@@ -99,11 +141,34 @@ class CurrencyExchangeApplicationTests {
     }
 
     @Test
-    void shouldExchangeCurrency() {
+    void shouldReturnBalancesOfExchangeOnceItCompleted() {
+        // given
+        var accountId = createTestAccount();
+        setupMockNbpResponse();
+        var cached = testRestTemplate.getForEntity("/api/accounts/" + accountId, AccountResponse.class);
+        assertEquals(HttpStatus.OK, cached.getStatusCode());
+
+        // when
+        var exchange = testRestTemplate.postForEntity(
+                "/api/accounts/" + accountId + "/exchange",
+                new ExchangeRequest(BigDecimal.valueOf(100), "PLN"),
+                AccountResponse.class
+        );
+        var response = testRestTemplate.getForEntity("/api/accounts/" + accountId, AccountResponse.class);
+
+        // then
+        assertEquals(HttpStatus.OK, exchange.getStatusCode());
+        assertNotNull(response.getBody());
+        assertEquals(0, BigDecimal.valueOf(900).compareTo(response.getBody().getPlnBalance()));
+        assertEquals(0, BigDecimal.valueOf(25).compareTo(response.getBody().getUsdBalance()));
+    }
+
+    @Test
+    void shouldExchangeCurrency() throws InterruptedException {
         // given
         var accountId = createTestAccount();
         setupMockNbpResponse();
-        var exchangeRequest = new ExchangeRequest(BigDecimal.valueOf(100), ExchangeRequest.SourceCurrencyEnum.PLN);
+        var exchangeRequest = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
 
         // when
         var response = testRestTemplate.postForEntity(
@@ -115,11 +180,203 @@ class CurrencyExchangeApplicationTests {
         // then
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertNotNull(response.getBody());
+        assertEquals("010/A/NBP/2024", response.getBody().getPricedWith().getTableNo());
 
         var account = accountRepository.findById(response.getBody().getId());
         assertTrue(account.isPresent());
-        assertEquals(BigDecimal.valueOf(900).setScale(2), account.get().getPlnBalance());
-        assertEquals(BigDecimal.valueOf(25).setScale(2), account.get().getUsdBalance());
+        assertEquals(BigDecimal.valueOf(900).setScale(2), account.get().getBalance("PLN"));
+        assertEquals(BigDecimal.valueOf(25).setScale(2), account.get().getBalance("USD"));
+
+        assertTrue(ledgerWriter.flush(Duration.ofSeconds(5)));
+        var ledger = ledgerRepository.findByAccountIdOrderByCreatedAtAscIdAsc(accountId);
+        assertEquals(1, ledger.size());
+        assertEquals("PLN", ledger.get(0).getSourceCurrency());
+        assertEquals(BigDecimal.valueOf(25).setScale(2), ledger.get(0).getTargetAmount());
+        assertEquals("010/A/NBP/2024", ledger.get(0).getTableNo());
+    }
+
+    @Test
+    void shouldApplyExchangeRetriedWithSameIdempotencyKeyOnce() {
+        // given
+        var accountId = createTestAccount();
+        setupMockNbpResponse();
+        var headers = new HttpHeaders();
+        headers.set("Idempotency-Key", UUID.randomUUID().toString());
+        var exchange = new HttpEntity<>(new ExchangeRequest(BigDecimal.valueOf(100), "PLN"), headers);
+        var first = testRestTemplate.postForEntity("/api/accounts/" + accountId + "/exchange", exchange, AccountResponse.class);
+
+        // when
+        var retry = testRestTemplate.postForEntity("/api/accounts/" + accountId + "/exchange", exchange, AccountResponse.class);
+        var reused = testRestTemplate.postForEntity("/api/accounts/" + accountId + "/exchange",
+                new HttpEntity<>(new ExchangeRequest(BigDecimal.valueOf(200), "PLN"), headers), ErrorResponse.class);
+
+        // then
+        assertEquals(HttpStatus.OK, retry.getStatusCode());
+        assertEquals(first.getBody(), retry.getBody());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, reused.getStatusCode());
+        assertNotNull(reused.getBody());
+        assertEquals("IDEMPOTENCY_KEY_REUSED", reused.getBody().getCode());
+        var account = accountRepository.findById(accountId).orElseThrow();
+        assertEquals(BigDecimal.valueOf(900).setScale(2), account.getBalance("PLN"));
+        verify(restTemplate, times(1)).execute(
+                eq(NBP_TABLE_URL), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class));
+    }
+
+    @Test
+    void shouldPageThroughTransactionHistoryNewestFirst() throws InterruptedException {
+        // given
+        var accountId = createTestAccount();
+        setupMockNbpResponse();
+        for (var amount : List.of(10, 20, 30)) {
+            var response = testRestTemplate.postForEntity(
+                    "/api/accounts/" + accountId + "/exchange",
+                    new ExchangeRequest(BigDecimal.valueOf(amount), "PLN"),
+                    AccountResponse.class
+            );
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+        }
+        assertTrue(ledgerWriter.flush(Duration.ofSeconds(5)));
+
+        // when
+        var firstPage = testRestTemplate.getForEntity(
+                "/api/accounts/" + accountId + "/transactions?limit=2", TransactionHistoryResponse.class);
+        assertNotNull(firstPage.getBody());
+        var secondPage = testRestTemplate.getForEntity(
+                "/api/accounts/" + accountId + "/transactions?limit=2&cursor=" + firstPage.getBody().getNextCursor(),
+                TransactionHistoryResponse.class);
+
+        // then
+        assertEquals(HttpStatus.OK, firstPage.getStatusCode());
+        assertEquals(2, firstPage.getBody().getItems().size());
+        assertEquals(BigDecimal.valueOf(30).setScale(2), firstPage.getBody().getItems().get(0).getSourceAmount());
+        assertEquals(BigDecimal.valueOf(20).setScale(2), firstPage.getBody().getItems().get(1).getSourceAmount());
+
+        assertEquals(HttpStatus.OK, secondPage.getStatusCode());
+        assertNotNull(secondPage.getBody());
+        assertEquals(1, secondPage.getBody().getItems().size());
+        assertEquals(BigDecimal.valueOf(10).setScale(2), secondPage.getBody().getItems().get(0).getSourceAmount());
+        assertNull(secondPage.getBody().getNextCursor());
+    }
+
+    @Test
+    void shouldExchangeBetweenForeignCurrencies() {
+        // given
+        var accountId = createTestAccount();
+        setupMockNbpResponse();
+        testRestTemplate.postForEntity(
+                "/api/accounts/" + accountId + "/exchange",
+                new ExchangeRequest(BigDecimal.valueOf(100), "PLN"),
+                AccountResponse.class
+        );
+        var exchangeRequest = new ExchangeRequest(BigDecimal.valueOf(10), "USD").targetCurrency("EUR");
+
+        // when
+        var response = testRestTemplate.postForEntity(
+                "/api/accounts/" + accountId + "/exchange",
+                exchangeRequest,
+                AccountResponse.class
+        );
+
+        // then
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getBody());
+        assertEquals(0, new BigDecimal("9.09").compareTo(response.getBody().getBalances().get("EUR")));
+
+        var account = accountRepository.findById(accountId).orElseThrow();
+        assertEquals(BigDecimal.valueOf(900).setScale(2), account.getBalance("PLN"));
+        assertEquals(BigDecimal.valueOf(15).setScale(2), account.getBalance("USD"));
+        assertEquals(new BigDecimal("9.09"), account.getBalance("EUR"));
+    }
+
+    @Test
+    void shouldRejectExchangeToUnsupportedCurrency() {
+        // given
+        var accountId = createTestAccount();
+        var exchangeRequest = new ExchangeRequest(BigDecimal.valueOf(100), "PLN").targetCurrency("XYZ");
+
+        // when
+        var response = testRestTemplate.postForEntity(
+                "/api/accounts/" + accountId + "/exchange",
+                exchangeRequest,
+                ErrorResponse.class
+        );
+
+        // then
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertNotNull(response.getBody());
+        assertEquals("Invalid exchange request", response.getBody().getMessage());
+        verifyNoInteractions(restTemplate);
+    }
+
+    @Test
+    void shouldFetchExchangeRateOutsideDatabaseTransaction() {
+        // given
+        var accountId = createTestAccount();
+        var transactionActiveDuringFetch = new AtomicBoolean(true);
+        whenNbpTableFetched()
+                .thenAnswer(invocation -> {
+                    transactionActiveDuringFetch.set(TransactionSynchronizationManager.isActualTransactionActive());
+                    return extractTable(invocation);
+                });
+        var exchangeRequest = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+
+        // when
+        var response = testRestTemplate.postForEntity(
+                "/api/accounts/" + accountId + "/exchange",
+                exchangeRequest,
+                AccountResponse.class
+        );
+
+        // then
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertFalse(transactionActiveDuringFetch.get());
+    }
+
+    @Test
+    void shouldExchangeCurrencyInBatchWithPerItemResults() {
+        // given
+        var firstAccountId = createTestAccount();
+        var secondAccountId = createTestAccount();
+        var missingAccountId = UUID.randomUUID();
+        setupMockNbpResponse();
+        var batchRequest = new BatchExchangeRequest(List.of(
+                new BatchExchangeItem(firstAccountId, BigDecimal.valueOf(100), "PLN"),
+                new BatchExchangeItem(secondAccountId, BigDecimal.valueOf(400), "PLN"),
+                new BatchExchangeItem(missingAccountId, BigDecimal.valueOf(100), "PLN"),
+                new BatchExchangeItem(firstAccountId, BigDecimal.valueOf(50), "USD"),
+                new BatchExchangeItem(firstAccountId, BigDecimal.valueOf(10), "USD")
+        ));
+
+        // when
+        var response = testRestTemplate.postForEntity(
+                "/api/accounts/exchange/batch",
+                batchRequest,
+                BatchExchangeResponse.class
+        );
+
+        // then
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        var body = response.getBody();
+        assertNotNull(body);
+        assertEquals(3, body.getSucceeded());
+        assertEquals(2, body.getFailed());
+        var results = body.getResults();
+        assertEquals(BatchExchangeResult.StatusEnum.SUCCEEDED, results.get(0).getStatus());
+        assertEquals(BatchExchangeResult.StatusEnum.SUCCEEDED, results.get(1).getStatus());
+        assertEquals(BatchExchangeResult.StatusEnum.FAILED, results.get(2).getStatus());
+        assertEquals("NOT_FOUND", results.get(2).getError().getCode());
+        assertEquals(BatchExchangeResult.StatusEnum.FAILED, results.get(3).getStatus());
+        assertEquals("VALIDATION_ERROR", results.get(3).getError().getCode());
+        assertEquals(BatchExchangeResult.StatusEnum.SUCCEEDED, results.get(4).getStatus());
+
+        var first = accountRepository.findById(firstAccountId).orElseThrow();
+        assertEquals(BigDecimal.valueOf(940).setScale(2), first.getBalance("PLN"));
+        assertEquals(BigDecimal.valueOf(15).setScale(2), first.getBalance("USD"));
+        var second = accountRepository.findById(secondAccountId).orElseThrow();
+        assertEquals(BigDecimal.valueOf(600).setScale(2), second.getBalance("PLN"));
+        assertEquals(BigDecimal.valueOf(100).setScale(2), second.getBalance("USD"));
+        verify(restTemplate, times(1)).execute(
+                eq(NBP_TABLE_URL), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class));
     }
 
     @Test
@@ -128,15 +385,14 @@ class CurrencyExchangeApplicationTests {
         setupMockNbpResponse();
 
         // when
-        var firstCall = exchangeRateService.getCurrentRate(CurrencyEnum.USD);
-        var secondCall = exchangeRateService.getCurrentRate(CurrencyEnum.USD);
+        var firstCall = exchangeRateService.getCurrentRate("USD");
+        var secondCall = exchangeRateService.getCurrentRate("USD");
 
         // then
         assertEquals(EXCHANGE_RATE, firstCall);
         assertEquals(EXCHANGE_RATE, secondCall);
-        verify(restTemplate, times(1)).getForObject(
-                eq(NBP_USD_RATE_URL),
-                eq(ExchangeRateResponse.class));
+        verify(restTemplate, times(1)).execute(
+                eq(NBP_TABLE_URL), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class));
     }
 
     @Test
@@ -188,7 +444,7 @@ class CurrencyExchangeApplicationTests {
         setupMockNbpResponse();
         var exchangeRequest = new ExchangeRequest(
                 BigDecimal.valueOf(2000),
-                ExchangeRequest.SourceCurrencyEnum.PLN
+                "PLN"
         );
 
         // when
@@ -208,14 +464,12 @@ class CurrencyExchangeApplicationTests {
     void shouldHandleExchangeRateServiceFailure() {
         // given
         var accountId = createTestAccount();
-        when(restTemplate.getForObject(
-                eq(NBP_USD_RATE_URL),
-                eq(ExchangeRateResponse.class)))
+        whenNbpTableFetched()
                 .thenThrow(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR));
 
         var exchangeRequest = new ExchangeRequest(
                 BigDecimal.valueOf(100),
-                ExchangeRequest.SourceCurrencyEnum.PLN
+                "PLN"
         );
 
         // when
@@ -238,7 +492,7 @@ class CurrencyExchangeApplicationTests {
         setupMockNbpResponse();
         var exchangeRequest = new ExchangeRequest(
                 BigDecimal.ZERO,
-                ExchangeRequest.SourceCurrencyEnum.PLN
+                "PLN"
         );
 
         // when
@@ -261,7 +515,7 @@ class CurrencyExchangeApplicationTests {
         setupMockNbpResponse();
         var exchangeRequest = new ExchangeRequest(
                 BigDecimal.valueOf(-100),
-                ExchangeRequest.SourceCurrencyEnum.PLN
+                "PLN"
         );
 
         // when
@@ -288,23 +542,25 @@ class CurrencyExchangeApplicationTests {
         return response.getBody().getId();
     }
 
-    private ExchangeRateResponse createMockExchangeRateResponse(BigDecimal rate) {
-        var rateObj = new Rate();
-        rateObj.setMid(rate);
+    private String createNbpTableBody(BigDecimal usdMid) {
+        return "[{\"table\":\"A\",\"no\":\"010/A/NBP/2024\",\"effectiveDate\":\"2024-01-16\",\"rates\":["
+                + "{\"currency\":\"dolar amerykański\",\"code\":\"USD\",\"mid\":" + usdMid + "},"
+                + "{\"currency\":\"euro\",\"code\":\"EUR\",\"mid\":4.40}]}]";
+    }
 
-        var response = new ExchangeRateResponse();
-        response.setTable("A");
-        response.setCurrency("dolar amerykański");
-        response.setCode("USD");
-        response.setRates(Collections.singletonList(rateObj));
+    private OngoingStubbing<Object> whenNbpTableFetched() {
+        return when(restTemplate.execute(
+                eq(NBP_TABLE_URL), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class)));
+    }
 
-        return response;
+    // runs the service's own extractor, so the table JSON goes through the real streaming parser
+    private Object extractTable(InvocationOnMock invocation) throws IOException {
+        var response = new MockClientHttpResponse(nbpTableBody.getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+        return invocation.<ResponseExtractor<?>>getArgument(3).extractData(response);
     }
 
     private void setupMockNbpResponse() {
-        when(restTemplate.getForObject(
-                eq(NBP_USD_RATE_URL),
-                eq(ExchangeRateResponse.class)))
-                .thenReturn(mockExchangeRateResponse);
+        whenNbpTableFetched()
+                .thenAnswer(this::extractTable);
     }
-}
\ No newline at end of file
+}
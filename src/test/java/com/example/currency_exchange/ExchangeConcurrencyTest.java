@@ -0,0 +1,126 @@
+package com.example.currency_exchange;
+
+import com.example.currency_exchange.exceptions.InsufficientBalanceException;
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.service.ExchangeRateService;
+import com.example.currency_exchange.service.ExchangeService;
+import com.example.currency_exchange.service.RateTable;
+import com.example.currency_exchange.service.ShardedAccountEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class ExchangeConcurrencyTest {
+    private static final BigDecimal EXCHANGE_RATE = BigDecimal.valueOf(4);
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+    private static final BigDecimal PLN_AMOUNT = BigDecimal.TEN;
+    private static final BigDecimal USD_AMOUNT = new BigDecimal("2.50");
+    private static final int THREADS = 8;
+    private static final int EXCHANGES_PER_THREAD = 50;
+
+    @Autowired
+    private ExchangeService exchangeService;
+
+    @Autowired
+    private ExchangeRateService exchangeRateService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private ShardedAccountEngine accountEngine;
+
+    @MockBean
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() {
+        var table = new RateTable("010/A/NBP/2024", LocalDate.of(2024, 1, 16), Map.of("USD", EXCHANGE_RATE));
+        when(restTemplate.execute(anyString(), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class)))
+                .thenReturn(table);
+        exchangeRateService.evictAll();
+    }
+
+    @Test
+    void shouldConserveBalancesUnderConcurrentExchangesOnSameAccount() throws Exception {
+        // given
+        var accountId = accountRepository.save(new Account("Jan", "Kowalski", INITIAL_BALANCE)).getId();
+        var plnToUsd = new AtomicInteger();
+        var usdToPln = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            var plnSource = t % 2 == 0;
+            var sourceCurrency = plnSource ? "PLN" : "USD";
+            var amount = plnSource ? PLN_AMOUNT : USD_AMOUNT;
+            var successes = plnSource ? plnToUsd : usdToPln;
+            tasks.add(() -> {
+                start.await();
+                for (int i = 0; i < EXCHANGES_PER_THREAD; i++) {
+                    try {
+                        exchangeService.exchangeCurrency(accountId, new ExchangeRequest(amount, sourceCurrency));
+                        successes.incrementAndGet();
+                    } catch (InsufficientBalanceException ex) {
+                        // expected while the USD side is still empty
+                    }
+                }
+                return null;
+            });
+        }
+
+        // when
+        var executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            var futures = tasks.stream().map(executor::submit).collect(Collectors.toList());
+            start.countDown();
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // then
+        assertTrue(accountEngine.flush(Duration.ofSeconds(5)));
+        var account = accountRepository.findById(accountId).orElseThrow();
+        var expectedPln = INITIAL_BALANCE
+                .subtract(PLN_AMOUNT.multiply(BigDecimal.valueOf(plnToUsd.get())))
+                .add(PLN_AMOUNT.multiply(BigDecimal.valueOf(usdToPln.get())));
+        var expectedUsd = USD_AMOUNT.multiply(BigDecimal.valueOf(plnToUsd.get() - usdToPln.get()));
+        assertEquals(0, expectedPln.compareTo(account.getBalance("PLN")));
+        assertEquals(0, expectedUsd.compareTo(account.getBalance("USD")));
+        assertEquals(0, INITIAL_BALANCE.compareTo(
+                account.getBalance("PLN").add(account.getBalance("USD").multiply(EXCHANGE_RATE))));
+        assertTrue(account.getBalance("USD").signum() >= 0);
+        assertTrue(account.getBalance("PLN").signum() >= 0);
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.currency_exchange;
+
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Same conservation checks with lazy bean initialization and the deferred JPA bootstrap of the fast-startup profile.
+ */
+@ActiveProfiles("fast-startup")
+class FastStartupProfileTest extends ExchangeConcurrencyTest {
+}
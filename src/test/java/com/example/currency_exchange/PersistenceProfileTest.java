@@ -0,0 +1,31 @@
+package com.example.currency_exchange;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Same conservation checks on the prod profile's settings, against the schema created by the Flyway migrations
+ * rather than by Hibernate. Only the database URL is swapped for an in-memory one.
+ */
+@ActiveProfiles("prod")
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:prod-schema;DB_CLOSE_DELAY=-1")
+class PersistenceProfileTest extends ExchangeConcurrencyTest {
+
+    @Autowired
+    private Flyway flyway;
+
+    @Test
+    void shouldCreateSchemaWithMigrations() {
+        // when
+        var current = flyway.info().current();
+
+        // then
+        assertEquals("3", current.getVersion().getVersion());
+        assertEquals(0, flyway.info().pending().length);
+    }
+}
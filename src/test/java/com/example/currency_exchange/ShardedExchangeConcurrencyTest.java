@@ -0,0 +1,13 @@
+package com.example.currency_exchange;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Same conservation checks with exchanges applied by the in-memory shards and written back asynchronously.
+ */
+@TestPropertySource(properties = {
+        "exchange.engine.mode=sharded",
+        "exchange.engine.shards=4"
+})
+class ShardedExchangeConcurrencyTest extends ExchangeConcurrencyTest {
+}
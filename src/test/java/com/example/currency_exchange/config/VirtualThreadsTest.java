@@ -0,0 +1,37 @@
+package com.example.currency_exchange.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadsTest {
+
+    @Test
+    void shouldRunTasksOnNamedVirtualThreads() throws Exception {
+        // given
+        assumeTrue(VirtualThreads.isSupported());
+        var executor = VirtualThreads.newThreadPerTaskExecutor("test-virtual-");
+
+        // when
+        var thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // then
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+        assertTrue(thread.getName().startsWith("test-virtual-"));
+    }
+
+    @Test
+    void shouldRefuseVirtualModeOnOlderJdk() {
+        // given
+        assumeFalse(VirtualThreads.isSupported());
+
+        // when/then
+        assertThrows(IllegalStateException.class, () -> VirtualThreads.newThreadPerTaskExecutor("test-virtual-"));
+    }
+}
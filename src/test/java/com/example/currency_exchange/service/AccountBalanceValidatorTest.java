@@ -2,7 +2,6 @@ package com.example.currency_exchange.service;
 
 import com.example.currency_exchange.exceptions.InsufficientBalanceException;
 import com.example.currency_exchange.model.Account;
-import com.example.currency_exchange.model.CurrencyEnum;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -32,13 +31,13 @@ class AccountBalanceValidatorTest {
     @ParameterizedTest(name = "should validate that balance {1} is less than available {2} when {0} amount is requested")
     @MethodSource("validParameters")
     void shouldValidateWhenBalanceIsSufficient(
-            CurrencyEnum currency,
+            String currency,
             BigDecimal amount,
             BigDecimal availableBalance
     ) {
         // given
-        account.setPlnBalance(availableBalance);
-        account.setUsdBalance(availableBalance);
+        account.getBalances().put("PLN", availableBalance);
+        account.getBalances().put("USD", availableBalance);
 
         // when/then
         assertDoesNotThrow(() ->
@@ -48,25 +47,25 @@ class AccountBalanceValidatorTest {
 
     private static Stream<Arguments> validParameters() {
         return Stream.of(
-                arguments(CurrencyEnum.PLN, BigDecimal.valueOf(999.99), PLN_BALANCE),
-                arguments(CurrencyEnum.PLN, BigDecimal.ZERO, PLN_BALANCE),
-                arguments(CurrencyEnum.PLN, PLN_BALANCE, PLN_BALANCE),
-                arguments(CurrencyEnum.USD, BigDecimal.valueOf(99.99), USD_BALANCE),
-                arguments(CurrencyEnum.USD, BigDecimal.ZERO, USD_BALANCE),
-                arguments(CurrencyEnum.USD, USD_BALANCE, USD_BALANCE)
+                arguments("PLN", BigDecimal.valueOf(999.99), PLN_BALANCE),
+                arguments("PLN", BigDecimal.ZERO, PLN_BALANCE),
+                arguments("PLN", PLN_BALANCE, PLN_BALANCE),
+                arguments("USD", BigDecimal.valueOf(99.99), USD_BALANCE),
+                arguments("USD", BigDecimal.ZERO, USD_BALANCE),
+                arguments("USD", USD_BALANCE, USD_BALANCE)
         );
     }
 
     @ParameterizedTest(name = "should throw exception when the amount {1} in {0} exceeds the balance {2}")
     @MethodSource("invalidParameters")
     void shouldThrowExceptionWhenBalanceIsInsufficient(
-            CurrencyEnum currency,
+            String currency,
             BigDecimal amount,
             BigDecimal availableBalance
     ) {
         // given
-        account.setPlnBalance(availableBalance);
-        account.setUsdBalance(availableBalance);
+        account.getBalances().put("PLN", availableBalance);
+        account.getBalances().put("USD", availableBalance);
 
         // when/then
         var exception = assertThrows(
@@ -79,52 +78,66 @@ class AccountBalanceValidatorTest {
 
     private static Stream<Arguments> invalidParameters() {
         return Stream.of(
-                arguments(CurrencyEnum.PLN, BigDecimal.valueOf(1000.01), PLN_BALANCE),
-                arguments(CurrencyEnum.PLN, BigDecimal.valueOf(9999.99), PLN_BALANCE),
-                arguments(CurrencyEnum.USD, BigDecimal.valueOf(100.01), USD_BALANCE),
-                arguments(CurrencyEnum.USD, BigDecimal.valueOf(999.99), USD_BALANCE)
+                arguments("PLN", BigDecimal.valueOf(1000.01), PLN_BALANCE),
+                arguments("PLN", BigDecimal.valueOf(9999.99), PLN_BALANCE),
+                arguments("USD", BigDecimal.valueOf(100.01), USD_BALANCE),
+                arguments("USD", BigDecimal.valueOf(999.99), USD_BALANCE)
         );
     }
 
     @Test
     void shouldThrowExceptionWhenPlnBalanceIsZeroAndTryingToValidate() {
         // given
-        account.setPlnBalance(BigDecimal.ZERO);
+        account.getBalances().put("PLN", BigDecimal.ZERO);
         var amount = BigDecimal.ONE;
 
         // when/then
         var exception = assertThrows(
                 InsufficientBalanceException.class,
-                () -> sut.validateBalance(account, amount, CurrencyEnum.PLN)
+                () -> sut.validateBalance(account, amount, "PLN")
         );
 
-        assertExceptionMessage(exception, CurrencyEnum.PLN);
+        assertExceptionMessage(exception, "PLN");
     }
 
     @Test
     void shouldThrowExceptionWhenUsdBalanceIsZeroAndTryingToValidate() {
         // given
-        account.setUsdBalance(BigDecimal.ZERO);
+        account.getBalances().put("USD", BigDecimal.ZERO);
         var amount = BigDecimal.ONE;
 
         // when/then
         var exception = assertThrows(
                 InsufficientBalanceException.class,
-                () -> sut.validateBalance(account, amount, CurrencyEnum.USD)
+                () -> sut.validateBalance(account, amount, "USD")
         );
 
-        assertExceptionMessage(exception, CurrencyEnum.USD);
+        assertExceptionMessage(exception, "USD");
+    }
+
+    @Test
+    void shouldThrowExceptionWhenAccountHasNoBalanceInCurrency() {
+        // given
+        var amount = BigDecimal.ONE;
+
+        // when/then
+        var exception = assertThrows(
+                InsufficientBalanceException.class,
+                () -> sut.validateBalance(account, amount, "EUR")
+        );
+
+        assertExceptionMessage(exception, "EUR");
     }
 
     private Account prepareAccount() {
         var account = new Account();
-        account.setPlnBalance(PLN_BALANCE);
-        account.setUsdBalance(USD_BALANCE);
+        account.getBalances().put("PLN", PLN_BALANCE);
+        account.getBalances().put("USD", USD_BALANCE);
         return account;
     }
 
-    private void assertExceptionMessage(InsufficientBalanceException exception, CurrencyEnum currency) {
-        var expectedMessage = String.format("Insufficient %s balance", currency.name());
+    private void assertExceptionMessage(InsufficientBalanceException exception, String currency) {
+        var expectedMessage = String.format("Insufficient %s balance", currency);
         assertEquals(expectedMessage, exception.getMessage());
     }
 }
\ No newline at end of file
@@ -1,23 +1,38 @@
 package com.example.currency_exchange.service;
 
+import com.example.currency_exchange.config.AccountBulkProperties;
+import com.example.currency_exchange.config.AccountCacheProperties;
 import com.example.currency_exchange.exceptions.ResourceNotFoundException;
 import com.example.currency_exchange.mapper.AccountMapper;
 import com.example.currency_exchange.model.Account;
 import com.example.currency_exchange.model.AccountResponse;
 import com.example.currency_exchange.model.CreateAccountRequest;
 import com.example.currency_exchange.repository.AccountRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -33,6 +48,15 @@ class AccountServiceTest {
     @Mock
     private AccountMapper accountMapper;
 
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Spy
+    private AccountCache accountCache = new AccountCache(new AccountCacheProperties(), new SimpleMeterRegistry());
+
+    @Mock
+    private ShardedAccountEngine engine;
+
     @InjectMocks
     private AccountService sut;
 
@@ -83,6 +107,80 @@ class AccountServiceTest {
         assertEquals(expectedResponse, result);
     }
 
+    @Test
+    void shouldPreferBalancesHeldByEngine() {
+        // given
+        var accountId = UUID.randomUUID();
+        var account = prepareAccount();
+        var expectedResponse = prepareAccountResponse();
+
+        when(engine.find(accountId)).thenReturn(Optional.of(account));
+        when(accountMapper.toResponse(account)).thenReturn(expectedResponse);
+
+        // when
+        var result = sut.getAccount(accountId);
+
+        // then
+        verifyNoInteractions(accountRepository);
+        assertEquals(expectedResponse, result);
+    }
+
+    @Test
+    void shouldServeRepeatedReadsFromCache() {
+        // given
+        var accountId = UUID.randomUUID();
+        var account = prepareAccount();
+        var expectedResponse = prepareAccountResponse();
+
+        when(accountRepository.findById(accountId)).thenReturn(Optional.of(account));
+        when(accountMapper.toResponse(account)).thenReturn(expectedResponse);
+
+        // when
+        var first = sut.getAccount(accountId);
+        first.setPlnBalance(BigDecimal.ZERO);
+        var second = sut.getAccount(accountId);
+
+        // then
+        verify(accountRepository, times(1)).findById(accountId);
+        assertEquals(expectedResponse, second);
+    }
+
+    @Test
+    void shouldReloadAccountAfterEviction() {
+        // given
+        var accountId = UUID.randomUUID();
+        var account = prepareAccount();
+
+        when(accountRepository.findById(accountId)).thenReturn(Optional.of(account));
+        when(accountMapper.toResponse(account)).thenReturn(prepareAccountResponse());
+        sut.getAccount(accountId);
+
+        // when
+        accountCache.evict(accountId);
+        sut.getAccount(accountId);
+
+        // then
+        verify(accountRepository, times(2)).findById(accountId);
+    }
+
+    @Test
+    void shouldCacheCreatedAccount() {
+        // given
+        var account = prepareAccount();
+        var createdResponse = prepareAccountResponse();
+
+        when(accountRepository.save(any(Account.class))).thenReturn(account);
+        when(accountMapper.toResponse(account)).thenReturn(createdResponse);
+
+        // when
+        sut.createAccount(prepareCreateRequest());
+        var result = sut.getAccount(createdResponse.getId());
+
+        // then
+        verify(accountRepository, never()).findById(any());
+        assertEquals(createdResponse, result);
+    }
+
     @Test
     void shouldThrowExceptionWhenAccountNotFound() {
         // given
@@ -101,6 +199,42 @@ class AccountServiceTest {
         verifyNoMoreInteractions(accountRepository);
     }
 
+    @Test
+    void shouldInsertBulkAccountsInChunksAndReportRejectedLines() throws IOException {
+        // given
+        var bulkProperties = new AccountBulkProperties();
+        bulkProperties.setChunkSize(2);
+        var bulkSut = new AccountService(accountRepository, accountMapper, transactionTemplate, new ObjectMapper(),
+                Validation.buildDefaultValidatorFactory().getValidator(), bulkProperties, accountCache, engine);
+        var chunkSizes = new ArrayList<Integer>();
+        doAnswer(invocation -> {
+            chunkSizes.add(invocation.<List<Account>>getArgument(0).size());
+            return null;
+        }).when(accountRepository).insertAll(any());
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        var body = String.join("\n",
+                "{\"firstName\":\"Jan\",\"lastName\":\"Kowalski\",\"initialBalance\":1000}",
+                "{\"firstName\":\"Anna\",\"lastName\":\"Nowak\",\"initialBalance\":500}",
+                "{\"firstName\":\"\",\"lastName\":\"Nowak\",\"initialBalance\":500}",
+                "{not json",
+                "",
+                "{\"firstName\":\"Piotr\",\"lastName\":\"Wiśniewski\",\"initialBalance\":100}");
+
+        // when
+        var report = bulkSut.createAccounts(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        // then
+        assertEquals(3L, report.getCreated());
+        assertEquals(2L, report.getRejected());
+        assertEquals(List.of(2, 1), chunkSizes);
+        assertEquals(2, report.getErrors().size());
+        assertTrue(report.getErrors().get(0).startsWith("line 3: firstName"));
+        assertEquals("line 4: malformed JSON", report.getErrors().get(1));
+    }
+
     private CreateAccountRequest prepareCreateRequest() {
         var request = new CreateAccountRequest();
         request.setFirstName(FIRST_NAME);
@@ -0,0 +1,256 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.model.Account;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceJournalTest {
+    private static final int SHARDS = 2;
+    private static final long SEED = 20240116L;
+
+    @TempDir
+    Path directory;
+
+    private ExchangeProperties.Journal properties;
+
+    private final List<BalanceJournal> journals = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new ExchangeProperties.Journal();
+        properties.setDirectory(directory.toString());
+        // small segments so a few hundred records roll over several of them
+        properties.setSegmentSize(DataSize.ofKilobytes(4));
+        properties.setSyncInterval(Duration.ofMillis(1));
+        properties.setSnapshotInterval(Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (var journal : journals) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void shouldRecoverEveryAcknowledgedRecordAfterCrash() throws IOException {
+        // given
+        var journal = startJournal();
+        var expected = appendRandomChanges(journal, 50, 500);
+
+        // when
+        var recovered = openJournal().recover(SHARDS, BalanceJournalTest::shardOf);
+
+        // then
+        assertEquals(expected, recovered);
+    }
+
+    @Test
+    void shouldStopReplayAtTornRecord() throws IOException {
+        // given
+        var journal = startJournal();
+        var expected = appendRandomChanges(journal, 10, 100);
+        tearLastRecord(latestSegment(0));
+
+        // when
+        var recovered = openJournal().recover(SHARDS, BalanceJournalTest::shardOf);
+
+        // then
+        assertEquals(expected, recovered);
+    }
+
+    @Test
+    void shouldReplayOnlyLogAfterLatestSnapshot() throws IOException {
+        // given
+        var journal = startJournal();
+        var snapshotted = appendRandomChanges(journal, 20, 400);
+        var segmentsBefore = countFiles("journal-");
+
+        // when
+        journal.snapshotAll(shard -> snapshotted.values().stream()
+                .filter(account -> shardOf(account.getId()) == shard)
+                .collect(Collectors.toList()));
+        var tail = appendRandomChanges(journal, 20, 40);
+
+        // then
+        assertTrue(countFiles("journal-") < segmentsBefore);
+        var expected = new HashMap<>(snapshotted);
+        expected.putAll(tail);
+        assertEquals(expected, openJournal().recover(SHARDS, BalanceJournalTest::shardOf));
+    }
+
+    @Test
+    void shouldKeepRecordsPublishedWhileSnapshotsRun() throws Exception {
+        // given
+        var journal = startJournal();
+        var published = new ConcurrentHashMap<UUID, Account>();
+        var appender = Executors.newSingleThreadExecutor();
+        var appending = appender.submit(() -> appendRandomChanges(journal, 20, 2000, published));
+
+        // when
+        var snapshots = 0;
+        while (!appending.isDone() || snapshots == 0) {
+            journal.snapshotAll(shard -> published.values().stream()
+                    .filter(account -> shardOf(account.getId()) == shard)
+                    .collect(Collectors.toList()));
+            snapshots++;
+        }
+        var expected = appending.get(5, TimeUnit.SECONDS);
+        appender.shutdown();
+
+        // then
+        assertEquals(expected, published);
+        assertEquals(expected, openJournal().recover(SHARDS, BalanceJournalTest::shardOf));
+    }
+
+    @Test
+    void shouldRecoverIntoDifferentShardCount() throws IOException {
+        // given
+        var journal = startJournal();
+        var expected = appendRandomChanges(journal, 30, 200);
+
+        // when
+        var recovered = openJournal().recover(3, accountId -> Math.floorMod(accountId.hashCode(), 3));
+        var recoveredAgain = openJournal().recover(3, accountId -> Math.floorMod(accountId.hashCode(), 3));
+
+        // then
+        assertEquals(expected, recovered);
+        assertEquals(expected, recoveredAgain);
+        assertEquals(3, countFiles("snapshot-"));
+    }
+
+    @Test
+    void shouldRecoverNothingAfterDelete() throws IOException, InterruptedException {
+        // given
+        var journal = startJournal();
+        appendRandomChanges(journal, 5, 20);
+        journal.close();
+
+        // when
+        journal.delete();
+
+        // then
+        assertTrue(openJournal().recover(SHARDS, BalanceJournalTest::shardOf).isEmpty());
+    }
+
+    private BalanceJournal openJournal() {
+        var journal = new BalanceJournal(properties);
+        journals.add(journal);
+        return journal;
+    }
+
+    private BalanceJournal startJournal() throws IOException {
+        var journal = openJournal();
+        journal.recover(SHARDS, BalanceJournalTest::shardOf);
+        journal.start(shard -> List.of());
+        return journal;
+    }
+
+    private static Map<UUID, Account> appendRandomChanges(BalanceJournal journal, int accounts, int changes) {
+        return appendRandomChanges(journal, accounts, changes, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Appends {@code changes} random balance changes spread over {@code accounts} accounts and waits until all of
+     * them are acknowledged. Each acknowledged change is put into {@code published} before its position is marked
+     * published, the way the engine does it.
+     *
+     * @return the last acknowledged state of every account
+     */
+    private static Map<UUID, Account> appendRandomChanges(BalanceJournal journal, int accounts, int changes,
+                                                          Map<UUID, Account> published) {
+        var random = new Random(SEED + changes);
+        var ids = new ArrayList<UUID>();
+        for (int i = 0; i < accounts; i++) {
+            ids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        var latest = new HashMap<UUID, Account>();
+        var acknowledged = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < changes; i++) {
+            var account = new Account("Jan", "Kowalski", BigDecimal.valueOf(random.nextInt(1_000_000), 2));
+            account.setId(ids.get(random.nextInt(accounts)));
+            account.getBalances().put("USD", BigDecimal.valueOf(random.nextLong() >>> 1, 2));
+            var shard = shardOf(account.getId());
+            acknowledged.add(journal.append(shard, account).thenAccept(position -> {
+                published.put(account.getId(), account);
+                journal.published(shard, position);
+            }));
+            latest.put(account.getId(), account);
+        }
+        CompletableFuture.allOf(acknowledged.toArray(new CompletableFuture[0])).join();
+        return latest;
+    }
+
+    private Path latestSegment(int shard) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+                    .filter(file -> file.getFileName().toString().split("-")[2].equals(String.valueOf(shard)))
+                    .max((a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)))
+                    .orElseThrow();
+        }
+    }
+
+    /**
+     * Writes a record header after the last record whose payload never made it to disk.
+     */
+    private static void tearLastRecord(Path segment) throws IOException {
+        try (var channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(2 * Integer.BYTES);
+            var position = 0L;
+            while (true) {
+                header.clear();
+                channel.read(header, position);
+                var length = header.getInt(0);
+                if (length == 0) {
+                    break;
+                }
+                position += header.capacity() + length;
+            }
+            header.clear();
+            header.putInt(0, 40).putInt(4, 0x5eed);
+            channel.write(header, position);
+        }
+    }
+
+    private long countFiles(String prefix) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+
+    private static long segmentIndex(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.indexOf(".log")));
+    }
+
+    private static int shardOf(UUID accountId) {
+        return Math.floorMod(accountId.hashCode(), SHARDS);
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.config.ExchangeProperties.LedgerMode;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import com.example.currency_exchange.repository.ExchangeLedgerRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExchangeLedgerWriterTest {
+
+    @Mock
+    private ExchangeLedgerRepository ledgerRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private ExchangeProperties exchangeProperties;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ExchangeLedgerWriter sut;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        exchangeProperties = new ExchangeProperties();
+        exchangeProperties.getLedger().setMaxDelay(Duration.ofMillis(200));
+        exchangeProperties.getLedger().setOfferTimeout(Duration.ofMillis(10));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        sut.stop();
+    }
+
+    @Test
+    void shouldWriteEntriesQueuedTogetherInOneTransaction() throws InterruptedException {
+        // given
+        startWriter();
+
+        // when
+        sut.record(prepareEntry());
+        sut.record(prepareEntry());
+        sut.record(prepareEntry());
+
+        // then
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+        verify(ledgerRepository, times(1)).saveAll(any());
+        verify(transactionManager, times(1)).commit(any());
+        assertEquals(3, meterRegistry.get("exchange.ledger.batch").summary().totalAmount());
+    }
+
+    @Test
+    void shouldQueueEntryOnlyAfterTransactionCommits() throws InterruptedException {
+        // given
+        startWriter();
+        TransactionSynchronizationManager.initSynchronization();
+        var entry = prepareEntry();
+
+        // when
+        sut.record(entry);
+        assertTrue(sut.flush(Duration.ofMillis(10)));
+        verify(ledgerRepository, never()).saveAll(any());
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        TransactionSynchronizationManager.clearSynchronization();
+
+        // then
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+        verify(ledgerRepository).saveAll(List.of(entry));
+    }
+
+    @Test
+    void shouldWriteEntryDirectlyWhenQueueStaysFull() throws InterruptedException {
+        // given
+        exchangeProperties.getLedger().setQueueCapacity(1);
+        var writerBusy = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        when(ledgerRepository.saveAll(any())).thenAnswer(invocation -> {
+            writerBusy.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return invocation.getArgument(0);
+        });
+        startWriter();
+        sut.record(prepareEntry());
+        assertTrue(writerBusy.await(5, TimeUnit.SECONDS));
+        sut.record(prepareEntry());
+        var overflow = prepareEntry();
+
+        // when
+        sut.record(overflow);
+
+        // then
+        verify(ledgerRepository).save(overflow);
+        assertEquals(1, meterRegistry.get("exchange.ledger.direct.writes").counter().count());
+        release.countDown();
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void shouldWriteQueuedEntriesOnShutdown() throws InterruptedException {
+        // given
+        exchangeProperties.getLedger().setMaxDelay(Duration.ofSeconds(1));
+        startWriter();
+        sut.record(prepareEntry());
+        sut.record(prepareEntry());
+
+        // when
+        sut.stop();
+
+        // then
+        verify(ledgerRepository).saveAll(any());
+        assertEquals(2, meterRegistry.get("exchange.ledger.batch").summary().totalAmount());
+    }
+
+    @Test
+    void shouldDeadLetterEntryThatKeepsBatchFromCommitting(@TempDir Path directory) throws Exception {
+        // given
+        var deadLetterFile = directory.resolve("dead-letters.csv");
+        exchangeProperties.getLedger().setRetryBackoff(Duration.ofMillis(10));
+        exchangeProperties.getLedger().setDeadLetterFile(deadLetterFile.toString());
+        var good = prepareEntry();
+        var poison = prepareEntry();
+        when(ledgerRepository.saveAll(any())).thenThrow(new DataIntegrityViolationException("check constraint"));
+        when(ledgerRepository.save(poison)).thenThrow(new DataIntegrityViolationException("check constraint"));
+        startWriter();
+
+        // when
+        sut.recordAll(List.of(good, poison));
+
+        // then
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+        verify(ledgerRepository, times(3)).saveAll(any());
+        verify(ledgerRepository).save(good);
+        assertEquals(1, meterRegistry.get("exchange.ledger.dropped").counter().count());
+        assertEquals(0, meterRegistry.get("exchange.ledger.batch").summary().count());
+        assertEquals(List.of("account_id,source_currency,source_amount,target_currency,target_amount,"
+                        + "source_rate,target_rate,snapshot_version,table_no,created_at",
+                poison.getAccountId() + ",PLN,10,USD,2.50,1,4,1,010/A/NBP/2024,2024-01-16T12:00:00Z"),
+                Files.readAllLines(deadLetterFile));
+    }
+
+    @Test
+    void shouldWriteInCallersTransactionInSyncMode() {
+        // given
+        exchangeProperties.getLedger().setMode(LedgerMode.SYNC);
+        startWriter();
+        var entry = prepareEntry();
+
+        // when
+        sut.record(entry);
+
+        // then
+        verify(ledgerRepository).saveAll(List.of(entry));
+        verify(transactionManager, never()).getTransaction(any());
+    }
+
+    private void startWriter() {
+        sut = new ExchangeLedgerWriter(ledgerRepository, transactionManager, exchangeProperties, meterRegistry);
+        sut.start();
+    }
+
+    private ExchangeLedgerEntry prepareEntry() {
+        return new ExchangeLedgerEntry(UUID.randomUUID(),
+                "PLN", BigDecimal.TEN, "USD", new BigDecimal("2.50"),
+                BigDecimal.ONE, BigDecimal.valueOf(4),
+                1, "010/A/NBP/2024", Instant.parse("2024-01-16T12:00:00Z"));
+    }
+}
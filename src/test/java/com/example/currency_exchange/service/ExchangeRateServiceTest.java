@@ -1,51 +1,92 @@
 package com.example.currency_exchange.service;
 
-import com.example.currency_exchange.dto.ExchangeRateResponse;
-import com.example.currency_exchange.dto.Rate;
-import com.example.currency_exchange.model.CurrencyEnum;
+import com.example.currency_exchange.config.NbpProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.stubbing.OngoingStubbing;
+import org.mockito.verification.VerificationMode;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import javax.naming.ServiceUnavailableException;
 import java.math.BigDecimal;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class ExchangeRateServiceTest {
 
-    private static final String NBP_API_URL = "http://api.nbp.pl/api/exchangerates/rates/A/USD";
+    private static final String NBP_TABLE_URL = "http://api.nbp.pl/api/exchangerates/tables/A";
     private static final BigDecimal EXCHANGE_RATE = BigDecimal.valueOf(4.0);
+    private static final BigDecimal UPDATED_EXCHANGE_RATE = BigDecimal.valueOf(4.2);
+    private static final BigDecimal EUR_EXCHANGE_RATE = BigDecimal.valueOf(4.4);
+    private static final Instant NOW = Instant.parse("2024-01-15T12:00:00Z");
 
     @Mock
     private RestTemplate restTemplate;
 
-    @InjectMocks
+    @Mock
+    private Clock clock;
+
+    private NbpProperties nbpProperties;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private ExchangeRateService sut;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        nbpProperties = new NbpProperties();
+        nbpProperties.getCache().setTtl(Duration.ofHours(1));
+        nbpProperties.getCache().setRefreshAhead(Duration.ofMinutes(5));
+        nbpProperties.getCache().setMaxStaleness(Duration.ofHours(4));
+        nbpProperties.getCircuitBreaker().setFailureThreshold(3);
+        nbpProperties.getCircuitBreaker().setOpenDuration(Duration.ofSeconds(30));
+        when(clock.instant()).thenReturn(NOW);
+        meterRegistry = new SimpleMeterRegistry();
+        sut = new ExchangeRateService(restTemplate, nbpProperties, clock, new NbpCircuitBreaker(nbpProperties, clock),
+                new ExchangeMetrics(meterRegistry));
     }
 
     @Test
     void shouldReturnCurrentExchangeRate() throws ServiceUnavailableException {
         // given
-        var response = prepareValidResponse();
-        when(restTemplate.getForObject(eq(NBP_API_URL), eq(ExchangeRateResponse.class)))
+        var response = prepareTable();
+        whenTableFetched()
                 .thenReturn(response);
 
         // when
-        var result = sut.getCurrentRate(CurrencyEnum.USD);
+        var result = sut.getCurrentRate("USD");
 
         // then
         assertEquals(EXCHANGE_RATE, result);
@@ -54,83 +95,441 @@ class ExchangeRateServiceTest {
     @Test
     void shouldThrowExceptionWhenResponseIsNull() {
         // given
-        when(restTemplate.getForObject(eq(NBP_API_URL), eq(ExchangeRateResponse.class)))
+        whenTableFetched()
                 .thenReturn(null);
 
         // when/then
         var exception = assertThrows(
                 ServiceUnavailableException.class,
-                () -> sut.getCurrentRate(CurrencyEnum.USD)
+                () -> sut.getCurrentRate("USD")
         );
         assertEquals("Unable to get exchange rate from NBP API", exception.getMessage());
     }
 
     @Test
-    void shouldThrowExceptionWhenRatesAreNull() {
+    void shouldThrowExceptionWhenRatesAreEmpty() {
         // given
-        var response = new ExchangeRateResponse();
-        response.setRates(null);
-        when(restTemplate.getForObject(eq(NBP_API_URL), eq(ExchangeRateResponse.class)))
-                .thenReturn(response);
+        whenTableFetched()
+                .thenReturn(new RateTable("001/A/NBP/2024", LocalDate.of(2024, 1, 2), Map.of()));
 
         // when/then
         var exception = assertThrows(
                 ServiceUnavailableException.class,
-                () -> sut.getCurrentRate(CurrencyEnum.USD)
+                () -> sut.getCurrentRate("USD")
         );
         assertEquals("Unable to get exchange rate from NBP API", exception.getMessage());
     }
 
     @Test
-    void shouldThrowExceptionWhenRatesAreEmpty() {
+    void shouldThrowExceptionWhenNbpApiIsUnavailable() {
         // given
-        var response = new ExchangeRateResponse();
-        response.setRates(Collections.emptyList());
-        when(restTemplate.getForObject(eq(NBP_API_URL), eq(ExchangeRateResponse.class)))
-                .thenReturn(response);
+        whenTableFetched()
+                .thenThrow(new RestClientException("Connection refused"));
 
         // when/then
         var exception = assertThrows(
                 ServiceUnavailableException.class,
-                () -> sut.getCurrentRate(CurrencyEnum.USD)
+                () -> sut.getCurrentRate("USD")
         );
-        assertEquals("Unable to get exchange rate from NBP API", exception.getMessage());
+        assertEquals("NBP API service is unavailable", exception.getMessage());
     }
 
     @Test
-    void shouldThrowExceptionWhenNbpApiIsUnavailable() {
+    void shouldHandleNetworkTimeout() {
         // given
-        when(restTemplate.getForObject(eq(NBP_API_URL), eq(ExchangeRateResponse.class)))
+        whenTableFetched()
+                .thenThrow(new RestClientException("Read timed out"));
+
+        // when/then
+        var exception = assertThrows(
+                ServiceUnavailableException.class,
+                () -> sut.getCurrentRate("USD")
+        );
+        assertEquals("NBP API service is unavailable", exception.getMessage());
+    }
+
+    @Test
+    void shouldServeCachedRateWithinTtl() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable());
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(59)));
+
+        // when
+        var result = sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(EXCHANGE_RATE, result);
+        verifyTableFetched(times(1));
+    }
+
+    @Test
+    void shouldFetchRateAgainAfterTtlExpires() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable())
+                .thenReturn(prepareTable(UPDATED_EXCHANGE_RATE));
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(1)));
+
+        // when
+        var result = sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(UPDATED_EXCHANGE_RATE, result);
+        verifyTableFetched(times(2));
+    }
+
+    @Test
+    void shouldServeStaleRateWhenRefreshFailsWithinStalenessWindow() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable())
                 .thenThrow(new RestClientException("Connection refused"));
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(3)));
+
+        // when
+        var result = sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(EXCHANGE_RATE, result);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenCachedRateIsBeyondStalenessWindow() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable())
+                .thenThrow(new RestClientException("Connection refused"));
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(5)));
 
         // when/then
         var exception = assertThrows(
                 ServiceUnavailableException.class,
-                () -> sut.getCurrentRate(CurrencyEnum.USD)
+                () -> sut.getCurrentRate("USD")
         );
         assertEquals("NBP API service is unavailable", exception.getMessage());
     }
 
     @Test
-    void shouldHandleNetworkTimeout() {
+    void shouldRefreshRatesAheadOfExpiry() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable())
+                .thenReturn(prepareTable(UPDATED_EXCHANGE_RATE));
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(56)));
+
+        // when
+        sut.refreshExpiringRates();
+        var result = sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(UPDATED_EXCHANGE_RATE, result);
+        verifyTableFetched(times(2));
+    }
+
+    @Test
+    void shouldNotRefreshRatesOutsideRefreshAheadWindow() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable());
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(30)));
+
+        // when
+        sut.refreshExpiringRates();
+
+        // then
+        verifyTableFetched(times(1));
+    }
+
+    @Test
+    void shouldSkipWarmUpWhenDisabled() {
+        // given
+        nbpProperties.getCache().setWarmUp(false);
+
+        // when
+        sut.warmUpRates();
+
+        // then
+        verifyTableFetched(never());
+    }
+
+    @Test
+    void shouldCoalesceConcurrentFetchesForSameCurrency() throws Exception {
+        // given
+        var callers = 8;
+        whenTableFetched()
+                .thenAnswer(invocation -> {
+                    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (sut.getCoalescedRequestCount() < callers - 1 && System.nanoTime() < deadline) {
+                        Thread.sleep(1);
+                    }
+                    return prepareTable();
+                });
+        var executor = Executors.newFixedThreadPool(callers);
+        var tasks = new ArrayList<Callable<BigDecimal>>();
+        for (int i = 0; i < callers; i++) {
+            tasks.add(() -> sut.getCurrentRate("USD"));
+        }
+
+        // when
+        List<Future<BigDecimal>> results;
+        try {
+            results = executor.invokeAll(tasks);
+        } finally {
+            executor.shutdown();
+        }
+
+        // then
+        for (var result : results) {
+            assertEquals(EXCHANGE_RATE, result.get());
+        }
+        verifyTableFetched(times(1));
+        assertEquals(1, sut.getUpstreamRequestCount());
+        assertEquals(callers - 1, sut.getCoalescedRequestCount());
+    }
+
+    @Test
+    void shouldPropagateSharedFetchFailureToAllWaiters() throws Exception {
+        // given
+        whenTableFetched()
+                .thenAnswer(invocation -> {
+                    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (sut.getCoalescedRequestCount() < 1 && System.nanoTime() < deadline) {
+                        Thread.sleep(1);
+                    }
+                    throw new RestClientException("Connection refused");
+                });
+        var executor = Executors.newFixedThreadPool(2);
+        Callable<Class<?>> task = () -> {
+            try {
+                sut.getCurrentRate("USD");
+                return null;
+            } catch (ServiceUnavailableException ex) {
+                return ex.getClass();
+            }
+        };
+
+        // when
+        List<Future<Class<?>>> results;
+        try {
+            results = executor.invokeAll(List.of(task, task));
+        } finally {
+            executor.shutdown();
+        }
+
+        // then
+        for (var result : results) {
+            assertEquals(ServiceUnavailableException.class, result.get());
+        }
+        assertEquals(1, sut.getUpstreamRequestCount());
+    }
+
+    @Test
+    void shouldUseConfiguredApiUrl() throws ServiceUnavailableException {
         // given
-        when(restTemplate.getForObject(eq(NBP_API_URL), eq(ExchangeRateResponse.class)))
+        nbpProperties.getApi().setUrl("http://localhost:9999/tables/A");
+        when(restTemplate.execute(
+                eq("http://localhost:9999/tables/A"), eq(HttpMethod.GET),
+                any(RequestCallback.class), any(ResponseExtractor.class)))
+                .thenReturn(prepareTable());
+
+        // when
+        var result = sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(EXCHANGE_RATE, result);
+        verifyTableFetched(never());
+    }
+
+    @Test
+    void shouldShortCircuitCallsAfterConsecutiveFailures() {
+        // given
+        whenTableFetched()
                 .thenThrow(new RestClientException("Read timed out"));
+        for (int i = 0; i < 3; i++) {
+            assertThrows(ServiceUnavailableException.class, () -> sut.getCurrentRate("USD"));
+        }
+
+        // when
+        var exception = assertThrows(
+                ServiceUnavailableException.class,
+                () -> sut.getCurrentRate("USD")
+        );
+
+        // then
+        assertEquals("NBP API circuit breaker is open", exception.getMessage());
+        verifyTableFetched(times(3));
+    }
+
+    @Test
+    void shouldRetryUpstreamOnceOpenDurationElapses() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenThrow(new RestClientException("Read timed out"))
+                .thenThrow(new RestClientException("Read timed out"))
+                .thenThrow(new RestClientException("Read timed out"))
+                .thenReturn(prepareTable());
+        for (int i = 0; i < 3; i++) {
+            assertThrows(ServiceUnavailableException.class, () -> sut.getCurrentRate("USD"));
+        }
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofSeconds(30)));
+
+        // when
+        var result = sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(EXCHANGE_RATE, result);
+        verifyTableFetched(times(4));
+    }
+
+    @Test
+    void shouldReopenCircuitWhenHalfOpenTrialReturnsMalformedTable() {
+        // given
+        var malformed = "[{\"no\":\"001/A/NBP/2024\",\"effectiveDate\":\"2024-13-45\",\"rates\":[]}]";
+        whenTableFetched()
+                .thenThrow(new RestClientException("Read timed out"))
+                .thenThrow(new RestClientException("Read timed out"))
+                .thenThrow(new RestClientException("Read timed out"))
+                .thenAnswer(invocation -> invocation.<ResponseExtractor<?>>getArgument(3)
+                        .extractData(new MockClientHttpResponse(malformed.getBytes(StandardCharsets.UTF_8), HttpStatus.OK)));
+        for (int i = 0; i < 3; i++) {
+            assertThrows(ServiceUnavailableException.class, () -> sut.getCurrentRate("USD"));
+        }
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofSeconds(30)));
+
+        // when
+        var exception = assertThrows(
+                ServiceUnavailableException.class,
+                () -> sut.getCurrentRate("USD")
+        );
+
+        // then
+        assertEquals("NBP API returned an unreadable table", exception.getMessage());
+        assertEquals(4, meterRegistry.get("nbp.requests").tag("outcome", "failure").timer().count());
+        var shortCircuited = assertThrows(
+                ServiceUnavailableException.class,
+                () -> sut.getCurrentRate("USD")
+        );
+        assertEquals("NBP API circuit breaker is open", shortCircuited.getMessage());
+        verifyTableFetched(times(4));
+    }
+
+    @Test
+    void shouldRecordCacheAndUpstreamMetrics() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable())
+                .thenThrow(new RestClientException("Connection refused"));
+
+        // when
+        sut.getCurrentRate("USD");
+        sut.getCurrentRate("USD");
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(2)));
+        sut.getCurrentRate("USD");
+
+        // then
+        assertEquals(1, meterRegistry.get("nbp.rate.cache").tag("result", "hit").counter().count());
+        assertEquals(2, meterRegistry.get("nbp.rate.cache").tag("result", "miss").counter().count());
+        assertEquals(1, meterRegistry.get("nbp.rate.cache").tag("result", "stale").counter().count());
+        assertEquals(1, meterRegistry.get("nbp.requests").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("nbp.requests").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void shouldServeEveryCurrencyFromOneTableFetch() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable());
+
+        // when
+        var usd = sut.getCurrentRate("USD");
+        var eur = sut.getCurrentRate("EUR");
+
+        // then
+        assertEquals(EXCHANGE_RATE, usd);
+        assertEquals(EUR_EXCHANGE_RATE, eur);
+        assertEquals("001/A/NBP/2024", sut.getCurrentSnapshot().getTableNo());
+        verifyTableFetched(times(1));
+    }
+
+    @Test
+    void shouldPublishNewSnapshotVersionOnRefreshWithoutChangingOldOne() throws ServiceUnavailableException {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable())
+                .thenReturn(new RateTable("002/A/NBP/2024", LocalDate.of(2024, 1, 3),
+                        Map.of("USD", UPDATED_EXCHANGE_RATE, "EUR", EUR_EXCHANGE_RATE)));
+        var first = sut.getCurrentSnapshot();
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(1)));
+
+        // when
+        var second = sut.getCurrentSnapshot();
+
+        // then
+        assertEquals(2024001L, first.getVersion());
+        assertEquals(2024002L, second.getVersion());
+        assertEquals(EXCHANGE_RATE, first.getMid("USD"));
+        assertEquals(UPDATED_EXCHANGE_RATE, second.getMid("USD"));
+        assertEquals(BigDecimal.ONE, second.getMid("PLN"));
+    }
+
+    @Test
+    void shouldThrowExceptionWhenTableHasNoRateForCurrency() {
+        // given
+        whenTableFetched()
+                .thenReturn(prepareTable());
 
         // when/then
         var exception = assertThrows(
                 ServiceUnavailableException.class,
-                () -> sut.getCurrentRate(CurrencyEnum.USD)
+                () -> sut.getCurrentRate("JPY")
         );
-        assertEquals("NBP API service is unavailable", exception.getMessage());
+        assertEquals("NBP table has no rate for JPY", exception.getMessage());
+    }
+
+    @Test
+    void shouldReturnUnitRateForBaseCurrencyWithoutCallingNbp() throws ServiceUnavailableException {
+        // when
+        var result = sut.getCurrentRate("PLN");
+
+        // then
+        assertEquals(BigDecimal.ONE, result);
+        verifyNoInteractions(restTemplate);
     }
 
-    private ExchangeRateResponse prepareValidResponse() {
-        var rate = new Rate();
-        rate.setMid(EXCHANGE_RATE);
+    @Test
+    void shouldSupportBaseCurrencyAndConfiguredCurrencies() {
+        // given
+        nbpProperties.setCurrencies(List.of("USD", "EUR"));
+
+        // when/then
+        assertTrue(sut.isSupported("PLN"));
+        assertTrue(sut.isSupported("EUR"));
+        assertFalse(sut.isSupported("JPY"));
+        assertEquals(List.of("PLN", "USD", "EUR"), List.copyOf(sut.getSupportedCurrencies()));
+    }
+
+    private OngoingStubbing<Object> whenTableFetched() {
+        return when(restTemplate.execute(
+                eq(NBP_TABLE_URL), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class)));
+    }
+
+    private void verifyTableFetched(VerificationMode mode) {
+        verify(restTemplate, mode).execute(
+                eq(NBP_TABLE_URL), eq(HttpMethod.GET), any(RequestCallback.class), any(ResponseExtractor.class));
+    }
+
+    private RateTable prepareTable() {
+        return prepareTable(EXCHANGE_RATE);
+    }
 
-        var response = new ExchangeRateResponse();
-        response.setRates(List.of(rate));
-        return response;
+    private RateTable prepareTable(BigDecimal usdMid) {
+        return new RateTable("001/A/NBP/2024", LocalDate.of(2024, 1, 2), Map.of("USD", usdMid, "EUR", EUR_EXCHANGE_RATE));
     }
-}
\ No newline at end of file
+}
@@ -1,23 +1,43 @@
 package com.example.currency_exchange.service;
 
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.exceptions.InsufficientBalanceException;
+import com.example.currency_exchange.exceptions.InvalidExchangeException;
 import com.example.currency_exchange.exceptions.ResourceNotFoundException;
 import com.example.currency_exchange.mapper.AccountMapper;
 import com.example.currency_exchange.model.Account;
-import com.example.currency_exchange.model.CurrencyEnum;
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.BatchExchangeItem;
+import com.example.currency_exchange.model.BatchExchangeRequest;
+import com.example.currency_exchange.model.BatchExchangeResult;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
 import com.example.currency_exchange.model.ExchangeRequest;
 import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.BalanceTransfer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.naming.ServiceUnavailableException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -25,6 +45,15 @@ class ExchangeServiceTest {
     private static final BigDecimal INITIAL_PLN_BALANCE = BigDecimal.valueOf(1000);
     private static final BigDecimal INITIAL_USD_BALANCE = BigDecimal.valueOf(50);
     private static final BigDecimal EXCHANGE_RATE = BigDecimal.valueOf(4);
+    private static final BigDecimal EUR_EXCHANGE_RATE = new BigDecimal("4.40");
+    private static final Instant NOW = Instant.parse("2024-01-16T12:30:00Z");
+    private static final RateSnapshot SNAPSHOT = new RateSnapshot(
+            7,
+            new RateTable("010/A/NBP/2024", LocalDate.of(2024, 1, 16), Map.of("USD", EXCHANGE_RATE, "EUR", EUR_EXCHANGE_RATE)),
+            Instant.parse("2024-01-16T12:00:00Z"),
+            Instant.parse("2024-01-16T13:00:00Z"));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @InjectMocks
     private ExchangeService sut;
@@ -35,10 +64,22 @@ class ExchangeServiceTest {
     private ExchangeRateService exchangeRateService;
     @Mock
     private AccountBalanceValidator balanceValidator;
+    @Spy
+    AccountMapper accountMapper = new AccountMapper();
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Spy
+    private ExchangeMetrics exchangeMetrics = new ExchangeMetrics(meterRegistry);
+    @Spy
+    private ExchangeProperties exchangeProperties = new ExchangeProperties();
+    @Mock
+    private ExchangeLedgerWriter ledgerWriter;
+    @Mock
+    private AccountCache accountCache;
+    @Mock
+    private ShardedAccountEngine engine;
     @Mock
-    AccountMapper accountMapper;
-    @Captor
-    private ArgumentCaptor<Account> accountCaptor;
+    private Clock clock;
 
     private UUID accountId;
 
@@ -50,10 +91,10 @@ class ExchangeServiceTest {
     }
 
     @Test
-    void shouldThrowExceptionWhenAccountNotFound() {
+    void shouldThrowExceptionWhenAccountNotFound() throws ServiceUnavailableException {
         // given
-        var request = prepareExchangeRequest(BigDecimal.TEN, CurrencyEnum.PLN);
-        when(accountRepository.findById(accountId)).thenReturn(Optional.empty());
+        var request = prepareExchangeRequest(BigDecimal.TEN, "PLN");
+        when(accountRepository.findByIdForUpdate(accountId)).thenReturn(Optional.empty());
 
         // when
         var exception = assertThrows(
@@ -63,83 +104,365 @@ class ExchangeServiceTest {
 
         // then
         assertEquals("Account not found", exception.getMessage());
-        verify(accountRepository).findById(accountId);
-        verifyNoMoreInteractions(accountRepository, exchangeRateService, balanceValidator, accountMapper);
+        verify(accountRepository).findByIdForUpdate(accountId);
+        verifyNoMoreInteractions(accountRepository, balanceValidator, accountMapper);
     }
 
     @Test
     void shouldExchangeFromPLNtoUSD() throws ServiceUnavailableException {
         // given
         var amount = BigDecimal.valueOf(100);
-        var request = prepareExchangeRequest(amount, CurrencyEnum.PLN);
+        var request = prepareExchangeRequest(amount, "PLN");
 
         // when
         sut.exchangeCurrency(accountId, request);
 
         // then
-        verifyCommonInteractions(amount, CurrencyEnum.PLN);
-        assertBalances(
-                BigDecimal.valueOf(900),  // 1000 PLN - 100 PLN
-                BigDecimal.valueOf(75)    // 50 USD + (100 PLN / 4 USD/PLN) = 50 + 25 = 75 USD
-        );
+        verifyCommonInteractions();
+        verify(accountRepository).applyTransfers(List.of(new BalanceTransfer(
+                accountId,
+                "PLN", amount,                      // 100 PLN debited
+                "USD", new BigDecimal("25.00")      // 100 PLN / 4 USD/PLN = 25 USD credited
+        )));
+        verify(accountCache).evict(accountId);
     }
 
     @Test
     void shouldExchangeFromUSDtoPLN() throws ServiceUnavailableException {
         // given
         var amount = BigDecimal.valueOf(10);
-        var request = prepareExchangeRequest(amount, CurrencyEnum.USD);
+        var request = prepareExchangeRequest(amount, "USD");
+
+        // when
+        sut.exchangeCurrency(accountId, request);
+
+        // then
+        verifyCommonInteractions();
+        verify(accountRepository).applyTransfers(List.of(new BalanceTransfer(
+                accountId,
+                "USD", amount,                      // 10 USD debited
+                "PLN", new BigDecimal("40.00")      // 10 USD * 4 PLN/USD = 40 PLN credited
+        )));
+    }
+
+    @Test
+    void shouldExchangeBetweenForeignCurrenciesThroughPln() throws ServiceUnavailableException {
+        // given
+        var amount = BigDecimal.valueOf(10);
+        var request = prepareExchangeRequest(amount, "USD").targetCurrency("EUR");
+
+        // when
+        sut.exchangeCurrency(accountId, request);
+
+        // then
+        verify(accountRepository).applyTransfers(List.of(new BalanceTransfer(
+                accountId,
+                "USD", amount,                      // 10 USD = 40 PLN
+                "EUR", new BigDecimal("9.09")       // 40 PLN / 4.40 PLN/EUR = 9.09 EUR
+        )));
+        verify(exchangeRateService, times(1)).getCurrentSnapshot();
+    }
+
+    @Test
+    void shouldRejectUnsupportedCurrencyBeforeLookingUpRates() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.TEN, "PLN").targetCurrency("JPY");
+        when(exchangeRateService.isSupported("JPY")).thenReturn(false);
+
+        // when
+        var exception = assertThrows(
+                InvalidExchangeException.class,
+                () -> sut.exchangeCurrency(accountId, request)
+        );
+
+        // then
+        assertEquals("Unsupported currency JPY", exception.getMessage());
+        verify(exchangeRateService, never()).getCurrentSnapshot();
+        verifyNoInteractions(transactionTemplate, accountRepository);
+    }
+
+    @Test
+    void shouldRejectExchangeToSameCurrency() {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.TEN, "USD").targetCurrency("USD");
+
+        // when
+        var exception = assertThrows(
+                InvalidExchangeException.class,
+                () -> sut.exchangeCurrency(accountId, request)
+        );
+
+        // then
+        assertEquals("Source and target currency must differ", exception.getMessage());
+        verifyNoInteractions(transactionTemplate, accountRepository);
+    }
+
+    @Test
+    void shouldTimeEachPipelineStage() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.TEN, "PLN");
 
         // when
         sut.exchangeCurrency(accountId, request);
 
         // then
-        verifyCommonInteractions(amount, CurrencyEnum.USD);
-        assertBalances(
-                BigDecimal.valueOf(1040), // 1000 PLN + (10 USD * 4 PLN/USD) = 1000 + 40 = 1040 PLN
-                BigDecimal.valueOf(40)    // 50 USD - 10 USD
+        for (var stage : List.of("rate_lookup", "arithmetic", "save", "ledger", "account_load", "mapping")) {
+            assertEquals(1, meterRegistry.get("exchange.stage").tag("stage", stage).timer().count());
+        }
+        assertEquals(0, meterRegistry.get("exchange.stage").tag("stage", "rejection").timer().count());
+    }
+
+    @Test
+    void shouldRejectExchangeWhenConditionalUpdateMatchesNoRow() throws ServiceUnavailableException {
+        // given
+        var amount = BigDecimal.valueOf(2000);
+        var request = prepareExchangeRequest(amount, "PLN");
+        when(accountRepository.applyTransfers(any())).thenReturn(new int[]{0});
+        doThrow(new InsufficientBalanceException("Insufficient PLN balance"))
+                .when(balanceValidator).validateBalance(any(), eq(amount), eq("PLN"));
+
+        // when
+        var exception = assertThrows(
+                InsufficientBalanceException.class,
+                () -> sut.exchangeCurrency(accountId, request)
         );
+
+        // then
+        assertEquals("Insufficient PLN balance", exception.getMessage());
+        assertEquals(1, meterRegistry.get("exchange.stage").tag("stage", "rejection").timer().count());
+        verify(accountMapper, never()).toResponse(any());
+        verifyNoInteractions(ledgerWriter, accountCache);
+    }
+
+    @Test
+    void shouldLockAccountBeforeApplyingTransfer() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.TEN, "PLN");
+
+        // when
+        sut.exchangeCurrency(accountId, request);
+
+        // then
+        var inOrder = inOrder(exchangeRateService, transactionTemplate, accountRepository);
+        inOrder.verify(exchangeRateService).getCurrentSnapshot();
+        inOrder.verify(transactionTemplate).execute(any());
+        inOrder.verify(accountRepository).findByIdForUpdate(accountId);
+        inOrder.verify(accountRepository).applyTransfers(any());
+    }
+
+    @Test
+    void shouldPassResponseToCallbackInsideTransaction() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var inTransaction = new AtomicBoolean();
+        doAnswer(invocation -> {
+            inTransaction.set(true);
+            try {
+                return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            } finally {
+                inTransaction.set(false);
+            }
+        }).when(transactionTemplate).execute(any());
+        var applied = new ArrayList<AccountResponse>();
+
+        // when
+        var response = sut.exchangeCurrency(accountId, request, account -> {
+            assertTrue(inTransaction.get());
+            applied.add(account);
+        });
+
+        // then
+        assertEquals(List.of(response), applied);
+    }
+
+    @Test
+    void shouldReturnBalancesIncludingAppliedTransfer() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var captor = ArgumentCaptor.forClass(Account.class);
+
+        // when
+        sut.exchangeCurrency(accountId, request);
+
+        // then
+        verify(accountMapper).toResponse(captor.capture());
+        assertEquals(0, BigDecimal.valueOf(900).compareTo(captor.getValue().getBalance("PLN")));
+        assertEquals(0, BigDecimal.valueOf(75).compareTo(captor.getValue().getBalance("USD")));
+    }
+
+    @Test
+    void shouldRecordLedgerEntryWithRatesAndSnapshot() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.valueOf(10), "USD").targetCurrency("EUR");
+        var captor = ArgumentCaptor.forClass(ExchangeLedgerEntry.class);
+
+        // when
+        sut.exchangeCurrency(accountId, request);
+
+        // then
+        verify(ledgerWriter).record(captor.capture());
+        var entry = captor.getValue();
+        assertEquals(accountId, entry.getAccountId());
+        assertEquals("USD", entry.getSourceCurrency());
+        assertEquals(BigDecimal.valueOf(10), entry.getSourceAmount());
+        assertEquals("EUR", entry.getTargetCurrency());
+        assertEquals(new BigDecimal("9.09"), entry.getTargetAmount());
+        assertEquals(EXCHANGE_RATE, entry.getSourceRate());
+        assertEquals(EUR_EXCHANGE_RATE, entry.getTargetRate());
+        assertEquals(7L, entry.getSnapshotVersion());
+        assertEquals("010/A/NBP/2024", entry.getTableNo());
+        assertEquals(NOW, entry.getCreatedAt());
+    }
+
+    @Test
+    void shouldReportSnapshotThatPricedExchange() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.TEN, "PLN");
+
+        // when
+        var response = sut.exchangeCurrency(accountId, request);
+
+        // then
+        assertEquals(7L, response.getPricedWith().getVersion());
+        assertEquals("010/A/NBP/2024", response.getPricedWith().getTableNo());
+        assertEquals(LocalDate.of(2024, 1, 16), response.getPricedWith().getEffectiveDate());
+    }
+
+    @Test
+    void shouldNotOpenTransactionWhenRateIsUnavailable() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.TEN, "PLN");
+        when(exchangeRateService.getCurrentSnapshot())
+                .thenThrow(new ServiceUnavailableException("NBP API service is unavailable"));
+
+        // when
+        assertThrows(ServiceUnavailableException.class, () -> sut.exchangeCurrency(accountId, request));
+
+        // then
+        verifyNoInteractions(transactionTemplate, accountRepository);
+    }
+
+    @Test
+    void shouldPriceWholeBatchFromOneSnapshot() throws ServiceUnavailableException {
+        // given
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ExchangeLedgerEntry>> ledgerCaptor = ArgumentCaptor.forClass(List.class);
+        var missingAccountId = UUID.randomUUID();
+        var request = new BatchExchangeRequest(List.of(
+                new BatchExchangeItem(accountId, BigDecimal.valueOf(100), "PLN"),
+                new BatchExchangeItem(missingAccountId, BigDecimal.valueOf(100), "PLN"),
+                new BatchExchangeItem(accountId, BigDecimal.valueOf(500), "USD"),
+                new BatchExchangeItem(accountId, BigDecimal.valueOf(5), "EUR").targetCurrency("EUR")
+        ));
+        when(accountRepository.findAllByIdForUpdate(any())).thenReturn(List.of(prepareAccount()));
+        when(accountRepository.applyTransfers(any())).thenReturn(new int[]{1, 0});
+
+        // when
+        var response = sut.exchangeCurrencyBatch(request);
+
+        // then
+        verify(exchangeRateService, times(1)).getCurrentSnapshot();
+        verify(accountRepository).applyTransfers(List.of(
+                new BalanceTransfer(accountId, "PLN", BigDecimal.valueOf(100), "USD", new BigDecimal("25.00")),
+                new BalanceTransfer(accountId, "USD", BigDecimal.valueOf(500), "PLN", new BigDecimal("2000.00"))
+        ));
+        assertEquals(1, response.getSucceeded());
+        assertEquals(3, response.getFailed());
+        assertEquals(BatchExchangeResult.StatusEnum.SUCCEEDED, response.getResults().get(0).getStatus());
+        assertEquals("NOT_FOUND", response.getResults().get(1).getError().getCode());
+        assertEquals("Insufficient balance", response.getResults().get(2).getError().getMessage());
+        assertEquals("Invalid exchange request", response.getResults().get(3).getError().getMessage());
+        assertEquals(7L, response.getPricedWith().getVersion());
+        verify(ledgerWriter).recordAll(ledgerCaptor.capture());
+        assertEquals(1, ledgerCaptor.getValue().size());
+        verify(accountCache).evictAll(Set.of(accountId));
+    }
+
+    @Test
+    void shouldApplyExchangeInEngineWithoutTransactionWhenSharded() throws ServiceUnavailableException {
+        // given
+        var request = prepareExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var updated = prepareAccount();
+        updated.getBalances().put("PLN", BigDecimal.valueOf(900));
+        when(engine.isEnabled()).thenReturn(true);
+        when(engine.exchange(any())).thenReturn(updated);
+
+        // when
+        var response = sut.exchangeCurrency(accountId, request);
+
+        // then
+        verify(engine).exchange(new BalanceTransfer(accountId, "PLN", BigDecimal.valueOf(100), "USD", new BigDecimal("25.00")));
+        verify(ledgerWriter).record(any());
+        verify(accountCache).evict(accountId);
+        verifyNoInteractions(transactionTemplate, accountRepository);
+        assertEquals(BigDecimal.valueOf(900), response.getPlnBalance());
+        assertEquals(7L, response.getPricedWith().getVersion());
+    }
+
+    @Test
+    void shouldReportEngineFailuresPerBatchItem() throws ServiceUnavailableException {
+        // given
+        var missingAccountId = UUID.randomUUID();
+        var request = new BatchExchangeRequest(List.of(
+                new BatchExchangeItem(accountId, BigDecimal.valueOf(100), "PLN"),
+                new BatchExchangeItem(missingAccountId, BigDecimal.valueOf(100), "PLN"),
+                new BatchExchangeItem(accountId, BigDecimal.valueOf(500), "USD")
+        ));
+        var updated = prepareAccount();
+        when(engine.isEnabled()).thenReturn(true);
+        when(engine.submit(any())).thenReturn(
+                CompletableFuture.completedFuture(updated),
+                CompletableFuture.failedFuture(new ResourceNotFoundException("Account not found")),
+                CompletableFuture.failedFuture(new InsufficientBalanceException("Insufficient USD balance")));
+        when(engine.find(accountId)).thenReturn(Optional.of(updated));
+
+        // when
+        var response = sut.exchangeCurrencyBatch(request);
+
+        // then
+        var inOrder = inOrder(engine);
+        inOrder.verify(engine).submit(new BalanceTransfer(accountId, "PLN", BigDecimal.valueOf(100), "USD", new BigDecimal("25.00")));
+        inOrder.verify(engine).submit(new BalanceTransfer(missingAccountId, "PLN", BigDecimal.valueOf(100), "USD", new BigDecimal("25.00")));
+        inOrder.verify(engine).submit(new BalanceTransfer(accountId, "USD", BigDecimal.valueOf(500), "PLN", new BigDecimal("2000.00")));
+        assertEquals(1, response.getSucceeded());
+        assertEquals(accountId, response.getResults().get(0).getAccount().getId());
+        assertEquals("NOT_FOUND", response.getResults().get(1).getError().getCode());
+        assertEquals("Insufficient balance", response.getResults().get(2).getError().getMessage());
+        verify(accountCache).evictAll(Set.of(accountId));
+        verifyNoInteractions(transactionTemplate, accountRepository);
     }
 
     private void setupCommonMocks() throws ServiceUnavailableException {
-        when(accountRepository.findById(accountId))
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(accountRepository.findByIdForUpdate(accountId))
                 .thenReturn(Optional.of(prepareAccount()));
-        when(exchangeRateService.getCurrentRate(CurrencyEnum.USD))
-                .thenReturn(EXCHANGE_RATE);
+        when(exchangeRateService.isSupported(any())).thenReturn(true);
+        when(exchangeRateService.getCurrentSnapshot())
+                .thenReturn(SNAPSHOT);
+        when(accountRepository.applyTransfers(any())).thenReturn(new int[]{1});
+        when(clock.instant()).thenReturn(NOW);
     }
 
     private Account prepareAccount() {
         var account = new Account();
         account.setId(accountId);
-        account.setPlnBalance(INITIAL_PLN_BALANCE);
-        account.setUsdBalance(INITIAL_USD_BALANCE);
+        account.getBalances().put("PLN", INITIAL_PLN_BALANCE);
+        account.getBalances().put("USD", INITIAL_USD_BALANCE);
         return account;
     }
 
-    private ExchangeRequest prepareExchangeRequest(BigDecimal amount, CurrencyEnum currency) {
+    private ExchangeRequest prepareExchangeRequest(BigDecimal amount, String currency) {
         var request = new ExchangeRequest();
         request.setAmount(amount);
-        request.setSourceCurrency(ExchangeRequest.SourceCurrencyEnum.fromValue(currency.name()));
+        request.setSourceCurrency(currency);
         return request;
     }
 
-    private void verifyCommonInteractions(BigDecimal amount, CurrencyEnum currency) throws ServiceUnavailableException {
-        verify(balanceValidator).validateBalance(any(), eq(amount), eq(currency));
-        verify(accountRepository).findById(accountId);
-        verify(exchangeRateService).getCurrentRate(CurrencyEnum.USD);
-        verify(accountRepository).save(accountCaptor.capture());
+    private void verifyCommonInteractions() throws ServiceUnavailableException {
+        verify(accountRepository).findByIdForUpdate(accountId);
+        verify(exchangeRateService).getCurrentSnapshot();
         verify(accountMapper, times(1)).toResponse(any());
+        verifyNoInteractions(balanceValidator);
     }
-
-    private void assertBalances(BigDecimal expectedPln, BigDecimal expectedUsd) {
-        var capturedAccount = accountCaptor.getValue();
-        assertEquals(
-                expectedPln.setScale(2, RoundingMode.HALF_UP),
-                capturedAccount.getPlnBalance().setScale(2, RoundingMode.HALF_UP)
-        );
-        assertEquals(
-                expectedUsd.setScale(2, RoundingMode.HALF_UP),
-                capturedAccount.getUsdBalance().setScale(2, RoundingMode.HALF_UP)
-        );
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package com.example.currency_exchange.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FixedPointMoneyTest {
+
+    private static final int SAMPLES = 200_000;
+    private static final long SEED = 20240116L;
+
+    @Test
+    void shouldMatchBigDecimalConversionForRandomAmountsAndRates() {
+        // given
+        var random = new Random(SEED);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            var amount = BigDecimal.valueOf(random.nextInt(100_000_000), random.nextInt(3));
+            var sourceRate = randomRate(random);
+            var targetRate = randomRate(random);
+
+            // when
+            var fixedPoint = ExchangeService.convert(amount, snapshot(sourceRate, targetRate), "AAA", "BBB");
+
+            // then
+            var expected = ExchangeService.convert(amount, sourceRate, targetRate);
+            assertEquals(expected, fixedPoint, () -> amount + " * " + sourceRate + " / " + targetRate);
+        }
+    }
+
+    @Test
+    void shouldRoundHalfUpExactlyAtTies() {
+        // given
+        var random = new Random(SEED);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            // 0.005 away from a cent boundary: amount * 1 / 2 with an odd number of minor units
+            var amount = BigDecimal.valueOf(2L * random.nextInt(1_000_000) + 1, 2);
+            var sourceRate = BigDecimal.ONE;
+            var targetRate = new BigDecimal("2");
+
+            // when
+            var fixedPoint = ExchangeService.convert(amount, snapshot(sourceRate, targetRate), "AAA", "BBB");
+
+            // then
+            assertEquals(ExchangeService.convert(amount, sourceRate, targetRate), fixedPoint);
+        }
+    }
+
+    @Test
+    void shouldFallBackToBigDecimalForUnrepresentableInputs() {
+        // given
+        var preciseAmount = new BigDecimal("10.005");
+        var preciseRate = new BigDecimal("3.98712345");
+        var hugeAmount = new BigDecimal("92233720368547758.07");
+        var usdRate = new BigDecimal("3.9871");
+
+        // when/then
+        assertEquals(FixedPointMoney.UNREPRESENTABLE, FixedPointMoney.toUnscaled(preciseAmount, FixedPointMoney.AMOUNT_SCALE));
+        assertEquals(FixedPointMoney.UNREPRESENTABLE, FixedPointMoney.toUnscaled(preciseRate, FixedPointMoney.RATE_SCALE));
+        assertEquals(ExchangeService.convert(preciseAmount, BigDecimal.ONE, usdRate),
+                ExchangeService.convert(preciseAmount, snapshot(BigDecimal.ONE, usdRate), "AAA", "BBB"));
+        assertEquals(ExchangeService.convert(BigDecimal.TEN, preciseRate, usdRate),
+                ExchangeService.convert(BigDecimal.TEN, snapshot(preciseRate, usdRate), "AAA", "BBB"));
+        assertEquals(ExchangeService.convert(hugeAmount, new BigDecimal("5.0612"), usdRate),
+                ExchangeService.convert(hugeAmount, snapshot(new BigDecimal("5.0612"), usdRate), "AAA", "BBB"));
+    }
+
+    @Test
+    void shouldTreatPlnAsRateOne() {
+        // given
+        var amount = new BigDecimal("123.45");
+        var usdRate = new BigDecimal("3.9871");
+        var snapshot = snapshot(usdRate, usdRate);
+
+        // when
+        var toUsd = ExchangeService.convert(amount, snapshot, "PLN", "AAA");
+        var toPln = ExchangeService.convert(amount, snapshot, "AAA", "PLN");
+
+        // then
+        assertEquals(new BigDecimal("30.96"), toUsd);
+        assertEquals(new BigDecimal("492.21"), toPln);
+    }
+
+    // NBP publishes mids with four decimals, between roughly 0.0001 and 10
+    private static BigDecimal randomRate(Random random) {
+        return BigDecimal.valueOf(1 + random.nextInt(100_000), 4);
+    }
+
+    private static RateSnapshot snapshot(BigDecimal sourceRate, BigDecimal targetRate) {
+        var table = new RateTable("010/A/NBP/2024", LocalDate.of(2024, 1, 16),
+                Map.of("AAA", sourceRate, "BBB", targetRate));
+        var now = Instant.parse("2024-01-16T12:00:00Z");
+        return new RateSnapshot(1, table, now, now.plusSeconds(3600));
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.exceptions.IdempotencyKeyPendingException;
+import com.example.currency_exchange.exceptions.IdempotencyKeyReusedException;
+import com.example.currency_exchange.exceptions.InsufficientBalanceException;
+import com.example.currency_exchange.model.AccountResponse;
+import com.example.currency_exchange.model.ExchangeIdempotencyRecord;
+import com.example.currency_exchange.model.ExchangeRequest;
+import com.example.currency_exchange.repository.ExchangeIdempotencyRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotentExchangeServiceTest {
+    private static final String KEY = "8e0f7a52-retry";
+    private static final Instant NOW = Instant.parse("2024-01-16T12:30:00Z");
+
+    @Mock
+    private ExchangeService exchangeService;
+
+    @Mock
+    private ShardedAccountEngine engine;
+
+    @Mock
+    private ExchangeIdempotencyRepository repository;
+
+    @Mock
+    private Clock clock;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private IdempotentExchangeService sut;
+
+    private UUID accountId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        accountId = UUID.randomUUID();
+        when(clock.instant()).thenReturn(NOW);
+        when(repository.findById(anyString())).thenReturn(Optional.empty());
+        when(repository.saveAndFlush(any(ExchangeIdempotencyRecord.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(exchangeService.exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any()))
+                .thenAnswer(invocation -> applied(invocation.getArgument(2)));
+        var exchangeProperties = new ExchangeProperties();
+        exchangeProperties.getIdempotency().setMaximumSize(100);
+        sut = new IdempotentExchangeService(exchangeService, engine, repository, objectMapper, exchangeProperties,
+                clock, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void shouldReplayResponseWithoutExchangingAgain() throws Exception {
+        // given
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var first = sut.exchangeCurrency(KEY, accountId, request);
+
+        // when
+        var retry = sut.exchangeCurrency(KEY, accountId, new ExchangeRequest(new BigDecimal("100.00"), "PLN"));
+
+        // then
+        assertEquals(first, retry);
+        verify(exchangeService, times(1)).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+        verify(repository, times(1)).saveAndFlush(any(ExchangeIdempotencyRecord.class));
+        // looked up before and after claiming the key, then answered from memory
+        verify(repository, times(2)).findById(KEY);
+    }
+
+    @Test
+    void shouldReplayResponseRecordedInTable() throws Exception {
+        // given
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var recorded = prepareResponse();
+        when(repository.findById(KEY)).thenReturn(Optional.of(new ExchangeIdempotencyRecord(KEY,
+                IdempotentExchangeService.fingerprint(accountId, request),
+                objectMapper.writeValueAsString(recorded), NOW.minus(Duration.ofHours(1)))));
+
+        // when
+        var response = sut.exchangeCurrency(KEY, accountId, request);
+
+        // then
+        assertEquals(recorded, response);
+        verify(exchangeService, never()).exchangeCurrency(any(), any(), any());
+    }
+
+    @Test
+    void shouldRejectKeyReusedForDifferentExchange() throws Exception {
+        // given
+        sut.exchangeCurrency(KEY, accountId, new ExchangeRequest(BigDecimal.valueOf(100), "PLN"));
+        var request = new ExchangeRequest(BigDecimal.valueOf(200), "PLN");
+
+        // when
+        var exception = assertThrows(IdempotencyKeyReusedException.class,
+                () -> sut.exchangeCurrency(KEY, accountId, request));
+
+        // then
+        assertEquals("Idempotency key " + KEY + " was used for a different exchange", exception.getMessage());
+        verify(exchangeService, times(1)).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+    }
+
+    @Test
+    void shouldExchangeAgainOnceKeyExpired() throws Exception {
+        // given
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        when(repository.findById(KEY)).thenReturn(Optional.of(new ExchangeIdempotencyRecord(KEY,
+                IdempotentExchangeService.fingerprint(accountId, request),
+                objectMapper.writeValueAsString(prepareResponse()), NOW.minus(Duration.ofHours(25)))));
+
+        // when
+        sut.exchangeCurrency(KEY, accountId, request);
+
+        // then
+        verify(repository, times(2)).deleteCreatedBefore(KEY, NOW.minus(Duration.ofHours(24)));
+        verify(exchangeService, times(1)).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+    }
+
+    @Test
+    void shouldExchangeAgainAfterFailedAttempt() throws Exception {
+        // given
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        doThrow(new InsufficientBalanceException("Insufficient PLN balance"))
+                .doAnswer(invocation -> applied(invocation.getArgument(2)))
+                .when(exchangeService).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+        assertThrows(InsufficientBalanceException.class, () -> sut.exchangeCurrency(KEY, accountId, request));
+
+        // when
+        var response = sut.exchangeCurrency(KEY, accountId, request);
+
+        // then
+        assertEquals(prepareResponse(), response);
+        verify(exchangeService, times(2)).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+    }
+
+    @Test
+    void shouldApplyConcurrentRetriesOnce() throws Exception {
+        // given
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var exchanging = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            exchanging.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return applied(invocation.getArgument(2));
+        }).when(exchangeService).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+        var executor = Executors.newFixedThreadPool(2);
+
+        // when
+        var first = executor.submit(() -> sut.exchangeCurrency(KEY, accountId, request));
+        assertTrue(exchanging.await(5, TimeUnit.SECONDS));
+        var retry = executor.submit(() -> sut.exchangeCurrency(KEY, accountId, request));
+        release.countDown();
+
+        // then
+        assertEquals(first.get(5, TimeUnit.SECONDS), retry.get(5, TimeUnit.SECONDS));
+        verify(exchangeService, times(1)).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+        executor.shutdown();
+    }
+
+    @Test
+    void shouldReserveKeyBeforeEngineAppliesExchange() throws Exception {
+        // given
+        when(engine.isEnabled()).thenReturn(true);
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        var inOrder = inOrder(repository, exchangeService);
+
+        // when
+        var first = sut.exchangeCurrency(KEY, accountId, request);
+        var retry = sut.exchangeCurrency(KEY, accountId, request);
+
+        // then
+        assertEquals(first, retry);
+        inOrder.verify(repository).saveAndFlush(argThat(ExchangeIdempotencyRecord::isReserved));
+        inOrder.verify(exchangeService).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+        inOrder.verify(repository).recordResponse(KEY, objectMapper.writeValueAsString(first));
+        verify(repository, never()).deleteReserved(anyString());
+    }
+
+    @Test
+    void shouldFreeReservedKeyWhenEngineRejectsExchange() throws Exception {
+        // given
+        when(engine.isEnabled()).thenReturn(true);
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        doThrow(new InsufficientBalanceException("Insufficient PLN balance"))
+                .when(exchangeService).exchangeCurrency(eq(accountId), any(ExchangeRequest.class), any());
+
+        // when
+        assertThrows(InsufficientBalanceException.class, () -> sut.exchangeCurrency(KEY, accountId, request));
+
+        // then
+        verify(repository).deleteReserved(KEY);
+        verify(repository, never()).recordResponse(anyString(), anyString());
+    }
+
+    @Test
+    void shouldRejectRetryOfReservedKeyWithUnknownOutcome() throws Exception {
+        // given
+        when(engine.isEnabled()).thenReturn(true);
+        var request = new ExchangeRequest(BigDecimal.valueOf(100), "PLN");
+        // left behind by a process that died while the engine applied the exchange
+        when(repository.findById(KEY)).thenReturn(Optional.of(new ExchangeIdempotencyRecord(KEY,
+                IdempotentExchangeService.fingerprint(accountId, request), null, NOW.minus(Duration.ofMinutes(5)))));
+
+        // when
+        var exception = assertThrows(IdempotencyKeyPendingException.class,
+                () -> sut.exchangeCurrency(KEY, accountId, request));
+
+        // then
+        assertEquals("Exchange with idempotency key " + KEY + " is being applied or its outcome is unknown",
+                exception.getMessage());
+        verify(exchangeService, never()).exchangeCurrency(any(), any(), any());
+        verify(repository, never()).deleteReserved(anyString());
+    }
+
+    private AccountResponse applied(Consumer<AccountResponse> onApplied) {
+        var response = prepareResponse();
+        onApplied.accept(response);
+        return response;
+    }
+
+    private AccountResponse prepareResponse() {
+        var response = new AccountResponse();
+        response.setId(accountId);
+        response.setFirstName("Jan");
+        response.setLastName("Kowalski");
+        response.setBalances(Map.of("PLN", new BigDecimal("900.00"), "USD", new BigDecimal("25.00")));
+        response.setPlnBalance(new BigDecimal("900.00"));
+        response.setUsdBalance(new BigDecimal("25.00"));
+        return response;
+    }
+}
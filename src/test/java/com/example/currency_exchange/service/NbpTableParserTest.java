@@ -0,0 +1,73 @@
+package com.example.currency_exchange.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NbpTableParserTest {
+
+    @Test
+    void shouldReadTableNumberDateAndMids() throws IOException {
+        // given
+        var body = "[{\"table\":\"A\",\"no\":\"010/A/NBP/2024\",\"effectiveDate\":\"2024-01-16\",\"rates\":["
+                + "{\"currency\":\"dolar amerykański\",\"code\":\"USD\",\"mid\":4.0123},"
+                + "{\"currency\":\"euro\",\"code\":\"EUR\",\"mid\":4.3789}]}]";
+
+        // when
+        var table = parse(body);
+
+        // then
+        assertEquals("010/A/NBP/2024", table.getNo());
+        assertEquals(2024010L, table.getVersion());
+        assertEquals(LocalDate.of(2024, 1, 16), table.getEffectiveDate());
+        assertEquals(Map.of("USD", new BigDecimal("4.0123"), "EUR", new BigDecimal("4.3789")), table.getMids());
+    }
+
+    @Test
+    void shouldSkipUnknownFieldsAndIncompleteRates() throws IOException {
+        // given
+        var body = "[{\"rates\":[{\"code\":\"USD\",\"extra\":{\"nested\":[1,2]},\"mid\":4.01},{\"code\":\"XDR\"}],"
+                + "\"source\":{\"name\":\"NBP\"},\"no\":\"011/A/NBP/2024\",\"effectiveDate\":\"2024-01-17\"}]";
+
+        // when
+        var table = parse(body);
+
+        // then
+        assertEquals("011/A/NBP/2024", table.getNo());
+        assertEquals(Map.of("USD", new BigDecimal("4.01")), table.getMids());
+    }
+
+    @Test
+    void shouldRejectTableWithUnexpectedNumber() {
+        // given
+        var body = "[{\"table\":\"A\",\"no\":\"A-010\",\"effectiveDate\":\"2024-01-16\",\"rates\":[]}]";
+
+        // when
+        var exception = assertThrows(IllegalArgumentException.class, () -> parse(body));
+
+        // then
+        assertEquals("Unexpected NBP table number A-010", exception.getMessage());
+    }
+
+    @Test
+    void shouldRejectResponseThatIsNotATableArray() {
+        // given
+        var body = "{\"status\":404,\"message\":\"Not Found\"}";
+
+        // when/then
+        assertThrows(JsonParseException.class, () -> parse(body));
+    }
+
+    private RateTable parse(String body) throws IOException {
+        return NbpTableParser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
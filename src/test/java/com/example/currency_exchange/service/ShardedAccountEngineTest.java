@@ -0,0 +1,342 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.config.ExchangeProperties;
+import com.example.currency_exchange.config.ExchangeProperties.EngineMode;
+import com.example.currency_exchange.exceptions.InsufficientBalanceException;
+import com.example.currency_exchange.exceptions.ResourceNotFoundException;
+import com.example.currency_exchange.model.Account;
+import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.BalanceTransfer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShardedAccountEngineTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Spy
+    private AccountBalanceValidator balanceValidator = new AccountBalanceValidator();
+
+    private ExchangeProperties exchangeProperties;
+
+    private SimpleMeterRegistry registry;
+
+    private ShardedAccountEngine sut;
+
+    private UUID accountId;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        exchangeProperties = new ExchangeProperties();
+        exchangeProperties.getEngine().setMode(EngineMode.SHARDED);
+        exchangeProperties.getEngine().setShards(2);
+        exchangeProperties.getEngine().setFlushInterval(Duration.ofMillis(20));
+        registry = new SimpleMeterRegistry();
+        accountId = UUID.randomUUID();
+        when(accountRepository.findById(accountId)).thenAnswer(invocation -> Optional.of(prepareAccount()));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        sut.stop();
+    }
+
+    @Test
+    void shouldApplyExchangesInOrderAndWriteBalancesBack() throws InterruptedException {
+        // given
+        startEngine();
+        var transfer = new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00"));
+
+        // when
+        sut.exchange(transfer);
+        var account = sut.exchange(transfer);
+
+        // then
+        assertEquals(new BigDecimal("800.00"), account.getBalance("PLN"));
+        assertEquals(new BigDecimal("50.00"), account.getBalance("USD"));
+        assertEquals(account, sut.find(accountId).orElseThrow());
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+        verify(accountRepository, times(1)).findById(accountId);
+        assertEquals(account.getBalances(), lastWrittenBalances().get(0).getBalances());
+    }
+
+    @Test
+    void shouldNeverMutatePublishedAccount() {
+        // given
+        startEngine();
+        var transfer = new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00"));
+        var first = sut.exchange(transfer);
+
+        // when
+        sut.exchange(transfer);
+
+        // then
+        assertEquals(new BigDecimal("900.00"), first.getBalance("PLN"));
+    }
+
+    @Test
+    void shouldRejectDebitAboveBalance() throws InterruptedException {
+        // given
+        startEngine();
+        var transfer = new BalanceTransfer(accountId, "PLN", new BigDecimal("1000.01"), "USD", new BigDecimal("250.00"));
+
+        // when
+        var exception = assertThrows(InsufficientBalanceException.class, () -> sut.exchange(transfer));
+
+        // then
+        assertEquals("Insufficient PLN balance", exception.getMessage());
+        assertTrue(sut.find(accountId).isEmpty());
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+        verify(accountRepository, never()).saveBalances(any());
+    }
+
+    @Test
+    void shouldReportMissingAccount() {
+        // given
+        startEngine();
+        var missingAccountId = UUID.randomUUID();
+        var transfer = new BalanceTransfer(missingAccountId, "PLN", BigDecimal.TEN, "USD", new BigDecimal("2.50"));
+
+        // when
+        var exception = assertThrows(ResourceNotFoundException.class, () -> sut.exchange(transfer));
+
+        // then
+        assertEquals("Account not found", exception.getMessage());
+        assertTrue(sut.find(missingAccountId).isEmpty());
+    }
+
+    @Test
+    void shouldApplyOtherExchangesWhileAccountLoads() throws Exception {
+        // given
+        exchangeProperties.getEngine().setShards(1);
+        var coldAccountId = UUID.randomUUID();
+        var release = new CountDownLatch(1);
+        when(accountRepository.findById(coldAccountId)).thenAnswer(invocation -> {
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return Optional.of(prepareAccount(coldAccountId));
+        });
+        startEngine();
+        var transfer = new BalanceTransfer(coldAccountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00"));
+        var first = sut.submit(transfer);
+        var second = sut.submit(transfer);
+
+        // when
+        var account = sut.exchange(new BalanceTransfer(accountId, "PLN", BigDecimal.TEN, "USD", new BigDecimal("2.50")));
+
+        // then
+        assertEquals(new BigDecimal("990.00"), account.getBalance("PLN"));
+        assertFalse(first.isDone());
+        release.countDown();
+        assertEquals(new BigDecimal("900.00"), first.get(5, TimeUnit.SECONDS).getBalance("PLN"));
+        assertEquals(new BigDecimal("800.00"), second.get(5, TimeUnit.SECONDS).getBalance("PLN"));
+        verify(accountRepository, times(1)).findById(coldAccountId);
+    }
+
+    @Test
+    void shouldEvictWrittenBackAccountsAboveResidentLimit() throws InterruptedException {
+        // given
+        exchangeProperties.getEngine().setShards(1);
+        exchangeProperties.getEngine().setMaxResidentAccounts(1);
+        var otherAccountId = UUID.randomUUID();
+        when(accountRepository.findById(otherAccountId)).thenAnswer(invocation -> Optional.of(prepareAccount(otherAccountId)));
+        startEngine();
+        sut.exchange(new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00")));
+        sut.exchange(new BalanceTransfer(otherAccountId, "PLN", BigDecimal.TEN, "USD", new BigDecimal("2.50")));
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+
+        // when
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sut.find(accountId).isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // then
+        assertTrue(sut.find(accountId).isEmpty());
+        assertTrue(sut.find(otherAccountId).isPresent());
+        sut.exchange(new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00")));
+        verify(accountRepository, times(2)).findById(accountId);
+    }
+
+    @Test
+    void shouldWriteBalancesBackOnShutdown() throws InterruptedException {
+        // given
+        exchangeProperties.getEngine().setFlushInterval(Duration.ofMinutes(1));
+        startEngine();
+        sut.exchange(new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00")));
+        verify(accountRepository, never()).saveBalances(any());
+
+        // when
+        sut.stop();
+
+        // then
+        assertEquals(new BigDecimal("900.00"), lastWrittenBalances().get(0).getBalance("PLN"));
+    }
+
+    @Test
+    void shouldRecoverAcknowledgedExchangesFromJournalAfterCrash(@TempDir Path journalDirectory) throws Exception {
+        // given
+        exchangeProperties.getEngine().getJournal().setEnabled(true);
+        exchangeProperties.getEngine().getJournal().setDirectory(journalDirectory.toString());
+        // nothing is written back before the crash, so only the journal holds the balances
+        exchangeProperties.getEngine().setFlushInterval(Duration.ofMinutes(1));
+        when(accountRepository.findExistingIds(any())).thenAnswer(invocation -> new ArrayList<>(invocation.getArgument(0)));
+        startEngine();
+        var transfer = new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00"));
+        sut.exchange(transfer);
+        sut.exchange(transfer);
+        // abandoned without stop(), as if the process had died
+        var crashed = sut;
+
+        // when
+        startEngine();
+
+        // then
+        var account = sut.find(accountId).orElseThrow();
+        assertEquals(new BigDecimal("800.00"), account.getBalance("PLN"));
+        assertEquals(new BigDecimal("50.00"), account.getBalance("USD"));
+        assertEquals("Kowalski", account.getLastName());
+        verify(accountRepository, times(1)).findById(accountId);
+        verify(accountRepository, never()).saveBalances(any());
+        crashed.stop();
+    }
+
+    @Test
+    void shouldDropRecoveredAccountsMissingFromDatabase(@TempDir Path journalDirectory) throws Exception {
+        // given
+        exchangeProperties.getEngine().getJournal().setEnabled(true);
+        exchangeProperties.getEngine().getJournal().setDirectory(journalDirectory.toString());
+        exchangeProperties.getEngine().setFlushInterval(Duration.ofMinutes(1));
+        startEngine();
+        sut.exchange(new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00")));
+        var crashed = sut;
+        // the database was recreated, the journal was not
+        when(accountRepository.findExistingIds(any())).thenReturn(List.of());
+
+        // when
+        startEngine();
+
+        // then
+        assertTrue(sut.find(accountId).isEmpty());
+        assertTrue(sut.flush(Duration.ofSeconds(5)));
+        verify(accountRepository, never()).saveBalances(any());
+        crashed.stop();
+    }
+
+    @Test
+    void shouldWriteBackAgainAccountThatKeptBatchFromCommitting() throws InterruptedException {
+        // given
+        exchangeProperties.getEngine().setShards(1);
+        exchangeProperties.getEngine().setFlushInterval(Duration.ofMinutes(1));
+        exchangeProperties.getEngine().setRetryBackoff(Duration.ofMillis(1));
+        var poisonAccountId = UUID.randomUUID();
+        var databaseDown = new AtomicBoolean(true);
+        when(accountRepository.findById(poisonAccountId)).thenAnswer(invocation -> Optional.of(prepareAccount(poisonAccountId)));
+        doAnswer(invocation -> {
+            Collection<Account> accounts = invocation.getArgument(0);
+            if (databaseDown.get() && accounts.stream().anyMatch(account -> account.getId().equals(poisonAccountId))) {
+                throw new DataIntegrityViolationException("FK_ACCOUNT_BALANCES_ACCOUNT");
+            }
+            return null;
+        }).when(accountRepository).saveBalances(any());
+        startEngine();
+        var account = sut.exchange(new BalanceTransfer(accountId, "PLN", new BigDecimal("100.00"), "USD", new BigDecimal("25.00")));
+        var poisonAccount = sut.exchange(new BalanceTransfer(poisonAccountId, "PLN", BigDecimal.TEN, "USD", new BigDecimal("2.50")));
+        var exception = assertThrows(IllegalStateException.class, () -> sut.flush(Duration.ofSeconds(5)));
+        databaseDown.set(false);
+
+        // when
+        var flushed = sut.flush(Duration.ofSeconds(5));
+
+        // then
+        assertEquals("Flushing account balances failed", exception.getMessage());
+        assertTrue(flushed);
+        verify(accountRepository).saveBalances(List.of(account));
+        verify(accountRepository, times(2)).saveBalances(List.of(poisonAccount));
+        assertEquals(1.0, registry.get("exchange.engine.failed.writes").counter().count());
+        assertEquals(1, registry.get("exchange.engine.batch").summary().count());
+    }
+
+    @Test
+    void shouldStayIdleInJpaMode() throws InterruptedException {
+        // given
+        exchangeProperties.getEngine().setMode(EngineMode.JPA);
+        startEngine();
+        var transfer = new BalanceTransfer(accountId, "PLN", BigDecimal.TEN, "USD", new BigDecimal("2.50"));
+
+        // when
+        var exception = assertThrows(IllegalStateException.class, () -> sut.exchange(transfer));
+
+        // then
+        assertEquals("Account engine is not running", exception.getMessage());
+        assertTrue(sut.flush(Duration.ofSeconds(1)));
+    }
+
+    private void startEngine() {
+        sut = new ShardedAccountEngine(accountRepository, balanceValidator,
+                new TransactionTemplate(transactionManager), exchangeProperties, registry);
+        try {
+            sut.start();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Account> lastWrittenBalances() {
+        ArgumentCaptor<Collection<Account>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(accountRepository, atLeastOnce()).saveBalances(captor.capture());
+        return new ArrayList<>(captor.getValue());
+    }
+
+    private Account prepareAccount() {
+        return prepareAccount(accountId);
+    }
+
+    private Account prepareAccount(UUID id) {
+        var account = new Account("Jan", "Kowalski", INITIAL_BALANCE);
+        account.setId(id);
+        return account;
+    }
+}
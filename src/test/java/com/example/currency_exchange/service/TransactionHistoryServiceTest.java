@@ -0,0 +1,135 @@
+package com.example.currency_exchange.service;
+
+import com.example.currency_exchange.exceptions.InvalidCursorException;
+import com.example.currency_exchange.exceptions.ResourceNotFoundException;
+import com.example.currency_exchange.mapper.AccountMapper;
+import com.example.currency_exchange.model.ExchangeLedgerEntry;
+import com.example.currency_exchange.model.ExchangeTransaction;
+import com.example.currency_exchange.repository.AccountRepository;
+import com.example.currency_exchange.repository.ExchangeLedgerRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class TransactionHistoryServiceTest {
+
+    private static final UUID ACCOUNT_ID = UUID.randomUUID();
+    private static final Instant CREATED_AT = Instant.parse("2024-01-16T12:30:00.123456Z");
+
+    @Mock
+    private ExchangeLedgerRepository ledgerRepository;
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Spy
+    private AccountMapper accountMapper = new AccountMapper();
+
+    @InjectMocks
+    private TransactionHistoryService sut;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void shouldReturnFirstPageWithCursorOfItsLastEntry() {
+        // given
+        when(ledgerRepository.findByAccountIdOrderByCreatedAtDescIdDesc(ACCOUNT_ID, PageRequest.ofSize(3)))
+                .thenReturn(List.of(prepareEntry(30), prepareEntry(20), prepareEntry(10)));
+
+        // when
+        var result = sut.getTransactions(ACCOUNT_ID, 2, null);
+
+        // then
+        assertEquals(List.of(30L, 20L), result.getItems().stream()
+                .map(ExchangeTransaction::getId)
+                .collect(Collectors.toList()));
+        assertEquals(new HistoryCursor(CREATED_AT, 20), HistoryCursor.decode(result.getNextCursor()));
+        verifyNoInteractions(accountRepository);
+    }
+
+    @Test
+    void shouldContinueAfterCursorPosition() {
+        // given
+        var cursor = new HistoryCursor(CREATED_AT, 20).encode();
+        when(ledgerRepository.findByAccountIdBefore(ACCOUNT_ID, CREATED_AT, 20, PageRequest.ofSize(3)))
+                .thenReturn(List.of(prepareEntry(10)));
+
+        // when
+        var result = sut.getTransactions(ACCOUNT_ID, 2, cursor);
+
+        // then
+        assertEquals(1, result.getItems().size());
+        assertEquals("PLN", result.getItems().get(0).getSourceCurrency());
+        assertEquals("010/A/NBP/2024", result.getItems().get(0).getTableNo());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    void shouldReturnEmptyPageForAccountWithoutExchanges() {
+        // given
+        when(ledgerRepository.findByAccountIdOrderByCreatedAtDescIdDesc(any(), any())).thenReturn(List.of());
+        when(accountRepository.existsById(ACCOUNT_ID)).thenReturn(true);
+
+        // when
+        var result = sut.getTransactions(ACCOUNT_ID, 50, null);
+
+        // then
+        assertTrue(result.getItems().isEmpty());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    void shouldThrowExceptionWhenAccountNotFound() {
+        // given
+        when(ledgerRepository.findByAccountIdOrderByCreatedAtDescIdDesc(any(), any())).thenReturn(List.of());
+        when(accountRepository.existsById(ACCOUNT_ID)).thenReturn(false);
+
+        // when/then
+        var exception = assertThrows(
+                ResourceNotFoundException.class,
+                () -> sut.getTransactions(ACCOUNT_ID, 50, null)
+        );
+
+        assertEquals("Account not found", exception.getMessage());
+        verify(accountRepository).existsById(ACCOUNT_ID);
+    }
+
+    @Test
+    void shouldRejectMalformedCursor() {
+        // when/then
+        assertThrows(InvalidCursorException.class, () -> sut.getTransactions(ACCOUNT_ID, 50, "not-a-cursor"));
+        verifyNoInteractions(ledgerRepository);
+    }
+
+    private ExchangeLedgerEntry prepareEntry(long id) {
+        var entry = new ExchangeLedgerEntry(ACCOUNT_ID,
+                "PLN", BigDecimal.valueOf(100), "USD", BigDecimal.valueOf(25),
+                BigDecimal.ONE, BigDecimal.valueOf(4),
+                7, "010/A/NBP/2024", CREATED_AT);
+        ReflectionTestUtils.setField(entry, "id", id);
+        return entry;
+    }
+}